@@ -0,0 +1,511 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.JLayeredPane;
+import javax.swing.JRootPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Animates tiles moving between cells and rotating in place. All animations run
+ * off a single frame timer. The state of a tile is always changed right away,
+ * the animator only changes how it looks until the animation ends.
+ *
+ * <p>Large boards are handled by starting the animations in batches spread over
+ * a fixed window, and by only updating as many tiles per frame as fit in the
+ * frame budget. Progress is based on time, so a tile skipped in one frame
+ * catches up in the next instead of slowing the whole animation down.
+ *
+ * @author James Fantin
+ */
+public final class Animator extends JComponent implements ActionListener {
+
+  /**
+   * Serial id to make the compiler happy.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Delay in milliseconds between frames, roughly 60 fps.
+   */
+  private static final int FRAME_DELAY = 16;
+
+  /**
+   * How long a single tile takes to move or rotate, in nanoseconds.
+   */
+  private static final long DURATION = 300_000_000L;
+
+  /**
+   * Every queued animation is started within this window, in nanoseconds. With
+   * the duration above every batch finishes in a second and a half.
+   */
+  private static final long STAGGER = 1_200_000_000L;
+
+  /**
+   * Time a single frame may spend updating tiles, in nanoseconds.
+   */
+  private static final long BUDGET = 8_000_000L;
+
+  /**
+   * The animator drawing on the current window, null until first used.
+   */
+  private static Animator animator;
+
+  /**
+   * The state of a single tile being animated.
+   */
+  private static final class Animation {
+    /**
+     * The tile being animated.
+     */
+    private final Tile tile;
+
+    /**
+     * Where the tile starts in animator coordinates, null if it does not move.
+     */
+    private final Rectangle from;
+
+    /**
+     * Where the tile ends up in animator coordinates, null if it does not move.
+     */
+    private final Rectangle to;
+
+    /**
+     * Number of quarter turns the tile is rotated by.
+     */
+    private final double turns;
+
+    /**
+     * Where the tile is currently drawn, null if it does not move.
+     */
+    private Rectangle bounds;
+
+    /**
+     * When the animation started, in nanoseconds.
+     */
+    private long start;
+
+    /**
+     * True once the tile is back to its normal state.
+     */
+    private boolean done;
+
+    /**
+     * Creates an animation.
+     *
+     * @param tile
+     *          the tile being animated
+     * @param from
+     *          where the tile starts, null if it does not move
+     * @param to
+     *          where the tile ends up, null if it does not move
+     * @param turns
+     *          number of quarter turns the tile is rotated by
+     */
+    private Animation(Tile tile, Rectangle from, Rectangle to, double turns) {
+      this.tile = tile;
+      this.from = from;
+      this.to = to;
+      this.turns = turns;
+      bounds = from == null ? null : new Rectangle(from);
+    }
+
+    /**
+     * Returns true if the tile moves between cells.
+     *
+     * @return true if the tile moves
+     */
+    private boolean isFlying() {
+      return from != null;
+    }
+  }
+
+  /**
+   * The frame timer shared by every animation.
+   */
+  private final Timer timer;
+
+  /**
+   * Animations that have not started yet, in the order they were queued.
+   */
+  private final ArrayDeque<Animation> pending = new ArrayDeque<>();
+
+  /**
+   * Animations that are currently running.
+   */
+  private final ArrayList<Animation> active = new ArrayList<>();
+
+  /**
+   * Every queued or running animation by tile.
+   */
+  private final Map<Tile, Animation> byTile = new IdentityHashMap<>();
+
+  /**
+   * Index into the active animations that the next frame starts updating at.
+   */
+  private int cursor;
+
+  /**
+   * When the current batch of animations must all be started, in nanoseconds.
+   */
+  private long startDeadline;
+
+  /**
+   * Creates the animator. It covers the whole layered pane and only draws the
+   * tiles that are moving.
+   */
+  private Animator() {
+    setOpaque(false);
+    timer = new Timer(FRAME_DELAY, this);
+    timer.setCoalesce(true);
+  }
+
+  /**
+   * Finishes every animation right away.
+   */
+  public static void finishAll() {
+    if (animator == null) {
+      return;
+    }
+
+    RepaintCoordinator.begin();
+    try {
+      for (Animation animation : animator.pending) {
+        if (!animation.done) {
+          animator.finish(animation);
+        }
+      }
+      for (Animation animation : animator.active) {
+        if (!animation.done) {
+          animator.finish(animation);
+        }
+      }
+      animator.pending.clear();
+      animator.active.clear();
+      animator.byTile.clear();
+      animator.timer.stop();
+      animator.repaint();
+    } finally {
+      RepaintCoordinator.end();
+    }
+  }
+
+  /**
+   * Ends any animation of a tile right away, such as when the player picks it
+   * up.
+   *
+   * @param tile
+   *          the tile
+   */
+  public static void stop(Tile tile) {
+    if (animator != null) {
+      animator.cancel(tile);
+    }
+  }
+
+  /**
+   * Returns true while any tile is animating.
+   *
+   * @return true if an animation is queued or running
+   */
+  public static boolean isRunning() {
+    return animator != null && !animator.byTile.isEmpty();
+  }
+
+  /**
+   * Animates a tile that has already been moved to a new cell and rotated. The
+   * tile is drawn in its old cell at its old rotation until its animation
+   * starts. The real tile stays in its new cell, so clicks and drops on the
+   * cell still find it, but draws nothing until it lands.
+   *
+   * @param tile
+   *          the tile that moved
+   * @param from
+   *          the cell the tile was in
+   * @param to
+   *          the cell the tile is in now
+   * @param turns
+   *          number of quarter turns the tile was rotated by
+   */
+  public static void move(Tile tile, Cell from, Cell to, int turns) {
+    Animator current = install(to);
+    if (current == null) {
+      return;
+    }
+    current.cancel(tile);
+
+    Rectangle start = SwingUtilities.convertRectangle(from.getParent(), from.getBounds(),
+        current);
+    Rectangle end = SwingUtilities.convertRectangle(to.getParent(), to.getBounds(), current);
+
+    // The real tile is only drawn by the animator until it lands
+    tile.setTurn(turns);
+    tile.setFlying(true);
+    RepaintCoordinator.markDirty(tile);
+
+    current.queue(new Animation(tile, start, end, turns));
+    current.repaint(start);
+  }
+
+  /**
+   * Animates a tile that has already been rotated in place.
+   *
+   * @param tile
+   *          the tile that rotated
+   * @param turns
+   *          number of quarter turns the tile was rotated by
+   */
+  public static void rotate(Tile tile, int turns) {
+    Animator current = install(tile);
+    if (current == null || turns == 0) {
+      return;
+    }
+
+    // A tile that is still turning keeps the turns it has left
+    double remaining = turns;
+    Animation previous = current.byTile.get(tile);
+    if (previous != null && !previous.isFlying()) {
+      remaining += tile.getTurn();
+    }
+    current.cancel(tile);
+
+    tile.setTurn(remaining);
+    RepaintCoordinator.markDirty(tile);
+    current.queue(new Animation(tile, null, null, remaining));
+  }
+
+  /**
+   * Gets the animator for the window a component is in, adding it to the
+   * layered pane of the window the first time.
+   *
+   * @param c
+   *          a component in the window
+   * @return the animator, null if the component is not in a window
+   */
+  private static Animator install(JComponent c) {
+    JRootPane rootPane = SwingUtilities.getRootPane(c);
+    if (rootPane == null) {
+      return null;
+    }
+
+    JLayeredPane layeredPane = rootPane.getLayeredPane();
+    if (animator == null) {
+      animator = new Animator();
+    }
+    if (animator.getParent() != layeredPane) {
+      layeredPane.add(animator, JLayeredPane.PALETTE_LAYER);
+    }
+    animator.setBounds(0, 0, layeredPane.getWidth(), layeredPane.getHeight());
+    return animator;
+  }
+
+  /**
+   * Runs a single frame. Starts the next batch of animations, then updates as
+   * many running animations as fit in the frame budget.
+   *
+   * @param event
+   *          Timer event
+   */
+  @Override
+  public void actionPerformed(ActionEvent event) {
+    long now = System.nanoTime();
+    long budgetEnd = now + BUDGET;
+
+    // Start enough animations to have them all started by the deadline
+    if (!pending.isEmpty()) {
+      long framesLeft = Math.max(1, (startDeadline - now) / (FRAME_DELAY * 1_000_000L));
+      long batch = (pending.size() + framesLeft - 1) / framesLeft;
+      for (long i = 0; i < batch && !pending.isEmpty(); i++) {
+        Animation animation = pending.poll();
+        if (!animation.done) {
+          animation.start = now;
+          active.add(animation);
+        }
+      }
+    }
+
+    Rectangle dirty = null;
+    RepaintCoordinator.begin();
+    try {
+      // Update round robin, so tiles skipped when over budget go first next frame
+      int count = active.size();
+      int updated = 0;
+      while (updated < count && (updated == 0 || System.nanoTime() < budgetEnd)) {
+        if (cursor >= count) {
+          cursor = 0;
+        }
+        Animation animation = active.get(cursor++);
+        updated++;
+        if (animation.done) {
+          // Cancelled, dropped below
+          continue;
+        }
+
+        double t = Math.min(1, (double) (now - animation.start) / DURATION);
+        dirty = union(dirty, animation.bounds);
+
+        if (t >= 1) {
+          finish(animation);
+          byTile.remove(animation.tile);
+          continue;
+        }
+
+        // Ease in and out
+        double eased = t * t * (3 - 2 * t);
+        animation.tile.setTurn(animation.turns * (1 - eased));
+
+        if (animation.isFlying()) {
+          animation.bounds.setBounds(
+              (int) Math.round(animation.from.x + (animation.to.x - animation.from.x) * eased),
+              (int) Math.round(animation.from.y + (animation.to.y - animation.from.y) * eased),
+              animation.to.width, animation.to.height);
+          dirty = union(dirty, animation.bounds);
+        } else {
+          RepaintCoordinator.markDirty(animation.tile);
+        }
+      }
+
+      active.removeIf(animation -> animation.done);
+    } finally {
+      RepaintCoordinator.end();
+    }
+
+    if (dirty != null) {
+      repaint(dirty);
+    }
+    if (active.isEmpty() && pending.isEmpty()) {
+      timer.stop();
+      cursor = 0;
+    }
+  }
+
+  /**
+   * Stops any animation of a tile and puts the tile back to its normal state.
+   * The animation is only marked done, the next frame drops it from the queues
+   * in one pass instead of a search per tile.
+   *
+   * @param tile
+   *          the tile to stop animating
+   */
+  private void cancel(Tile tile) {
+    Animation animation = byTile.remove(tile);
+    if (animation != null) {
+      finish(animation);
+      if (animation.bounds != null) {
+        repaint(animation.bounds);
+      }
+    }
+  }
+
+  /**
+   * Puts a tile back to its normal state.
+   *
+   * @param animation
+   *          the animation that ended
+   */
+  private void finish(Animation animation) {
+    animation.done = true;
+    animation.tile.setTurn(0);
+    if (animation.isFlying()) {
+      animation.tile.setFlying(false);
+    }
+    RepaintCoordinator.markDirty(animation.tile);
+  }
+
+  /**
+   * Draws every tile that is flying between cells or waiting to.
+   *
+   * @param g
+   *          Graphics
+   */
+  @Override
+  public void paintComponent(Graphics g) {
+    Graphics2D g2 = (Graphics2D) g;
+    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    Rectangle clip = g2.getClipBounds();
+    AffineTransform saved = g2.getTransform();
+
+    for (Animation animation : pending) {
+      paintFlight(g2, clip, animation, saved);
+    }
+    for (Animation animation : active) {
+      paintFlight(g2, clip, animation, saved);
+    }
+  }
+
+  /**
+   * Draws a single flying tile if it is inside the area being painted.
+   *
+   * @param g2
+   *          for rendering 2-dimensional shapes
+   * @param clip
+   *          the area being painted, null for everything
+   * @param animation
+   *          the animation to draw
+   * @param saved
+   *          the transform to restore afterwards
+   */
+  private void paintFlight(Graphics2D g2, Rectangle clip, Animation animation,
+      AffineTransform saved) {
+    Rectangle bounds = animation.bounds;
+    if (bounds == null || animation.done || (clip != null && !clip.intersects(bounds))) {
+      return;
+    }
+
+    // Draw the tile around its center, turned back by the turns it has left
+    g2.translate(bounds.getCenterX(), bounds.getCenterY());
+    g2.rotate(-animation.tile.getTurn() * Math.PI / 2);
+    g2.drawImage(animation.tile.getSprite(), -bounds.width / 2, -bounds.height / 2,
+        bounds.width, bounds.height, null);
+    g2.setTransform(saved);
+  }
+
+  /**
+   * Adds an animation to the queue and makes sure the timer is running.
+   *
+   * @param animation
+   *          the animation to add
+   */
+  private void queue(Animation animation) {
+    // The start window restarts whenever the queue was empty
+    if (pending.isEmpty()) {
+      startDeadline = System.nanoTime() + STAGGER;
+    }
+    pending.add(animation);
+    byTile.put(animation.tile, animation);
+    if (!timer.isRunning()) {
+      timer.start();
+    }
+  }
+
+  /**
+   * Returns the union of two areas, either of which may be null.
+   *
+   * @param a
+   *          the first area
+   * @param b
+   *          the second area
+   * @return the union, null if both are null
+   */
+  private static Rectangle union(Rectangle a, Rectangle b) {
+    if (b == null) {
+      return a;
+    }
+    if (a == null) {
+      return new Rectangle(b);
+    }
+    a.add(b);
+    return a;
+  }
+}
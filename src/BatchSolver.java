@@ -0,0 +1,527 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Solves .mze files without a window and times every step. Every file is read
+ * with FileReader, solved, and written back with FileWriter, and one CSV row
+ * per file gives the time and bytes allocated by each step. Files are spread
+ * over a thread pool and the whole batch can be run a few times, so the best
+ * run gives one throughput number to compare between versions.
+ *
+ * <pre>
+ * java BatchSolver [-threads n] [-strategy place|moves] [-repeat n]
+ *     [-out folder] [-csv file] files or folders...
+ * </pre>
+ *
+ * <p>The place strategy puts every tile straight into its home cell. The moves
+ * strategy solves the board as a player would on a BoardModel, one legal move
+ * or rotation at a time, and counts them.
+ *
+ * <p>Solved files are written under -out with the same path they have under
+ * the folder they were found in.
+ *
+ * @author James Fantin
+ */
+public final class BatchSolver {
+
+  /**
+   * Offset between cell IDs and positions on the game grid.
+   */
+  private static final int GRID_OFFSET = 16;
+
+  /**
+   * CSV header, one row per file follows.
+   */
+  private static final String HEADER = "file,tiles,bytes,parse_us,solve_us,encode_us,moves,"
+      + "parse_alloc,solve_alloc,encode_alloc,status";
+
+  /**
+   * Not instantiable, the batch is run from main().
+   */
+  private BatchSolver() {
+  }
+
+  /**
+   * The timings of one file.
+   */
+  private static final class Row {
+
+    /**
+     * The file.
+     */
+    private final File file;
+
+    /**
+     * Number of tiles.
+     */
+    private int tiles;
+
+    /**
+     * Size of the file in bytes.
+     */
+    private long bytes;
+
+    /**
+     * Nanoseconds taken by every step, parse, solve and encode.
+     */
+    private final long[] nanos = new long[3];
+
+    /**
+     * Bytes allocated by every step, -1 if not supported.
+     */
+    private final long[] allocated = new long[3];
+
+    /**
+     * Moves and rotations made by the solve.
+     */
+    private int moves;
+
+    /**
+     * "ok" or what went wrong.
+     */
+    private String status = "ok";
+
+    /**
+     * Creates an empty row.
+     *
+     * @param file
+     *          the file
+     */
+    private Row(File file) {
+      this.file = file;
+    }
+
+    /**
+     * Formats the row.
+     *
+     * @return the CSV line
+     */
+    @Override
+    public String toString() {
+      return String.format("%s,%d,%d,%.1f,%.1f,%.1f,%d,%d,%d,%d,%s",
+          file.getPath().replace(',', '_'), tiles, bytes, nanos[0] / 1e3, nanos[1] / 1e3,
+          nanos[2] / 1e3, moves, allocated[0], allocated[1], allocated[2], status);
+    }
+  }
+
+  /**
+   * Solves a file and times it.
+   *
+   * @param file
+   *          the file
+   * @param strategy
+   *          "place" or "moves"
+   * @param out
+   *          the file to write the solved game to
+   * @return the timings
+   */
+  private static Row solve(File file, String strategy, File out) {
+    Row row = new Row(file);
+    row.bytes = file.length();
+    try {
+      // Parse
+      long start = System.nanoTime();
+      long allocated = Telemetry.threadAllocatedBytes();
+      HashMap<Integer, Lines> data;
+      int[] order;
+      long time;
+      OptionalLong seed;
+      float difficulty;
+      try (FileReader reader = new FileReader(file)) {
+        data = reader.convertBytesToFloats();
+        order = reader.getOrder();
+        time = reader.getTimePassed();
+        seed = reader.getSeed();
+        difficulty = reader.getDifficulty();
+      }
+      row.tiles = order.length;
+      start = step(row, 0, start, allocated);
+
+      // Solve
+      allocated = Telemetry.threadAllocatedBytes();
+      int[] cells = new int[order.length];
+      int[] rotations = new int[order.length];
+      for (int t = 0; t < order.length; t++) {
+        if (order[t] == FileReader.MISSING) {
+          throw new IOException("Error: Tile " + t + " was lost from a damaged file");
+        }
+        cells[t] = order[t];
+        rotations[t] = data.get(order[t]).getRotations();
+      }
+      if (strategy.equals("moves")) {
+        row.moves = solveMoves(cells, rotations);
+      } else {
+        row.moves = solvePlace(cells, rotations);
+      }
+      start = step(row, 1, start, allocated);
+
+      // Encode
+      allocated = Telemetry.threadAllocatedBytes();
+      try (FileWriter writer = new FileWriter(out)) {
+        writer.save(solved(data, order, cells, time, seed, difficulty));
+      }
+      step(row, 2, start, allocated);
+    } catch (IOException | RuntimeException e) {
+      row.status = e.getClass().getSimpleName() + ": " + String.valueOf(e.getMessage())
+          .replace(',', ';');
+    }
+    return row;
+  }
+
+  /**
+   * Records the time and allocation of a step.
+   *
+   * @param row
+   *          the row
+   * @param step
+   *          0 for parse, 1 for solve, 2 for encode
+   * @param start
+   *          System.nanoTime() when the step started
+   * @param allocated
+   *          bytes allocated by the thread when the step started
+   * @return System.nanoTime() now, the start of the next step
+   */
+  private static long step(Row row, int step, long start, long allocated) {
+    long now = System.nanoTime();
+    row.nanos[step] = now - start;
+    row.allocated[step] = allocated < 0 ? -1 : Telemetry.threadAllocatedBytes() - allocated;
+    return now;
+  }
+
+  /**
+   * Puts every tile in its home cell, upright.
+   *
+   * @param cells
+   *          the cell of every tile, changed to its home cell
+   * @param rotations
+   *          the rotation of every tile, changed to 0
+   * @return the number of tiles that were not home and upright
+   */
+  private static int solvePlace(int[] cells, int[] rotations) {
+    int changed = 0;
+    for (int t = 0; t < cells.length; t++) {
+      if (cells[t] != GRID_OFFSET + t || rotations[t] % 4 != 0) {
+        changed++;
+      }
+      cells[t] = GRID_OFFSET + t;
+      rotations[t] = 0;
+    }
+    return changed;
+  }
+
+  /**
+   * Solves a board with legal moves on a BoardModel. Every tile in turn
+   * is rotated upright and moved home, first moving any tile in its home to a
+   * free cell, preferring cells that are nobody's home.
+   *
+   * @param cells
+   *          the cell of every tile, changed to its home cell
+   * @param rotations
+   *          the rotation of every tile, changed to 0
+   * @return the number of moves and rotations made
+   */
+  private static int solveMoves(int[] cells, int[] rotations) {
+    int n = cells.length;
+    int size = GRID_OFFSET + n;
+    for (int cell : cells) {
+      size = Math.max(size, cell + 1);
+    }
+    BoardModel model = new BoardModel(size, cells, rotations);
+
+    // Free cells, those that are nobody's home kept apart
+    ArrayDeque<Integer> spare = new ArrayDeque<>();
+    ArrayDeque<Integer> homes = new ArrayDeque<>();
+    for (int c = size - 1; c >= 0; c--) {
+      if (model.getOccupant(c) < 0) {
+        (c >= GRID_OFFSET && c < GRID_OFFSET + n ? homes : spare).push(c);
+      }
+    }
+
+    int moves = 0;
+    for (int t = 0; t < n; t++) {
+      while (model.getRotation(t) != 0) {
+        model.rotate(BoardModel.LOCAL, t);
+        moves++;
+      }
+
+      int home = GRID_OFFSET + t;
+      int from = model.getLocation(t);
+      if (from == home) {
+        continue;
+      }
+      homes.remove(home);
+
+      // Move whoever is in the way to a free cell
+      int other = model.getOccupant(home);
+      if (other >= 0) {
+        int free = spare.isEmpty() ? homes.pop() : spare.pop();
+        model.move(BoardModel.LOCAL, other, home, free);
+        moves++;
+      }
+      model.move(BoardModel.LOCAL, t, from, home);
+      moves++;
+
+      boolean isHome = from >= GRID_OFFSET && from < GRID_OFFSET + n;
+      (isHome ? homes : spare).push(from);
+    }
+
+    for (int t = 0; t < n; t++) {
+      cells[t] = model.getLocation(t);
+      rotations[t] = model.getRotation(t);
+      if (cells[t] != GRID_OFFSET + t || rotations[t] != 0) {
+        throw new IllegalStateException("tile " + t + " was not solved");
+      }
+    }
+    return moves;
+  }
+
+  /**
+   * Returns the solved tiles as a source for FileWriter.
+   *
+   * @param data
+   *          the lines of every tile by id
+   * @param order
+   *          the ids in the order read
+   * @param cells
+   *          the cell of every tile
+   * @param time
+   *          the time played
+   * @param seed
+   *          the seed the tiles were dealt with
+   * @param difficulty
+   *          the difficulty they were dealt at
+   * @return the source
+   */
+  private static TileSource solved(HashMap<Integer, Lines> data, int[] order, int[] cells,
+      long time, OptionalLong seed, float difficulty) {
+    return new TileSource() {
+      @Override
+      public int size() {
+        return order.length;
+      }
+
+      @Override
+      public boolean isPlayed() {
+        return true;
+      }
+
+      @Override
+      public long getTime() {
+        return time;
+      }
+
+      @Override
+      public int getId(int tile) {
+        return cells[tile];
+      }
+
+      @Override
+      public int getRotation(int tile) {
+        return 0;
+      }
+
+      @Override
+      public float[] getPoints(int tile) {
+        List<Float> lines = data.get(order[tile]).getLines();
+        float[] points = new float[lines.size()];
+        for (int k = 0; k < points.length; k++) {
+          points[k] = lines.get(k);
+        }
+        return points;
+      }
+
+      @Override
+      public OptionalLong getSeed() {
+        return seed;
+      }
+
+      @Override
+      public float getDifficulty() {
+        return difficulty;
+      }
+    };
+  }
+
+  /**
+   * Adds a file, or every .mze file under a folder, to the batch.
+   *
+   * @param path
+   *          the file or folder
+   * @param files
+   *          the batch
+   * @param names
+   *          the name of every file in the batch, the path under the folder it
+   *          was found in
+   * @throws IOException
+   *           if a folder can't be listed
+   */
+  private static void collect(File path, List<File> files, List<String> names)
+      throws IOException {
+    if (!path.isDirectory()) {
+      files.add(path);
+      names.add(path.getName());
+      return;
+    }
+    Path root = path.toPath();
+    try (Stream<Path> walk = Files.walk(root)) {
+      walk.filter(p -> p.toString().endsWith(".mze") && Files.isRegularFile(p)).sorted()
+          .forEach(p -> {
+            files.add(p.toFile());
+            names.add(root.relativize(p).toString());
+          });
+    }
+  }
+
+  /**
+   * Picks where every solved file is written, the same path under the output
+   * folder as under the folder it was found in. A path already taken by another
+   * file of the batch gets a number before .mze.
+   *
+   * @param outFolder
+   *          the output folder
+   * @param names
+   *          the name of every file in the batch
+   * @return the output of every file
+   * @throws IOException
+   *           if a folder can't be created
+   */
+  private static List<File> outputs(File outFolder, List<String> names) throws IOException {
+    List<File> outputs = new ArrayList<>(names.size());
+    Set<String> used = new HashSet<>();
+    for (String name : names) {
+      String unique = name;
+      int dot = name.endsWith(".mze") ? name.length() - 4 : name.length();
+      for (int n = 2; !used.add(unique); n++) {
+        unique = name.substring(0, dot) + "-" + n + name.substring(dot);
+      }
+      File out = new File(outFolder, unique);
+      Files.createDirectories(out.getParentFile().toPath());
+      outputs.add(out);
+    }
+    return outputs;
+  }
+
+  /**
+   * Runs the batch.
+   *
+   * @param args
+   *          the options and the files or folders to solve
+   * @throws IOException
+   *           if a folder can't be listed or the CSV can't be written
+   * @throws InterruptedException
+   *           if interrupted while waiting for the pool
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    String strategy = "place";
+    int repeat = 1;
+    File outFolder = null;
+    File csv = null;
+    List<File> files = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Math.max(1, Integer.parseInt(args[++i]));
+      } else if (args[i].equals("-strategy") && i + 1 < args.length) {
+        strategy = args[++i];
+      } else if (args[i].equals("-repeat") && i + 1 < args.length) {
+        repeat = Math.max(1, Integer.parseInt(args[++i]));
+      } else if (args[i].equals("-out") && i + 1 < args.length) {
+        outFolder = new File(args[++i]);
+      } else if (args[i].equals("-csv") && i + 1 < args.length) {
+        csv = new File(args[++i]);
+      } else {
+        collect(new File(args[i]), files, names);
+      }
+    }
+    if (files.isEmpty() || !strategy.equals("place") && !strategy.equals("moves")) {
+      System.err.println("Usage: java BatchSolver [-threads n] [-strategy place|moves] "
+          + "[-repeat n] [-out folder] [-csv file] files or folders...");
+      System.exit(1);
+    }
+
+    // Without an output folder every file is still encoded, into a scratch file
+    File scratch = null;
+    List<File> outputs = null;
+    if (outFolder != null) {
+      Files.createDirectories(outFolder.toPath());
+      outputs = outputs(outFolder, names);
+    } else {
+      scratch = Files.createTempDirectory("batch-solve").toFile();
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Row> rows = new ArrayList<>();
+    long best = Long.MAX_VALUE;
+    long tiles = 0;
+    long bytes = 0;
+    try {
+      for (int run = 0; run < repeat; run++) {
+        long start = System.nanoTime();
+        List<Future<Row>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+          File file = files.get(i);
+          File out = outputs != null ? outputs.get(i) : new File(scratch, i + ".mze");
+          String solveWith = strategy;
+          futures.add(pool.submit(() -> solve(file, solveWith, out)));
+        }
+
+        rows.clear();
+        for (Future<Row> future : futures) {
+          try {
+            rows.add(future.get());
+          } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+          }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.err.printf("run %d: %.1f ms%n", run + 1, elapsed / 1e6);
+        best = Math.min(best, elapsed);
+      }
+    } finally {
+      pool.shutdown();
+      if (scratch != null) {
+        for (File file : scratch.listFiles()) {
+          file.delete();
+        }
+        scratch.delete();
+      }
+    }
+
+    // Rows of the last run, in the order the files were given
+    int failed = 0;
+    try (PrintStream out = csv != null ? new PrintStream(csv, "UTF-8") : null) {
+      PrintStream rowsOut = out != null ? out : System.out;
+      rowsOut.println(HEADER);
+      for (Row row : rows) {
+        rowsOut.println(row);
+        tiles += row.tiles;
+        bytes += row.bytes;
+        if (!row.status.equals("ok")) {
+          failed++;
+        }
+      }
+    }
+
+    double seconds = best / 1e9;
+    System.err.printf("%d files (%d failed), %d threads, best of %d: %.1f ms, %.0f files/s, "
+        + "%.0f tiles/s, %.1f MB/s%n", files.size(), failed, threads, repeat, best / 1e6,
+        files.size() / seconds, tiles / seconds, bytes / seconds / 1e6);
+  }
+}
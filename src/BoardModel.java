@@ -0,0 +1,331 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The board as plain numbers that several players can change at once. It keeps
+ * the tile in every cell and the cell and rotation of every tile, and changes
+ * them with compare and set, so moves of different tiles never wait for each
+ * other.
+ *
+ * <p>A move first claims the empty target cell, then moves the tile from the
+ * cell the player saw it in, then frees that cell. When two moves want the same
+ * cell, or the same tile, the first compare and set to land wins and the other
+ * move is rejected and changes nothing. Rotations only add up, so they never
+ * conflict.
+ *
+ * <p>Tiles are numbered in winning order and cells are numbered side cells
+ * first, then the game grid. The Swing board is bound to a model by
+ * TileController.
+ *
+ * @author James Fantin
+ */
+public final class BoardModel {
+
+  /**
+   * Player number of the person at this computer.
+   */
+  public static final int LOCAL = 0;
+
+  /**
+   * The move was made.
+   */
+  public static final int MOVED = 0;
+
+  /**
+   * The tile was not in the cell the player saw it in.
+   */
+  public static final int STALE = 1;
+
+  /**
+   * Another tile is in, or is being moved to, the target cell.
+   */
+  public static final int TAKEN = 2;
+
+  /**
+   * Told about every change made to a model, on the thread that made it.
+   */
+  public interface Listener {
+
+    /**
+     * Called after a tile was moved.
+     *
+     * @param player
+     *          the player who moved it
+     * @param tile
+     *          the tile
+     * @param from
+     *          the cell it left
+     * @param to
+     *          the cell it is now in
+     */
+    void moved(int player, int tile, int from, int to);
+
+    /**
+     * Called after a tile was rotated.
+     *
+     * @param player
+     *          the player who rotated it
+     * @param tile
+     *          the tile
+     */
+    void rotated(int player, int tile);
+  }
+
+  /**
+   * Tile in every cell plus one, 0 if the cell is empty.
+   */
+  private final AtomicIntegerArray occupant;
+
+  /**
+   * Cell of every tile.
+   */
+  private final AtomicIntegerArray location;
+
+  /**
+   * Number of right clicks every tile has had, only the last two bits matter.
+   */
+  private final AtomicIntegerArray rotation;
+
+  /**
+   * Number of moves rejected.
+   */
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * Told about every change, may be null.
+   */
+  private volatile Listener listener;
+
+  /**
+   * Creates a model.
+   *
+   * @param cells
+   *          the number of cells
+   * @param locations
+   *          the cell of every tile
+   * @param rotations
+   *          the rotation of every tile
+   * @throws IllegalArgumentException
+   *           if two tiles are in the same cell or a cell does not exist
+   */
+  public BoardModel(int cells, int[] locations, int[] rotations) {
+    occupant = new AtomicIntegerArray(cells);
+    location = new AtomicIntegerArray(locations);
+    rotation = new AtomicIntegerArray(rotations);
+    for (int t = 0; t < locations.length; t++) {
+      if (locations[t] < 0 || locations[t] >= cells || occupant.get(locations[t]) != 0) {
+        throw new IllegalArgumentException("Tile " + t + " can't be in cell " + locations[t]);
+      }
+      occupant.set(locations[t], t + 1);
+    }
+  }
+
+  /**
+   * Returns the number of cells.
+   *
+   * @return the cells
+   */
+  public int getCells() {
+    return occupant.length();
+  }
+
+  /**
+   * Returns the number of moves rejected because the target was taken or
+   * another move of the tile won.
+   *
+   * @return the rejected moves
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Returns the cell a tile is in.
+   *
+   * @param tile
+   *          the tile
+   * @return the cell
+   */
+  public int getLocation(int tile) {
+    return location.get(tile);
+  }
+
+  /**
+   * Returns the tile in a cell.
+   *
+   * @param cell
+   *          the cell
+   * @return the tile, -1 if the cell is empty
+   */
+  public int getOccupant(int cell) {
+    return occupant.get(cell) - 1;
+  }
+
+  /**
+   * Returns the rotation of a tile.
+   *
+   * @param tile
+   *          the tile
+   * @return the rotation from 0 to 3
+   */
+  public int getRotation(int tile) {
+    return rotation.get(tile) & 3;
+  }
+
+  /**
+   * Returns the number of tiles.
+   *
+   * @return the tiles
+   */
+  public int getTiles() {
+    return location.length();
+  }
+
+  /**
+   * Moves a tile to an empty cell.
+   *
+   * @param player
+   *          the player making the move
+   * @param tile
+   *          the tile
+   * @param from
+   *          the cell the player saw the tile in
+   * @param to
+   *          the cell to move it to
+   * @return MOVED, or STALE or TAKEN if the move was rejected
+   */
+  public int move(int player, int tile, int from, int to) {
+    if (from == to || location.get(tile) != from) {
+      return STALE;
+    }
+
+    // Claim the target so no other tile can be moved there
+    if (!occupant.compareAndSet(to, 0, tile + 1)) {
+      rejected.incrementAndGet();
+      return TAKEN;
+    }
+
+    // Only one move of the tile can win, the others give their claim back
+    if (!location.compareAndSet(tile, from, to)) {
+      occupant.set(to, 0);
+      rejected.incrementAndGet();
+      return STALE;
+    }
+    occupant.compareAndSet(from, tile + 1, 0);
+
+    Listener current = listener;
+    if (current != null) {
+      current.moved(player, tile, from, to);
+    }
+    return MOVED;
+  }
+
+  /**
+   * Rotates a tile a quarter turn clockwise.
+   *
+   * @param player
+   *          the player rotating it
+   * @param tile
+   *          the tile
+   * @return the new rotation from 0 to 3
+   */
+  public int rotate(int player, int tile) {
+    int turned = rotation.incrementAndGet(tile) & 3;
+
+    Listener current = listener;
+    if (current != null) {
+      current.rotated(player, tile);
+    }
+    return turned;
+  }
+
+  /**
+   * Sets who is told about changes.
+   *
+   * @param listener
+   *          the listener, null for none
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Checks that every tile is in exactly one cell. Only meaningful while nobody
+   * is moving tiles.
+   *
+   * @return true if the cells and tiles agree
+   */
+  public boolean isConsistent() {
+    int filled = 0;
+    for (int c = 0; c < occupant.length(); c++) {
+      int tile = occupant.get(c) - 1;
+      if (tile >= 0) {
+        filled++;
+        if (location.get(tile) != c) {
+          return false;
+        }
+      }
+    }
+    return filled == location.length();
+  }
+
+  /**
+   * Runs several players making random moves and rotations on one large board
+   * and prints how many changes a second they make together, for one player up
+   * to one per core.
+   *
+   * @param args
+   *          the number of tiles and the seconds per run, 4096 and 1 if not
+   *          given
+   * @throws InterruptedException
+   *           if interrupted while waiting for the players
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    long nanos = (long) ((args.length > 1 ? Double.parseDouble(args[1]) : 1) * 1e9);
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    System.out.printf("%d tiles, %d cells, %d cores%n", tiles, 2 * tiles, cores);
+    for (int players = 1; players <= Math.max(2, cores); players *= 2) {
+      // Half the cells are empty so most moves can be made
+      int[] locations = new int[tiles];
+      for (int t = 0; t < tiles; t++) {
+        locations[t] = 2 * t;
+      }
+      BoardModel model = new BoardModel(2 * tiles, locations, new int[tiles]);
+
+      long[] changes = new long[players];
+      Thread[] threads = new Thread[players];
+      long end = System.nanoTime() + nanos;
+      for (int p = 0; p < players; p++) {
+        final int player = p;
+        threads[p] = new Thread(() -> {
+          SplittableRandom random = new SplittableRandom(player);
+          long made = 0;
+          while ((made & 255) != 0 || System.nanoTime() < end) {
+            int tile = random.nextInt(tiles);
+            if (random.nextInt(4) == 0) {
+              model.rotate(player, tile);
+              made++;
+            } else if (model.move(player, tile, model.getLocation(tile),
+                random.nextInt(2 * tiles)) == MOVED) {
+              made++;
+            }
+          }
+          changes[player] = made;
+        }, "player-" + p);
+        threads[p].start();
+      }
+
+      long total = 0;
+      for (int p = 0; p < players; p++) {
+        threads[p].join();
+        total += changes[p];
+      }
+      System.out.printf("%2d players: %,12.0f changes/s, %,d rejected, %s%n", players,
+          total * 1e9 / nanos, model.getRejected(),
+          model.isConsistent() ? "consistent" : "INCONSISTENT");
+    }
+  }
+}
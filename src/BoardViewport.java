@@ -0,0 +1,149 @@
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseWheelEvent;
+
+import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+
+/**
+ * Scrollable view of the board. Holding control while turning the mouse wheel,
+ * or pressing control plus or minus, zooms in and out around the mouse.
+ *
+ * <p>Swing only paints the children that intersect the visible part of the
+ * viewport, so painting cost follows the size of the window rather than the
+ * size of the board.
+ *
+ * @author James Fantin
+ */
+public class BoardViewport extends JScrollPane {
+
+  /**
+   * Serial id to make the compiler happy.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * How much one wheel notch or key press changes the tile size.
+   */
+  private static final double ZOOM_STEP = 1.1;
+
+  /**
+   * The window that resizes the board when zooming.
+   */
+  private final GameWindow window;
+
+  /**
+   * Creates the viewport around the board.
+   *
+   * @param view
+   *          the board
+   * @param window
+   *          the window that resizes the board when zooming
+   */
+  public BoardViewport(JComponent view, GameWindow window) {
+    super(view);
+    this.window = window;
+
+    // Blend in with the window
+    setBorder(BorderFactory.createEmptyBorder());
+    getViewport().setBackground(new Color(0, 0, 200));
+
+    // Zoom with the keyboard around the center of the view
+    getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+        KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+    getInputMap(WHEN_IN_FOCUSED_WINDOW).put(
+        KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+    getActionMap().put("zoomIn", new AbstractAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        zoom(1, center());
+      }
+    });
+    getActionMap().put("zoomOut", new AbstractAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        zoom(-1, center());
+      }
+    });
+  }
+
+  /**
+   * Zooms when control is held, otherwise scrolls as usual.
+   *
+   * @param event
+   *          Mouse wheel event
+   */
+  @Override
+  protected void processMouseWheelEvent(MouseWheelEvent event) {
+    if (!event.isControlDown()) {
+      super.processMouseWheelEvent(event);
+      return;
+    }
+
+    Point mouse = event.getPoint();
+    Point viewportOrigin = getViewport().getLocation();
+    zoom(-event.getWheelRotation(),
+        new Point(mouse.x - viewportOrigin.x, mouse.y - viewportOrigin.y));
+    event.consume();
+  }
+
+  /**
+   * Returns the center of the visible area.
+   *
+   * @return the center in viewport coordinates
+   */
+  private Point center() {
+    JViewport viewport = getViewport();
+    return new Point(viewport.getWidth() / 2, viewport.getHeight() / 2);
+  }
+
+  /**
+   * Changes the tile size and scrolls so the board point under the anchor stays
+   * under the anchor.
+   *
+   * @param steps
+   *          number of steps to zoom, positive to zoom in
+   * @param anchor
+   *          the point to zoom around in viewport coordinates
+   */
+  private void zoom(int steps, Point anchor) {
+    if (steps == 0) {
+      return;
+    }
+
+    int oldSize = window.getTileSize();
+    int newSize = (int) Math.round(oldSize * Math.pow(ZOOM_STEP, steps));
+    if (newSize == oldSize) {
+      newSize = oldSize + Integer.signum(steps);
+    }
+
+    JViewport viewport = getViewport();
+    Point position = viewport.getViewPosition();
+    double boardX = position.x + anchor.x;
+    double boardY = position.y + anchor.y;
+
+    window.setTileSize(newSize);
+
+    // Lay out now so the new view size is known before scrolling
+    validate();
+
+    double ratio = (double) window.getTileSize() / oldSize;
+    int x = (int) Math.round(boardX * ratio - anchor.x);
+    int y = (int) Math.round(boardY * ratio - anchor.y);
+    int maxX = Math.max(0, viewport.getViewSize().width - viewport.getWidth());
+    int maxY = Math.max(0, viewport.getViewSize().height - viewport.getHeight());
+    viewport.setViewPosition(new Point(Math.max(0, Math.min(x, maxX)),
+        Math.max(0, Math.min(y, maxY))));
+  }
+}
@@ -7,6 +7,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.SplittableRandom;
 
 import javax.swing.JButton;
 import javax.swing.JMenuItem;
@@ -27,6 +28,11 @@ public class Button extends JPanel implements ActionListener {
    */
   private static final long serialVersionUID = 1L;
 
+  /**
+   * How far the score of a new deal may be from the one asked for.
+   */
+  private static final double DEAL_TOLERANCE = 0.02;
+
   /**
    * Pop-up menu that displays when the file button is clicked.
    */
@@ -58,6 +64,7 @@ public class Button extends JPanel implements ActionListener {
     // create buttons
     createFile(this);
     createReset(this);
+    createHint(this);
     createQuit(this);
 
     // Needs to update the frame to see the buttons.
@@ -81,7 +88,11 @@ public class Button extends JPanel implements ActionListener {
     } else if (name == "Reset") {
       // Reset button pressed
       TileMover.moveTilesHome();
+      TileController.resetMoves();
       Clock.reset();
+    } else if (name == "Hint") {
+      // Hint button pressed
+      showHint();
     } else if (name == "Quit") {
       // Quit button pressed
 
@@ -96,6 +107,15 @@ public class Button extends JPanel implements ActionListener {
     } else if (name == "Save") {
       // Save button pressed
       showSave(true);
+    } else if (name == "Deal") {
+      // New deal button pressed
+      showDeal();
+    } else if (name == "Stats") {
+      // Dump stats button pressed
+      showStats();
+    } else if (name == "Partner") {
+      // Partner button pressed
+      showPartner();
     }
   }
 
@@ -127,9 +147,42 @@ public class Button extends JPanel implements ActionListener {
 
     menu.add(load);
 
+    JMenuItem deal = new JMenuItem("New Deal");
+    deal.setName("Deal");
+    deal.addActionListener(this);
+    menu.add(deal);
+
+    JMenuItem partner = new JMenuItem("Partner");
+    partner.setName("Partner");
+    partner.addActionListener(this);
+    menu.add(partner);
+
+    // Only offer the statistics when they are being recorded
+    if (Telemetry.ENABLED) {
+      JMenuItem stats = new JMenuItem("Dump Stats");
+      stats.setName("Stats");
+      stats.addActionListener(this);
+      menu.add(stats);
+    }
+
     panel.add(file);
   }
 
+  /**
+   * When pressed, points out the tile that is most worth moving next. Adds button
+   * to the panel.
+   * 
+   * @param panel
+   *          Panel where the button will be added
+   */
+  private void createHint(Container panel) {
+    JButton hint = new JButton("Hint");
+    hint.setName("Hint");
+    hint.addActionListener(this);
+
+    panel.add(hint);
+  }
+
   /**
    * (WIP) When pressed, quits the game and closes window. Adds button to the
    * panel.
@@ -160,6 +213,97 @@ public class Button extends JPanel implements ActionListener {
     panel.add(reset);
   }
 
+  /**
+   * Asks for a difficulty and deals the current tiles again as a new game as
+   * close to it as possible, then shows how scrambled the deal is.
+   */
+  private void showDeal() {
+    TileShape[] shapes = TileController.getShapes();
+    if (shapes == null || shapes.length == 0) {
+      JOptionPane.showMessageDialog(null, "No tiles to deal.", "New Deal",
+          JOptionPane.INFORMATION_MESSAGE);
+      return;
+    }
+
+    Clock.stop();
+    int difficulty = -1;
+    while (difficulty < 0 || difficulty > 100) {
+      String input = JOptionPane.showInputDialog(null, "Difficulty from 0 to 100.", "New Deal",
+          JOptionPane.QUESTION_MESSAGE);
+
+      // If the user pressed cancel then close the window.
+      if (input == null) {
+        Clock.start();
+        return;
+      }
+
+      try {
+        difficulty = Integer.parseInt(input.trim());
+      } catch (NumberFormatException e) {
+        difficulty = -1;
+      }
+      if (difficulty < 0 || difficulty > 100) {
+        JOptionPane.showMessageDialog(null, "Enter a whole number from 0 to 100.", "Error",
+            JOptionPane.ERROR_MESSAGE);
+      }
+    }
+
+    if (TileController.isPlayed()) {
+      showSave(false);
+    }
+
+    DealGenerator.Deal deal = DealGenerator.near(shapes.length, difficulty / 100.0,
+        DEAL_TOLERANCE, new SplittableRandom());
+
+    // Removing the old tiles and adding the new ones is one repaint
+    RepaintCoordinator.begin();
+    try {
+      ((TileMover) getParent()).removeTiles();
+      TileController.redealTiles(tileDims, shapes, deal);
+    } finally {
+      RepaintCoordinator.end();
+    }
+
+    JOptionPane.showMessageDialog(null, "Dealt with " + deal + ".", "New Deal",
+        JOptionPane.INFORMATION_MESSAGE);
+  }
+
+  /**
+   * Starts a second player on the board, or sends the one playing away, and
+   * tells the user which happened.
+   */
+  private void showPartner() {
+    String message;
+    if (Partner.isPlaying()) {
+      Partner.toggle();
+      message = "The partner has left.";
+    } else if (Partner.toggle()) {
+      message = "A partner is helping solve the board.";
+    } else {
+      message = "No board to play on.";
+    }
+    JOptionPane.showMessageDialog(null, message, "Partner", JOptionPane.INFORMATION_MESSAGE);
+  }
+
+  /**
+   * Highlights the tile suggested by the hint index and, if it needs to move, the
+   * cell it belongs in.
+   */
+  private void showHint() {
+    Tile tile = HintIndex.getHint();
+
+    if (tile == null) {
+      JOptionPane.showMessageDialog(null, "No hints available.", "Hint",
+          JOptionPane.INFORMATION_MESSAGE);
+      return;
+    }
+
+    tile.displayHint();
+    if (!HintIndex.isRotation(tile)) {
+      HintIndex.getTarget(tile).displayHint();
+    }
+  }
+
   /**
    * Displays the pop-up window for the user to load a file.
    */
@@ -198,37 +342,82 @@ public class Button extends JPanel implements ActionListener {
       showSave(false);
     }
 
+    load(newFile, false);
+  }
+
+  /**
+   * Loads the tiles of a file onto the board. If the file can't be read the user
+   * is offered to load the tiles that are not damaged.
+   * 
+   * @param newFile
+   *          the file to load
+   * @param recover
+   *          true to skip damaged tiles instead of failing
+   */
+  private void load(File newFile, boolean recover) {
     long time = 0;
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
 
-    // Try to load the new file
+    // Try to load the new file, recent files are usually already parsed
     try {
-      FileReader fileReader = new FileReader(newFile);
-      HashMap<Integer, Lines> data = fileReader.convertBytesToFloats(tileDims);
+      MazeCache.Maze maze = recover ? MazeCache.recover(newFile) : MazeCache.load(newFile);
+      HashMap<Integer, Lines> data = maze.getData();
       int numTiles = data.size();
-      int[] order = fileReader.getOrder();
-      boolean played = fileReader.getPlayed();
-
-      ((TileMover) getParent()).removeTiles();
+      int[] order = maze.getOrder();
+
+      boolean played = maze.isPlayed();
+
+      // Removing the old tiles and adding the new ones is one repaint
+      RepaintCoordinator.begin();
+      try {
+        ((TileMover) getParent()).removeTiles();
+
+        if (played) {
+          time = maze.getTime();
+          TileController.loadOldTiles(numTiles, tileDims, data, order, time, maze.getSeed(),
+              maze.getDifficulty());
+        } else if (maze.getSeed().isPresent()) {
+          // Deal the game exactly as it was saved
+          TileController.createNewTiles(numTiles, tileDims, data, order, DealGenerator
+              .deal(order.length, maze.getSeed().getAsLong(), maze.getDifficulty()));
+        } else {
+          TileController.createNewTiles(numTiles, tileDims, data, order);
+        }
+        TileController.restoreSaved(maze.getMoves(), maze.getUnknownBlocks());
+      } finally {
+        RepaintCoordinator.end();
+      }
 
-      if (played) {
-        time = fileReader.getTimePassed();
-        TileController.loadOldTiles(numTiles, tileDims, data, order, time);
-      } else {
-        TileController.createNewTiles(numTiles, tileDims, data, order);
+      if (Telemetry.ENABLED) {
+        Telemetry.recordLoad(start, allocated, newFile.length(), numTiles);
       }
 
-      fileReader.close();
-      revalidate();
-      getParent().revalidate();
+      // Tell the user what was skipped
+      if (!maze.getDamage().isEmpty()) {
+        StringBuilder message = new StringBuilder("Loaded " + numTiles
+            + " tiles. These parts of the file were damaged:");
+        for (FileReader.Damage damage : maze.getDamage()) {
+          message.append("\n").append(damage);
+        }
+        if (maze.getCleaner() != null) {
+          message.append("\n\n").append(maze.getCleaner());
+        }
+        JOptionPane.showMessageDialog(null, message.toString(), "Recovered",
+            JOptionPane.WARNING_MESSAGE);
+      }
 
     } catch (IOException e) {
-      // Display an error to the user
-      JOptionPane.showMessageDialog(null, "Could not read the file.", "Error",
-          JOptionPane.ERROR_MESSAGE);
+      // Offer to load what is left, otherwise display an error to the user
+      if (!recover && JOptionPane.showConfirmDialog(null,
+          "Could not read the file. Load the tiles that are not damaged?", "Error",
+          JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE) == JOptionPane.YES_OPTION) {
+        load(newFile, true);
+      } else {
+        JOptionPane.showMessageDialog(null, "Could not read the file.", "Error",
+            JOptionPane.ERROR_MESSAGE);
+      }
     }
-
-    // Validate the window again so the tiles display correctly
-    revalidate();
   }
 
   /**
@@ -251,6 +440,27 @@ public class Button extends JPanel implements ActionListener {
     menu.setLocation(location.x, location.y + pressed.getHeight());
   }
 
+  /**
+   * Displays the pop-up window for the user to dump the recorded statistics to a
+   * file.
+   */
+  private void showStats() {
+    String input = JOptionPane.showInputDialog(null, "Location to dump statistics",
+        "Dump Stats", JOptionPane.QUESTION_MESSAGE);
+
+    // If the user pressed cancel then close the window.
+    if (input == null) {
+      return;
+    }
+
+    try {
+      Telemetry.dump(new File(input));
+    } catch (IOException e) {
+      JOptionPane.showMessageDialog(null, "Could not write the file.", "Error",
+          JOptionPane.ERROR_MESSAGE);
+    }
+  }
+
   /**
    * Displays the pop-up window for the user to save a file.
    * 
@@ -328,9 +538,18 @@ public class Button extends JPanel implements ActionListener {
 
         // Try to write the new file
         try {
+          long start = Telemetry.start();
+          long allocated = Telemetry.allocatedBytes();
+
           FileWriter outFile = new FileWriter(newFile);
-          outFile.save();
+          TileSource source = TileController.getTileSource();
+          outFile.save(source);
           outFile.close();
+          MazeCache.remember(newFile);
+
+          if (Telemetry.ENABLED) {
+            Telemetry.recordSave(start, allocated, outFile.getBytesWritten(), source.size());
+          }
         } catch (IOException e) {
           JOptionPane.showMessageDialog(null, "Could not save the file.", "Error",
               JOptionPane.ERROR_MESSAGE);
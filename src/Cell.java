@@ -1,9 +1,13 @@
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
+import javax.swing.Timer;
+import javax.swing.border.Border;
 
 /**
  * Cell class for holding the Tile class.
@@ -13,17 +17,29 @@ import javax.swing.JPanel;
  * @author Spencer Hedeen
  *
  */
-public class Cell extends JPanel {
+public class Cell extends JPanel implements ActionListener {
   /**
    * Serial id to make the compiler happy.
    */
   private static final long serialVersionUID = 1L;
 
+  /**
+   * Blue border shown on empty cells. Borders are immutable, so every cell
+   * shares this one.
+   */
+  private static final Border EMPTY_BORDER = BorderFactory.createMatteBorder(1, 1, 1, 1,
+      Color.blue);
+
   /**
    * The location of the cell on the gameboard (0 - 31).
    */
   private int id;
 
+  /**
+   * Timer that turns the hint color off again.
+   */
+  private Timer timer;
+
   /**
    * Creates a cell object corresponding to a color. If the number is even it is
    * white else it is light blue. This sets the size of the cell object as well.
@@ -39,19 +55,42 @@ public class Cell extends JPanel {
     // Set white background color
     setBackground(Color.WHITE);
 
-    // Fix the size to be 80 x 80 (pixels)
-    setPreferredSize(new Dimension(cellSize, cellSize));
-    setMaximumSize(new Dimension(cellSize, cellSize));
-    setMinimumSize(new Dimension(cellSize, cellSize));
+    setCellSize(cellSize);
+
     // Set the new panel to be transparent
     setOpaque(true);
+
+    // Create the timer that hides a hint
+    timer = new Timer(500, this);
+
+    // Must set repeats to false so the delay is the same everytime
+    timer.setRepeats(false);
+  }
+
+  /**
+   * Overload action listener for the timer object. This changes the cell back to
+   * the default color.
+   */
+  @Override
+  public void actionPerformed(ActionEvent e) {
+    setBackground(Color.WHITE);
   }
 
   /**
    * Add the border to a cell when a Tile is removed.
    */
   public void createBorder() {
-    setBorder(BorderFactory.createMatteBorder(1, 1, 1, 1, Color.blue));
+    // Setting the same border again does not trigger a layout or repaint
+    setBorder(EMPTY_BORDER);
+  }
+
+  /**
+   * Changes background color of the cell for half a second. Used to point out
+   * where the tile suggested by a hint belongs.
+   */
+  public void displayHint() {
+    setBackground(Color.orange);
+    timer.start();
   }
 
   /**
@@ -70,6 +109,18 @@ public class Cell extends JPanel {
     setBorder(null);
   }
 
+  /**
+   * Fixes the size of the cell.
+   * 
+   * @param cellSize
+   *          size in pixels of the cell
+   */
+  public void setCellSize(int cellSize) {
+    setPreferredSize(new Dimension(cellSize, cellSize));
+    setMaximumSize(new Dimension(cellSize, cellSize));
+    setMinimumSize(new Dimension(cellSize, cellSize));
+  }
+
   /**
    * Sets the ID for the cell.
    * 
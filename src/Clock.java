@@ -9,7 +9,9 @@ import javax.swing.JLabel;
 import javax.swing.Timer;
 
 /**
- * A Clock class that tracks the player's time.
+ * A Clock class that tracks the player's time. The time is measured with
+ * System.nanoTime() while the clock runs, so it is exact to well under a
+ * millisecond. The timer only repaints the display.
  * 
  * @author Spencer Hedeen
  */
@@ -22,15 +24,20 @@ public class Clock extends JLabel implements ActionListener {
   private static final long serialVersionUID = 1L;
 
   /**
-   * Timer that increments every second.
+   * Timer that repaints the display.
    */
   private static Timer timer;
 
   /**
-   * The current time displayed on the clock.
+   * Time counted in nanoseconds up to the last stop.
    */
   private static long elapsedTime;
 
+  /**
+   * System.nanoTime() when the clock was last started.
+   */
+  private static long startedAt;
+
   /**
    * The font.
    */
@@ -52,9 +59,8 @@ public class Clock extends JLabel implements ActionListener {
    * @return the current time
    */
   public static String getTime() {
-    // Get the elapsed time and divide it by 10
-    // to get the seconds
-    long newElapsedTime = elapsedTime / 10;
+    // Get the elapsed time in seconds
+    long newElapsedTime = getTimeLong();
 
     // Calculate the display values of hours
     // minutes and seconds
@@ -92,25 +98,46 @@ public class Clock extends JLabel implements ActionListener {
   /**
    * Returns the current time.
    * 
-   * @return the current time
+   * @return the current time in seconds
    */
   public static long getTimeLong() {
-    return elapsedTime / 10;
+    return getTimeNanos() / 1_000_000_000L;
+  }
+
+  /**
+   * Returns the current time to the millisecond.
+   * 
+   * @return the current time in milliseconds
+   */
+  public static long getTimeMillis() {
+    return getTimeNanos() / 1_000_000L;
+  }
+
+  /**
+   * Returns the current time.
+   * 
+   * @return the current time in nanoseconds
+   */
+  private static long getTimeNanos() {
+    return timerStopped ? elapsedTime : elapsedTime + System.nanoTime() - startedAt;
   }
 
   /**
    * Resets the clock to 0.
    */
   public static void reset() {
-    elapsedTime = initialTime;
     stop();
+    elapsedTime = initialTime;
   }
 
   /**
    * Starts the timer.
    */
   public static void start() {
-    timerStopped = false;
+    if (timerStopped) {
+      startedAt = System.nanoTime();
+      timerStopped = false;
+    }
     timer.start();
   }
 
@@ -118,7 +145,10 @@ public class Clock extends JLabel implements ActionListener {
    * Stop incrementing the clock.
    */
   public static void stop() {
-    timerStopped = true;
+    if (!timerStopped) {
+      elapsedTime += System.nanoTime() - startedAt;
+      timerStopped = true;
+    }
   }
 
   /**
@@ -146,13 +176,10 @@ public class Clock extends JLabel implements ActionListener {
   }
 
   /**
-   * Adds the action performed function which increments the time.
+   * Repaints the time while the clock runs.
    */
   @Override
   public void actionPerformed(ActionEvent event) {
-    if (!timerStopped) {
-      elapsedTime++;
-    }
     repaint();
   }
 
@@ -174,8 +201,9 @@ public class Clock extends JLabel implements ActionListener {
    *          new time to set
    */
   public void setTime(long savedTime) {
-    // Multiply by 10 to save the correct time, since we increment every .1 seconds
-    elapsedTime = savedTime * 10;
-    initialTime = savedTime * 10;
+    // Saved times are in seconds
+    elapsedTime = savedTime * 1_000_000_000L;
+    initialTime = elapsedTime;
+    startedAt = System.nanoTime();
   }
 }
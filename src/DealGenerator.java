@@ -0,0 +1,364 @@
+import java.util.SplittableRandom;
+
+/**
+ * Deals the tiles of a new game at a chosen difficulty and measures how
+ * scrambled every deal is.
+ *
+ * <p>A deal says which tile goes in each side cell and how far each tile is
+ * rotated. It is measured by:
+ *
+ * <ul>
+ * <li>misplaced, the tiles not in the side cell matching their home;</li>
+ * <li>cycles, the cycles of the permutation from side cells to tiles. Fewer
+ * and longer cycles are further from the solved order;</li>
+ * <li>clicks, the right clicks needed to turn every tile upright;</li>
+ * <li>entropy, how evenly the four rotations are used, from 0 to 2 bits.</li>
+ * </ul>
+ *
+ * <p>Rated deals build the permutation one tile at a time, either starting a
+ * new cycle or joining the tile into an existing one, so every measure is
+ * counted while dealing and no solver has to be run afterwards. A deal is
+ * made again exactly from its seed and difficulty.
+ *
+ * @author James Fantin
+ */
+public final class DealGenerator {
+
+  /**
+   * Most deals tried when looking for one close to a score.
+   */
+  private static final int MAX_TRIES = 16;
+
+  /**
+   * Not instantiable, deals are made with the static methods.
+   */
+  private DealGenerator() {
+  }
+
+  /**
+   * A dealt game with its measures.
+   */
+  public static final class Deal {
+
+    /**
+     * Seed the deal was made from.
+     */
+    private final long seed;
+
+    /**
+     * Difficulty the deal was made at, NaN for a uniform shuffle.
+     */
+    private final float difficulty;
+
+    /**
+     * Index of the tile in every side cell.
+     */
+    private final int[] positions;
+
+    /**
+     * Starting rotation of every tile, by tile index.
+     */
+    private final int[] rotations;
+
+    /**
+     * Number of tiles not in the side cell matching their home.
+     */
+    private final int misplaced;
+
+    /**
+     * Number of cycles of the permutation.
+     */
+    private final int cycles;
+
+    /**
+     * Right clicks needed to turn every tile upright.
+     */
+    private final int clicks;
+
+    /**
+     * How evenly the rotations are used, from 0 to 2 bits.
+     */
+    private final double entropy;
+
+    /**
+     * Creates a deal and works out its entropy from the count of each rotation.
+     *
+     * @param seed
+     *          seed the deal was made from
+     * @param difficulty
+     *          difficulty the deal was made at, NaN for a uniform shuffle
+     * @param positions
+     *          index of the tile in every side cell
+     * @param rotations
+     *          starting rotation of every tile
+     * @param misplaced
+     *          number of misplaced tiles
+     * @param cycles
+     *          number of cycles
+     * @param counts
+     *          number of tiles at each of the four rotations
+     */
+    private Deal(long seed, float difficulty, int[] positions, int[] rotations, int misplaced,
+        int cycles, int[] counts) {
+      this.seed = seed;
+      this.difficulty = difficulty;
+      this.positions = positions;
+      this.rotations = rotations;
+      this.misplaced = misplaced;
+      this.cycles = cycles;
+
+      int turns = 0;
+      double bits = 0;
+      for (int r = 0; r < 4; r++) {
+        turns += counts[r] * ((4 - r) % 4);
+        if (counts[r] > 0) {
+          double p = (double) counts[r] / rotations.length;
+          bits -= p * Math.log(p) / Math.log(2);
+        }
+      }
+      clicks = turns;
+      entropy = bits;
+    }
+
+    /**
+     * Returns the right clicks needed to turn every tile upright.
+     *
+     * @return the clicks
+     */
+    public int getClicks() {
+      return clicks;
+    }
+
+    /**
+     * Returns the number of cycles of the permutation from side cells to tiles.
+     *
+     * @return the cycles, equal to the number of tiles when none is misplaced
+     */
+    public int getCycles() {
+      return cycles;
+    }
+
+    /**
+     * Returns the difficulty the deal was made at.
+     *
+     * @return the difficulty from 0 to 1, NaN for a uniform shuffle
+     */
+    public float getDifficulty() {
+      return difficulty;
+    }
+
+    /**
+     * Returns how evenly the four rotations are used.
+     *
+     * @return the entropy in bits, from 0 to 2
+     */
+    public double getEntropy() {
+      return entropy;
+    }
+
+    /**
+     * Returns the number of tiles not in the side cell matching their home.
+     *
+     * @return the misplaced tiles
+     */
+    public int getMisplaced() {
+      return misplaced;
+    }
+
+    /**
+     * Returns the index of the tile in every side cell. Must not be changed.
+     *
+     * @return the tile indexes
+     */
+    public int[] getPositions() {
+      return positions;
+    }
+
+    /**
+     * Returns the starting rotation of every tile. Must not be changed.
+     *
+     * @return the rotations by tile index
+     */
+    public int[] getRotations() {
+      return rotations;
+    }
+
+    /**
+     * Returns how scrambled the deal is, the mean of the four measures each
+     * scaled from 0 to 1.
+     *
+     * @return the score, 0 for a solved order with no rotations
+     */
+    public double getScore() {
+      int n = rotations.length;
+      if (n == 0) {
+        return 0;
+      }
+      double disorder = n > 1 ? (double) (n - cycles) / (n - 1) : 0;
+      return (disorder + (double) misplaced / n + clicks / (3.0 * n) + entropy / 2) / 4;
+    }
+
+    /**
+     * Returns the seed the deal was made from.
+     *
+     * @return the seed
+     */
+    public long getSeed() {
+      return seed;
+    }
+
+    /**
+     * Describes the deal.
+     *
+     * @return the score and every measure
+     */
+    @Override
+    public String toString() {
+      return String.format("score %.2f: %d misplaced, %d cycles, %d clicks, %.2f bits",
+          getScore(), misplaced, cycles, clicks, entropy);
+    }
+  }
+
+  /**
+   * Makes a deal again from its seed and difficulty.
+   *
+   * @param n
+   *          the number of tiles
+   * @param seed
+   *          seed of the deal
+   * @param difficulty
+   *          difficulty of the deal, NaN for a uniform shuffle
+   * @return the deal
+   */
+  public static Deal deal(int n, long seed, float difficulty) {
+    return Float.isNaN(difficulty) ? uniform(n, seed) : rated(n, seed, difficulty);
+  }
+
+  /**
+   * Deals near a score, trying a few deals and moving the difficulty towards
+   * the score after each one.
+   *
+   * @param n
+   *          the number of tiles
+   * @param score
+   *          the score wanted, from 0 to 1
+   * @param tolerance
+   *          how far from the score is close enough
+   * @param random
+   *          source of the seeds
+   * @return the deal closest to the score
+   */
+  public static Deal near(int n, double score, double tolerance, SplittableRandom random) {
+    float difficulty = (float) Math.max(0, Math.min(1, score));
+    Deal best = null;
+    for (int i = 0; i < MAX_TRIES; i++) {
+      Deal deal = rated(n, random.nextLong(), difficulty);
+      double miss = score - deal.getScore();
+      if (best == null || Math.abs(miss) < Math.abs(score - best.getScore())) {
+        best = deal;
+      }
+      if (Math.abs(miss) <= tolerance) {
+        break;
+      }
+      difficulty = (float) Math.max(0, Math.min(1, difficulty + miss));
+    }
+    return best;
+  }
+
+  /**
+   * Deals at a difficulty. At 0 every tile is upright in the side cell matching
+   * its home. At 1 the tiles form a single cycle and the rotations are uniform.
+   *
+   * @param n
+   *          the number of tiles
+   * @param seed
+   *          seed of the deal
+   * @param difficulty
+   *          the difficulty from 0 to 1
+   * @return the deal
+   */
+  public static Deal rated(int n, long seed, float difficulty) {
+    SplittableRandom random = new SplittableRandom(seed);
+    double d = Math.max(0, Math.min(1, difficulty));
+
+    // next[i] is the tile after i in its cycle, each new tile either starts a
+    // cycle or is joined in after a random earlier tile
+    int[] next = new int[n];
+    int cycles = 0;
+    int fixed = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || random.nextDouble() >= d) {
+        next[i] = i;
+        cycles++;
+        fixed++;
+      } else {
+        int after = random.nextInt(i);
+        if (next[after] == after) {
+          fixed--;
+        }
+        next[i] = next[after];
+        next[after] = i;
+      }
+    }
+
+    // Rotated tiles are spread evenly over the three wrong rotations
+    int[] rotations = new int[n];
+    int[] counts = new int[4];
+    double rotated = 0.75 * d;
+    for (int i = 0; i < n; i++) {
+      int r = random.nextDouble() < rotated ? 1 + random.nextInt(3) : 0;
+      rotations[i] = r;
+      counts[r]++;
+    }
+
+    return new Deal(seed, difficulty, next, rotations, n - fixed, cycles, counts);
+  }
+
+  /**
+   * Deals like the original game: every tile in a random side cell and the
+   * rotations 0 to 3 shared out evenly in a random order.
+   *
+   * @param n
+   *          the number of tiles
+   * @param seed
+   *          seed of the deal
+   * @return the deal
+   */
+  public static Deal uniform(int n, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+
+    // Get random rotations
+    int[] rotations = new int[n];
+    int[] counts = new int[4];
+    for (int i = 0; i < n; i++) {
+      rotations[i] = i % 4;
+      counts[i % 4]++;
+    }
+    TileController.shuffle(rotations, random);
+
+    // Shuffle the order of the tiles so they are placed randomly
+    int[] positions = new int[n];
+    for (int j = 0; j < n; j++) {
+      positions[j] = j;
+    }
+    TileController.shuffle(positions, random);
+
+    // A shuffle does not keep count, so walk the cycles once
+    boolean[] seen = new boolean[n];
+    int cycles = 0;
+    int fixed = 0;
+    for (int j = 0; j < n; j++) {
+      if (positions[j] == j) {
+        fixed++;
+      }
+      if (!seen[j]) {
+        cycles++;
+        for (int k = j; !seen[k]; k = positions[k]) {
+          seen[k] = true;
+        }
+      }
+    }
+
+    return new Deal(seed, Float.NaN, positions, rotations, n - fixed, cycles, counts);
+  }
+}
@@ -1,4 +1,5 @@
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -7,16 +8,44 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.zip.CRC32C;
 
 /**
  * Responsible for reading in the data from new files.
- * 
+ *
+ * <p>If the file has a checksum block (see MazeTrailer) every tile is checked
+ * against it. Normally any damage makes the whole file fail to load. In
+ * recovery mode damaged tiles are skipped, every other tile is loaded and the
+ * damaged byte ranges can be read from getDamage().
+ *
+ * <p>A skipped tile keeps its place in getOrder() as MISSING, so every tile
+ * after it still belongs in the same grid cell. A game saved after recovery
+ * writes a tile with the id MISSING and no lines in that place, which reads
+ * back as MISSING again.
+ *
  * @author Batyr Nuryyev
  *
  */
 public class FileReader extends FileInputStream {
 
+  /**
+   * Size of the header in bytes: magic, tile count and time.
+   */
+  private static final int HEADER = 16;
+
+  /**
+   * Size of the start of a tile in bytes: id, rotations and number of lines.
+   */
+  private static final int TILE_HEADER = 12;
+
+  /**
+   * Id in getOrder() of a tile that was lost to damage.
+   */
+  public static final int MISSING = Integer.MIN_VALUE;
+
   /**
    * The file to be read from.
    */
@@ -33,28 +62,134 @@ public class FileReader extends FileInputStream {
   private int[] order;
 
   /**
-   * Stores all bytes read from file.
+   * Stores all bytes read from file, or the part of a mapped archive holding
+   * the maze.
    */
-  private byte[] allMazeBytes;
+  private ByteBuffer allMazeBytes;
 
   /**
-   * Stores integer or float in form of 4 bytes.
+   * Store the time passed from loaded game.
    */
-  private byte[] nextTempFourBytes = new byte[4];
+  private long timePassed;
 
   /**
-   * Stores integer or float in form of 8 bytes.
+   * The blocks after the tiles by tag, found the first time a block is asked
+   * for. Payloads are only decoded by the getter that needs them.
    */
-  private byte[] nextTempEightBytes = new byte[8];
+  private LinkedHashMap<Integer, ByteBuffer> blocks;
 
   /**
-   * Store the time passed from loaded game.
+   * True if the lines are cleaned up after they are read. Turned on for every
+   * file with -Dmaze.cleanGeometry=true.
    */
-  private long timePassed;
+  private boolean cleanGeometry = Boolean.getBoolean("maze.cleanGeometry");
+
+  /**
+   * The clean up of the last file read, null if the lines were not cleaned.
+   */
+  private GeometryCleaner cleaner;
+
+  /**
+   * True if damaged tiles are skipped instead of failing the whole file.
+   */
+  private boolean recover;
+
+  /**
+   * The damaged parts of the file found while reading it.
+   */
+  private final List<Damage> damage = new ArrayList<>();
+
+  /**
+   * Checksum used to check the header and every tile.
+   */
+  private final CRC32C crc = new CRC32C();
+
+  /**
+   * A damaged part of a file.
+   */
+  public static final class Damage {
+
+    /**
+     * Offset of the first damaged byte.
+     */
+    private final int start;
+
+    /**
+     * Offset just past the last damaged byte.
+     */
+    private final int end;
+
+    /**
+     * Index of the damaged tile in the file, -1 if it is not a tile.
+     */
+    private final int tile;
+
+    /**
+     * What is wrong with the bytes.
+     */
+    private final String problem;
+
+    /**
+     * Creates a damaged range.
+     *
+     * @param start
+     *          offset of the first damaged byte
+     * @param end
+     *          offset just past the last damaged byte
+     * @param tile
+     *          index of the tile, -1 if it is not a tile
+     * @param problem
+     *          what is wrong with the bytes
+     */
+    private Damage(int start, int end, int tile, String problem) {
+      this.start = start;
+      this.end = end;
+      this.tile = tile;
+      this.problem = problem;
+    }
+
+    /**
+     * Returns the offset of the first damaged byte.
+     *
+     * @return the offset
+     */
+    public int getStart() {
+      return start;
+    }
+
+    /**
+     * Returns the offset just past the last damaged byte.
+     *
+     * @return the offset
+     */
+    public int getEnd() {
+      return end;
+    }
+
+    /**
+     * Returns the index of the damaged tile in the file.
+     *
+     * @return the index, -1 if the damage is not in a tile
+     */
+    public int getTile() {
+      return tile;
+    }
+
+    /**
+     * Describes the damage.
+     *
+     * @return the byte range and the problem
+     */
+    @Override
+    public String toString() {
+      String where = tile < 0 ? "" : " (tile " + tile + ")";
+      return "bytes " + start + " to " + (end - 1) + where + ": " + problem;
+    }
+  }
 
   /**
    * Gets the file and reads all bytes from it.
-   * 
+   *
    * @param file
    *          File that the game will be loaded from
    * @throws FileNotFoundException
@@ -69,177 +204,284 @@ public class FileReader extends FileInputStream {
     readAllByte();
   }
 
+  /**
+   * Constructor for a maze that is already in memory, such as a maze mapped
+   * from a MazeArchive. The bytes are decoded where they are, not copied.
+   *
+   * @param file
+   *          the file the bytes come from, only used to name the maze
+   * @param maze
+   *          the bytes of the maze, from its position to its limit
+   */
+  public FileReader(File file, ByteBuffer maze) {
+    // Nothing is read through the stream, so the file is not opened again
+    super(new FileDescriptor());
+    this.file = file;
+
+    allMazeBytes = maze.slice();
+  }
+
   /**
    * Checks whether the file is played, new, or corrupt. Then, passes the function
-   * call accordingly (based on flag).
-   * 
-   * @param tileDims
-   *          The number of tiles in the game
+   * call accordingly (based on flag). The points are left in the 0 to 100 square
+   * they are stored in, tiles scale them to their size when painted.
+   *
    * @return map from integers to Lines class
    * @throws IOException
    *           Generic IO exception
    */
-  public HashMap<Integer, Lines> convertBytesToFloats(int tileDims) throws IOException {
-    // Get the 1st, 2nd, 3rd and 4th bytes
-    byte firstByte = allMazeBytes[0];
-    byte secondByte = allMazeBytes[1];
-    byte thirdByte = allMazeBytes[2];
-    byte fourthByte = allMazeBytes[3];
+  public HashMap<Integer, Lines> convertBytesToFloats() throws IOException {
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
+    int length = allMazeBytes.limit();
+    damage.clear();
+
+    ByteBuffer data = allMazeBytes.duplicate();
+    if (length < HEADER) {
+      throw new IOException("Error: Corrupt File");
+    }
 
-    // Chop the array up to 4 bytes in front
-    allMazeBytes = Arrays.copyOfRange(allMazeBytes, 4, allMazeBytes.length);
+    // Get the 1st, 2nd, 3rd and 4th bytes
+    byte firstByte = data.get(0);
+    byte secondByte = data.get(1);
+    byte thirdByte = data.get(2);
+    byte fourthByte = data.get(3);
 
     // Check if the game has been played or not
     if (firstByte != (byte) 0xca || secondByte != (byte) 0xfe) {
-      throw new IOException("Error: Corrupt File");
       // Corrupt file
-    } else if (thirdByte == (byte) 0xbe && fourthByte == (byte) 0xef) {
+      report(0, 2, -1, "not a maze file");
+    }
+    if (thirdByte == (byte) 0xbe && fourthByte == (byte) 0xef) {
       // New game
       ifPlayed = false;
     } else if (thirdByte == (byte) 0xde && fourthByte == (byte) 0xed) {
       // Played game
       ifPlayed = true;
     } else {
-      // Corrupt file
-      throw new IOException("Error: Corrupt File");
+      // Corrupt file, recover it as a new game
+      report(2, 4, -1, "unknown game type");
+      ifPlayed = false;
     }
 
-    return this.convertBytesToFloats(tileDims, ifPlayed);
+    HashMap<Integer, Lines> result = this.convertBytesToFloats(data, ifPlayed);
+
+    if (Telemetry.ENABLED) {
+      Telemetry.recordParse(start, allocated, length, result.size());
+    }
+    return result;
   }
 
   /**
    * Converts all file bytes to indexed floats. Indexed by tile id. For the game
    * that has been played. IDs are NOT sequential.
-   * 
-   * @param tileDims
-   *          The number of tiles in the game
+   *
+   * @param data
+   *          all file bytes
    * @param played
    *          If a game has been played or not
    * @return list of lists containing the indexed floats
+   * @throws IOException
+   *           if the file is damaged and not in recovery mode, or nothing could
+   *           be recovered
    */
-  private HashMap<Integer, Lines> convertBytesToFloats(int tileDims, boolean played) {
-    // read first integer (number of tiles)
-    setNextFour(0);
-    int numTiles = convertToInt(nextTempFourBytes);
+  private HashMap<Integer, Lines> convertBytesToFloats(ByteBuffer data, boolean played)
+      throws IOException {
+    // The tiles end where the trailer starts
+    int end = MazeTrailer.start(data);
+    if (end < 0) {
+      end = data.limit();
+    }
+    ByteBuffer checks = getChecksums(data, end);
+
+    // read first integer (number of tiles) and the "time passed" from the game
+    int numTiles = data.getInt(4);
+    timePassed = data.getLong(8);
+
+    if (checks != null && (checksum(0, HEADER) != checks.getInt(0)
+        || numTiles != checks.getInt(4))) {
+      // Trust the checksums for the tile count, the time is lost
+      report(0, HEADER, -1, "header does not match its checksum");
+      numTiles = checks.getInt(4);
+      timePassed = 0;
+    }
 
-    // read the "time passed" from the game
-    setNextEight(4);
-    long time = convertToLong(nextTempEightBytes);
-    timePassed = time;
+    // Every tile takes at least TILE_HEADER bytes
+    if (numTiles < 0 || numTiles > (end - HEADER) / TILE_HEADER) {
+      report(4, 8, -1, "tile count of " + numTiles + " does not fit the file");
+      numTiles = Math.max(0, Math.min(numTiles, (end - HEADER) / TILE_HEADER));
+    }
 
     // initialize hash map, mapping from tileID to list of floats
     HashMap<Integer, Lines> listOfFloats = new HashMap<>();
+    order = new int[numTiles];
+    int found = 0;
 
-    // variables to store info
-    int tid;
-    int trotations;
-    int numLines;
+    // push the numbers in
+    int position = HEADER;
+    for (int i = 0; i < numTiles; ++i) {
+      int expected = -1;
+      String problem = null;
+
+      // With checksums every tile can be found and checked on its own
+      if (checks != null) {
+        int entry = 8 + 16 * i;
+        long offset = checks.getLong(entry);
+        expected = checks.getInt(entry + 8);
+        if (offset < HEADER || expected < TILE_HEADER || offset > end - expected) {
+          report(position, end, i, "checksum entry points outside the tiles");
+          order[found++] = MISSING;
+          continue;
+        }
+        position = (int) offset;
+        if (checksum(position, expected) != checks.getInt(entry + 12)) {
+          problem = "does not match its checksum";
+        }
+      }
 
-    // container for floats
-    List<Float> container = new ArrayList<>();
+      // read tile id, rotations and number of lines of a tile
+      int numLines = -1;
+      if (problem == null) {
+        if (position > end - TILE_HEADER) {
+          problem = "cut short";
+        } else {
+          numLines = data.getInt(position + 8);
+          if (numLines < 0 || numLines > (end - position - TILE_HEADER) / 16
+              || (expected >= 0 && expected != TILE_HEADER + 16 * numLines)) {
+            problem = "line count of " + numLines + " does not fit the file";
+          }
+        }
+      }
 
-    // push the numbers in
-    int position = 12;
-    int bytePosition = 0;
-    order = new int[numTiles];
+      int tid = problem == null ? data.getInt(position) : 0;
+      if (problem == null && tid == MISSING) {
+        // Lost before the game was saved, keeps the place of the tile
+        order[found++] = MISSING;
+        position += TILE_HEADER + 16 * numLines;
+        continue;
+      }
+      if (problem == null && listOfFloats.containsKey(tid)) {
+        problem = "tile id " + tid + " is used twice";
+      }
 
-    for (int i = 0; i < numTiles; ++i) {
-      // read tile id
-      setNextFour(position);
-      tid = convertToInt(nextTempFourBytes);
-      order[i] = tid;
+      if (problem != null) {
+        if (expected >= 0) {
+          report(position, position + expected, i, problem);
+          order[found++] = MISSING;
+          continue;
+        }
 
-      // read tile rotations
-      position += 4;
-      setNextFour(position);
+        // Without checksums the next tile can't be found
+        report(position, end, i, problem);
+        break;
+      }
 
       // set rotations if played. Otherwise, set to 0
-      trotations = played ? convertToInt(nextTempFourBytes) : 0;
-
-      // read number of lines of a tile
-      position += 4;
-      setNextFour(position);
-      numLines = convertToInt(nextTempFourBytes);
+      int trotations = played ? data.getInt(position + 4) : 0;
 
       // set the bytePosition to be start of the byte 0 of tile i
-      bytePosition = position + 4;
-      for (int j = 0; j < numLines; ++j) {
-        for (int k = 0; k < 4; ++k) {
-          setNextFour(bytePosition + k * 4);
-          container.add(Float.valueOf(convertToFloat(nextTempFourBytes)));
-        }
-        bytePosition += 16;
+      int bytePosition = position + TILE_HEADER;
+      List<Float> container = new ArrayList<>(numLines * 4);
+      for (int j = 0; j < numLines * 4; ++j) {
+        container.add(Float.valueOf(data.getFloat(bytePosition)));
+        bytePosition += 4;
       }
 
       // insert the rotations and array of lines
       listOfFloats.put(tid, new Lines(trotations, container));
-      container.clear();
-
-      // If last tile, then do not move further.
-      // Just stop here and increment the position.
-      if ((i + 1) == numTiles) {
-        position += 16 * numLines - 4;
-      } else {
-        position += 16 * numLines + 4;
-      }
+      order[found++] = tid;
+      position = bytePosition;
     }
 
-    // lines float normalization
-    Float x;
-    for (Integer key : listOfFloats.keySet()) {
-      for (int j = 0; j < listOfFloats.get(key).getLines().size(); ++j) {
-        x = listOfFloats.get(key).getLines().get(j);
-        x = x * ((float) tileDims / 100);
-        listOfFloats.get(key).getLines().set(j, Float.valueOf(x));
-      }
+    if (listOfFloats.isEmpty() && numTiles > 0) {
+      throw new IOException("Error: Corrupt File");
+    }
+    order = Arrays.copyOf(order, found);
+
+    // Clean up the lines, the cleaned lists may be shared between tiles
+    if (cleanGeometry) {
+      cleaner = new GeometryCleaner();
+      cleaner.clean(listOfFloats);
     }
 
     return listOfFloats;
   }
 
   /**
-   * Converts a byte array into a float. Typically, 4-byte array is passed as an
-   * argument.
-   * 
-   * @param array
-   *          Byte array
-   * @return float
+   * Returns the CRC32C of part of the file.
+   *
+   * @param start
+   *          offset of the first byte
+   * @param length
+   *          number of bytes
+   * @return the checksum
    */
-  private float convertToFloat(byte[] array) {
-    ByteBuffer buffer = ByteBuffer.wrap(array);
-    return buffer.getFloat();
+  private int checksum(int start, int length) {
+    crc.reset();
+    crc.update(allMazeBytes.duplicate().position(start).limit(start + length));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Returns the checksum block if the file has one and it is not damaged itself.
+   *
+   * @param data
+   *          all file bytes
+   * @param end
+   *          where the trailer starts
+   * @return the payload of the block, null if there is none to trust
+   * @throws IOException
+   *           if the block is damaged and not in recovery mode
+   */
+  private ByteBuffer getChecksums(ByteBuffer data, int end) throws IOException {
+    ByteBuffer checks = getBlock(MazeTrailer.CHECKSUMS);
+    if (checks == null) {
+      return null;
+    }
+
+    int length = checks.limit();
+    boolean valid = length >= 12 && checks.getInt(4) >= 0
+        && checks.getInt(4) == (length - 12) / 16 && (length - 12) % 16 == 0;
+    if (valid) {
+      crc.reset();
+      crc.update(checks.duplicate().limit(length - 4));
+      valid = (int) crc.getValue() == checks.getInt(length - 4);
+    }
+
+    if (!valid) {
+      // Fall back to walking the tiles
+      report(end, data.limit(), -1, "checksums are damaged");
+      return null;
+    }
+    return checks;
   }
 
   /**
-   * Converts byte array into an integer. Typically, 4-byte array is passed as an
-   * argument.
-   * 
-   * @param array
-   *          Byte array
-   * @return integer converted from 4-byte array
+   * Returns the clean up of the last file read.
+   *
+   * @return the clean up with the counts of what was removed, null if the lines
+   *         were not cleaned
    */
-  private int convertToInt(byte[] array) {
-    ByteBuffer buffer = ByteBuffer.wrap(array);
-    return buffer.getInt();
+  public GeometryCleaner getCleaner() {
+    return cleaner;
   }
 
   /**
-   * Converts a byte array into a long. Typically, 8-byte array is passed as an
-   * argument.
-   * 
-   * @param array
-   *          Byte array
-   * @return float
+   * Returns the damaged parts found in the last file read. Only filled in
+   * recovery mode, otherwise the first damage fails the load.
+   *
+   * @return the damaged byte ranges in the order they were found
    */
-  private long convertToLong(byte[] array) {
-    ByteBuffer buffer = ByteBuffer.wrap(array);
-    return buffer.getLong();
+  public List<Damage> getDamage() {
+    return damage;
   }
 
   /**
-   * Returns the array that contains the order the tiles were read in.
-   * 
-   * @return an array containing the order the tiles were read in
+   * Returns the array that contains the order the tiles were read in. Tile i
+   * belongs in grid cell i.
+   *
+   * @return an array containing the order the tiles were read in, MISSING for
+   *         a tile that was lost to damage
    */
   public int[] getOrder() {
     return order;
@@ -247,16 +489,79 @@ public class FileReader extends FileInputStream {
 
   /**
    * Returns if a game has been played or not.
-   * 
+   *
    * @return true if the game is a played game, false otherwise
    */
   public boolean getPlayed() {
     return ifPlayed;
   }
 
+  /**
+   * Returns the payload of a block after the tiles.
+   *
+   * @param tag
+   *          the tag of the block, see MazeTrailer
+   * @return the payload, null if the file has no block with the tag
+   */
+  public ByteBuffer getBlock(int tag) {
+    if (blocks == null) {
+      blocks = MazeTrailer.getBlocks(allMazeBytes);
+    }
+    ByteBuffer block = blocks.get(tag);
+    return block == null ? null : block.duplicate();
+  }
+
+  /**
+   * Returns the seed the tiles were dealt with. Dealing a new game with it gives
+   * the same tiles in the same places as when it was saved. A damaged seed only
+   * changes the deal, so it is ignored instead of failing the file.
+   *
+   * @return the seed, empty if the file did not record it
+   */
+  public OptionalLong getSeed() {
+    ByteBuffer block = getBlock(MazeTrailer.SEED);
+    if (block == null || block.limit() < 8) {
+      return OptionalLong.empty();
+    }
+    return OptionalLong.of(block.getLong(0));
+  }
+
+  /**
+   * Returns the difficulty the tiles were dealt at. Deal again with
+   * DealGenerator.deal() and the seed.
+   *
+   * @return the difficulty from 0 to 1, NaN for a uniform shuffle
+   */
+  public float getDifficulty() {
+    ByteBuffer block = getBlock(MazeTrailer.SEED);
+    float difficulty = block == null || block.limit() < 12 ? Float.NaN : block.getFloat(8);
+    return difficulty >= 0 && difficulty <= 1 ? difficulty : Float.NaN;
+  }
+
+  /**
+   * Returns the number of moves and rotations made on the game before it was
+   * saved.
+   *
+   * @return the moves, 0 if the file did not record them
+   */
+  public int getMoves() {
+    ByteBuffer block = getBlock(MazeTrailer.MOVES);
+    return block == null || block.limit() < 4 ? 0 : Math.max(0, block.getInt(0));
+  }
+
+  /**
+   * Returns the blocks this version does not read, so they can be written back
+   * when the game is saved again.
+   *
+   * @return copies of the payloads by tag, empty if every block is known
+   */
+  public LinkedHashMap<Integer, ByteBuffer> getUnknownBlocks() {
+    return MazeTrailer.getUnknownBlocks(allMazeBytes);
+  }
+
   /**
    * Returns time passed.
-   * 
+   *
    * @return time
    */
   public long getTimePassed() {
@@ -265,37 +570,53 @@ public class FileReader extends FileInputStream {
 
   /**
    * Reads all bytes from file and stores inside byte array.
-   * 
+   *
    * @throws IOException
    *           Generic IO exception
    */
   private void readAllByte() throws IOException {
-    allMazeBytes = Files.readAllBytes(file.toPath());
+    allMazeBytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
   }
 
   /**
-   * Store 8 bytes from position i from an array containing all file bytes into a
-   * temporary 8-byte array.
-   * 
-   * @param i
-   *          position for the next bytes
+   * Records a damaged part of the file, or fails if not in recovery mode.
+   *
+   * @param start
+   *          offset of the first damaged byte
+   * @param end
+   *          offset just past the last damaged byte
+   * @param tile
+   *          index of the tile, -1 if it is not a tile
+   * @param problem
+   *          what is wrong with the bytes
+   * @throws IOException
+   *           if not in recovery mode
    */
-  private void setNextEight(int i) {
-    for (int j = 0; j < 8; ++j) {
-      nextTempEightBytes[j] = allMazeBytes[i + j];
+  private void report(int start, int end, int tile, String problem) throws IOException {
+    if (!recover) {
+      throw new IOException("Error: Corrupt File");
     }
+    damage.add(new Damage(start, end, tile, problem));
   }
 
   /**
-   * Copies 4 bytes from position i from an array containing all file bytes into a
-   * temporary 4-byte array.
-   * 
-   * @param i
-   *          position for the next bytes
+   * Sets whether the lines are cleaned up after they are read.
+   *
+   * @param clean
+   *          true to remove empty lines, join overlapping lines and share
+   *          identical tiles
    */
-  private void setNextFour(int i) {
-    for (int j = 0; j < 4; ++j) {
-      nextTempFourBytes[j] = allMazeBytes[i + j];
-    }
+  public void setCleanGeometry(boolean clean) {
+    cleanGeometry = clean;
+  }
+
+  /**
+   * Sets whether damaged tiles are skipped instead of failing the whole file.
+   *
+   * @param recover
+   *          true to load every tile that is not damaged
+   */
+  public void setRecover(boolean recover) {
+    this.recover = recover;
   }
 }
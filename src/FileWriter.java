@@ -1,18 +1,91 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.zip.CRC32C;
 
 /**
  * Writes current maze state to a file using the specified format.
- * 
+ *
+ * <p>Tiles are written one at a time through a fixed size buffer, so saving
+ * never needs more memory than the buffer and the tile being written. When the
+ * buffer is full it is written to the file before the next tile is asked for,
+ * so a slow disk holds back the source rather than letting data pile up.
+ *
+ * <p>Unless turned off, a checksum block is written in the trailer after the
+ * last tile, see MazeTrailer. It holds the offset, length and CRC32C of every
+ * tile, so a reader can tell exactly which tiles were damaged. The entries are
+ * kept in a second fixed size buffer, and once it is full they are spilled to a
+ * temporary file until the trailer is written, so the memory used does not
+ * grow with the number of tiles. If the source knows the seed its tiles were
+ * dealt with, that is written in a block too.
+ *
  * @author Chandler Haukap
  */
 public class FileWriter extends FileOutputStream {
 
+  /**
+   * Size of the write buffer in bytes.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Size of a checksum entry in bytes: offset, length and CRC32C of a tile.
+   */
+  private static final int ENTRY = 16;
+
+  /**
+   * Most tiles a checksum block can describe, its length is an int. Larger
+   * saves are written without checksums.
+   */
+  private static final int MAX_CHECKED_TILES = (Integer.MAX_VALUE - 12) / ENTRY;
+
+  /**
+   * Bytes waiting to be written, in the big endian order of the file.
+   */
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * Number of bytes written to the file so far.
+   */
+  private long written;
+
+  /**
+   * True if the checksum block is written after the tiles.
+   */
+  private boolean checksums = true;
+
+  /**
+   * Checksum of the bytes since the last reset.
+   */
+  private final CRC32C crc = new CRC32C();
+
+  /**
+   * Position in the buffer of the first byte not yet added to the checksum.
+   */
+  private int crcFrom;
+
+  /**
+   * Checksum entries of the tiles written since the last spill, created on the
+   * first save with checksums.
+   */
+  private ByteBuffer entries;
+
+  /**
+   * Temporary file the entries are spilled to when they don't fit, null until
+   * they first don't fit in a save.
+   */
+  private FileChannel spill;
+
   /**
    * Constructor for FileWriter.
-   * 
+   *
    * @param file
    *          The File object to write to.
    * @throws IOException
@@ -22,177 +95,316 @@ public class FileWriter extends FileOutputStream {
     super(file);
   }
 
+  /**
+   * Returns the number of bytes written to the file so far.
+   *
+   * @return the number of bytes written
+   */
+  public long getBytesWritten() {
+    return written;
+  }
+
   /**
    * Saves the current game to a file.
-   * 
+   *
    * @throws IOException
    *           IOException if can't write to the file
    */
   public void save() throws IOException {
-    // Check if the file has been played
+    save(TileController.getTileSource());
+  }
+
+  /**
+   * Saves the tiles of a source to the file in the standard layout.
+   *
+   * @param source
+   *          the tiles to save
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  public void save(TileSource source) throws IOException {
+    try {
+      writeTiles(source);
+    } finally {
+      if (spill != null) {
+        spill.close();
+        spill = null;
+      }
+    }
+  }
+
+  /**
+   * Writes the tiles of a source and the trailer.
+   *
+   * @param source
+   *          the tiles to save
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void writeTiles(TileSource source) throws IOException {
+    boolean isPlayed = source.isPlayed();
+    int tileNum = source.size();
 
-    boolean isPlayed = TileController.isPlayed();
+    // Where every tile starts, how long it is and its checksum
+    boolean checked = checksums && tileNum <= MAX_CHECKED_TILES;
+    if (checked) {
+      if (entries == null) {
+        entries = ByteBuffer.allocate(BUFFER_SIZE);
+      }
+      entries.clear();
+    }
+    startChecksum();
 
     // First two bytes are the same for all files
-    int first = 202;
-    int second = 254;
-    byte i = (byte) first;
-    byte j = (byte) second;
-    this.write(i);
-    this.write(j);
+    ensure(16);
+    buffer.put((byte) 0xca);
+    buffer.put((byte) 0xfe);
 
     if (isPlayed) {
       // Bytes for a played file
-      int third = 222;
-      int fourth = 237;
-      i = (byte) third;
-      j = (byte) fourth;
-      this.write(i);
-      this.write(j);
+      buffer.put((byte) 0xde);
+      buffer.put((byte) 0xed);
     } else {
       // Bytes for a new game
-      int third = 190;
-      int fourth = 239;
-      i = (byte) third;
-      j = (byte) fourth;
-      this.write(i);
-      this.write(j);
+      buffer.put((byte) 0xbe);
+      buffer.put((byte) 0xef);
     }
 
-    // Defaults use 16 tiles
-    int tileNum = 16;
-    byte[] b = new byte[4];
-    b[0] = (byte) tileNum;
-    b[1] = (byte) (tileNum >>> 8);
-    b[2] = (byte) (tileNum >>> 16);
-    b[3] = (byte) (tileNum >>> 24);
-    write(b[3]);
-    write(b[2]);
-    write(b[1]);
-    write(b[0]);
+    buffer.putInt(tileNum);
 
     // save time
-    long time = Clock.getTimeLong();
-    byte[] a = new byte[8];
-    a[0] = (byte) time;
-    a[1] = (byte) (time >>> 8);
-    a[2] = (byte) (time >>> 16);
-    a[3] = (byte) (time >>> 24);
-    a[4] = (byte) (time >>> 32);
-    a[5] = (byte) (time >>> 40);
-    a[6] = (byte) (time >>> 48);
-    a[7] = (byte) (time >>> 56);
-    write(a[7]);
-    write(a[6]);
-    write(a[5]);
-    write(a[4]);
-    write(a[3]);
-    write(a[2]);
-    write(a[1]);
-    write(a[0]);
-
-    int id;
-    int currentRotation;
-    int nullSpace = 0;
-    List<Tile> tiles = TileController.getOrderedTiles();
+    buffer.putLong(source.getTime());
+    int headerCrc = endChecksum();
 
     // Iterate over every tile and save its information
-    for (Tile thisTile : tiles) {
-
-      // Get the ID or the location of the cell on the gameboard the tile is in
-      id = thisTile.getCurrentCell().getId();
-      b[0] = (byte) id;
-      b[1] = (byte) (id >>> 8);
-      b[2] = (byte) (id >>> 16);
-      b[3] = (byte) (id >>> 24);
-      write(b[3]);
-      write(b[2]);
-      write(b[1]);
-      write(b[0]);
-
-      if (isPlayed) {
-        // Get the current rotation of the played tiles
-        currentRotation = thisTile.getRotations() % 4;
-        b[0] = (byte) currentRotation;
-        b[1] = (byte) (currentRotation >>> 8);
-        b[2] = (byte) (currentRotation >>> 16);
-        b[3] = (byte) (currentRotation >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
-      } else {
-        // If it is a new game we can just use 0 for the tile rotations
-        b[0] = (byte) nullSpace;
-        b[1] = (byte) (nullSpace >>> 8);
-        b[2] = (byte) (nullSpace >>> 16);
-        b[3] = (byte) (nullSpace >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
-      }
+    for (int t = 0; t < tileNum; t++) {
+      long offset = getBytesWritten() + buffer.position();
+      startChecksum();
+
+      // If it is a new game we can just use 0 for the tile rotations
+      ensure(12);
+      buffer.putInt(source.getId(t));
+      buffer.putInt(isPlayed ? source.getRotation(t) % 4 : 0);
 
       // Get the points for the current tile with no rotations
-      List<Float> points = thisTile.getOriginalPoints();
-      int size = points.size() / 4;
-      b[0] = (byte) size;
-      b[1] = (byte) (size >>> 8);
-      b[2] = (byte) (size >>> 16);
-      b[3] = (byte) (size >>> 24);
-      write(b[3]);
-      write(b[2]);
-      write(b[1]);
-      write(b[0]);
+      float[] points = source.getPoints(t);
+      buffer.putInt(points.length / 4);
 
       // Iterate over all of the lines for the tile
-      for (int k = 0; k < points.size(); k += 4) {
-
-        // Get the first point
-        int val = Float.floatToIntBits(points.get(k));
-        b[0] = (byte) val;
-        b[1] = (byte) (val >>> 8);
-        b[2] = (byte) (val >>> 16);
-        b[3] = (byte) (val >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
-
-        // Get the second point
-        val = Float.floatToIntBits(points.get(k + 1));
-        b[0] = (byte) val;
-        b[1] = (byte) (val >>> 8);
-        b[2] = (byte) (val >>> 16);
-        b[3] = (byte) (val >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
-
-        // Get the third point
-        val = Float.floatToIntBits(points.get(k + 2));
-        b[0] = (byte) val;
-        b[1] = (byte) (val >>> 8);
-        b[2] = (byte) (val >>> 16);
-        b[3] = (byte) (val >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
-
-        // Get the fourth point
-        val = Float.floatToIntBits(points.get(k + 3));
-        b[0] = (byte) val;
-        b[1] = (byte) (val >>> 8);
-        b[2] = (byte) (val >>> 16);
-        b[3] = (byte) (val >>> 24);
-        write(b[3]);
-        write(b[2]);
-        write(b[1]);
-        write(b[0]);
+      for (int k = 0; k + 3 < points.length; k += 4) {
+        ensure(16);
+        buffer.putFloat(points[k]);
+        buffer.putFloat(points[k + 1]);
+        buffer.putFloat(points[k + 2]);
+        buffer.putFloat(points[k + 3]);
+      }
+
+      if (checked) {
+        addEntry(offset, (int) (getBytesWritten() + buffer.position() - offset), endChecksum());
+      }
+    }
+
+    // Blocks after the tiles, then the footer if there were any
+    long trailer = getBytesWritten() + buffer.position();
+    OptionalLong seed = source.getSeed();
+    if (seed.isPresent()) {
+      // Uniform deals keep the 8 byte payload older readers expect
+      float difficulty = source.getDifficulty();
+      int length = Float.isNaN(difficulty) ? 8 : 12;
+      ensure(MazeTrailer.BLOCK_HEADER + length);
+      buffer.putInt(MazeTrailer.SEED);
+      buffer.putInt(length);
+      buffer.putLong(seed.getAsLong());
+      if (length == 12) {
+        buffer.putFloat(difficulty);
+      }
+    }
+    int moves = source.getMoves();
+    if (moves > 0) {
+      ensure(MazeTrailer.BLOCK_HEADER + 4);
+      buffer.putInt(MazeTrailer.MOVES);
+      buffer.putInt(4);
+      buffer.putInt(moves);
+    }
+    for (Map.Entry<Integer, ByteBuffer> block : source.getUnknownBlocks().entrySet()) {
+      // A newer version wrote these, keep them for it
+      if (!MazeTrailer.isKnown(block.getKey())) {
+        writeBlock(block.getKey(), block.getValue());
+      }
+    }
+    if (checked) {
+      writeChecksums(headerCrc, tileNum);
+    }
+    int blocks = (int) (getBytesWritten() + buffer.position() - trailer);
+    if (blocks > 0) {
+      ensure(MazeTrailer.FOOTER);
+      buffer.putInt(blocks);
+      buffer.putInt(MazeTrailer.MAGIC);
+    }
+
+    drain();
+    flush();
+  }
+
+  /**
+   * Sets whether the checksum block is written after the tiles.
+   *
+   * @param checksums
+   *          true to write the checksums
+   */
+  public void setChecksums(boolean checksums) {
+    this.checksums = checksums;
+  }
+
+  /**
+   * Writes a block as it is.
+   *
+   * @param tag
+   *          the tag of the block
+   * @param payload
+   *          the payload, from its position to its limit
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void writeBlock(int tag, ByteBuffer payload) throws IOException {
+    ensure(MazeTrailer.BLOCK_HEADER);
+    buffer.putInt(tag);
+    buffer.putInt(payload.remaining());
+    put(payload.duplicate());
+  }
+
+  /**
+   * Puts bytes in the buffer, writing it out as often as needed.
+   *
+   * @param bytes
+   *          the bytes, from their position to their limit
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void put(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      ensure(1);
+      int length = Math.min(buffer.remaining(), bytes.remaining());
+      buffer.put(bytes.slice(bytes.position(), length));
+      bytes.position(bytes.position() + length);
+    }
+  }
+
+  /**
+   * Keeps the checksum entry of a tile until the trailer is written.
+   *
+   * @param offset
+   *          where the tile starts
+   * @param length
+   *          length of the tile in bytes
+   * @param tileCrc
+   *          checksum of the tile
+   * @throws IOException
+   *           IOException if the entries can't be spilled
+   */
+  private void addEntry(long offset, int length, int tileCrc) throws IOException {
+    if (!entries.hasRemaining()) {
+      if (spill == null) {
+        Path path = Files.createTempFile("maze", ".crc");
+        spill = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.DELETE_ON_CLOSE);
       }
+      entries.flip();
+      while (entries.hasRemaining()) {
+        spill.write(entries);
+      }
+      entries.clear();
     }
+    entries.putLong(offset).putInt(length).putInt(tileCrc);
   }
 
+  /**
+   * Writes the checksum block from the spilled and the kept entries.
+   *
+   * @param headerCrc
+   *          checksum of the header
+   * @param tileNum
+   *          the number of entries
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void writeChecksums(int headerCrc, int tileNum) throws IOException {
+    int length = 4 + 4 + ENTRY * tileNum + 4;
+    ensure(MazeTrailer.BLOCK_HEADER + 8);
+    buffer.putInt(MazeTrailer.CHECKSUMS);
+    buffer.putInt(length);
+
+    startChecksum();
+    buffer.putInt(headerCrc);
+    buffer.putInt(tileNum);
+    if (spill != null) {
+      // Read the spilled entries straight into the buffer
+      spill.position(0);
+      do {
+        ensure(ENTRY);
+      } while (spill.read(buffer) >= 0);
+    }
+    entries.flip();
+    put(entries);
+    int payloadCrc = endChecksum();
+
+    ensure(4);
+    buffer.putInt(payloadCrc);
+  }
+
+  /**
+   * Starts a new checksum from the next byte put in the buffer.
+   */
+  private void startChecksum() {
+    crc.reset();
+    crcFrom = buffer.position();
+  }
+
+  /**
+   * Adds the bytes put in the buffer since the last call to the checksum.
+   */
+  private void updateChecksum() {
+    crc.update(buffer.array(), crcFrom, buffer.position() - crcFrom);
+    crcFrom = buffer.position();
+  }
+
+  /**
+   * Returns the checksum of every byte put in the buffer since startChecksum().
+   *
+   * @return the checksum
+   */
+  private int endChecksum() {
+    updateChecksum();
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Writes out the buffer if there is not enough room left in it.
+   *
+   * @param bytes
+   *          the number of bytes about to be put in the buffer
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void ensure(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      drain();
+    }
+  }
+
+  /**
+   * Writes everything in the buffer to the file and empties it.
+   *
+   * @throws IOException
+   *           IOException if can't write to the file
+   */
+  private void drain() throws IOException {
+    if (buffer.position() > 0) {
+      updateChecksum();
+      write(buffer.array(), 0, buffer.position());
+      written += buffer.position();
+      buffer.clear();
+      crcFrom = 0;
+    }
+  }
 }
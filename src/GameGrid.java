@@ -1,9 +1,11 @@
 import java.awt.Color;
 import java.awt.GridLayout;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
 
 /**
  * Creates the buttons that represent the game space. places the buttons in one
@@ -36,35 +38,74 @@ public class GameGrid extends JPanel {
   }
 
   /**
-   * Automatically solves the maze. For testing purposes only.
+   * Automatically solves the maze. For testing purposes only. Cells whose tile
+   * was lost from a damaged file are left empty.
    */
   public static void solve() {
     ArrayList<Tile> tiles = TileController.getOrderedTiles();
+    ArrayList<Cell> vacated = new ArrayList<>();
 
-    for (int i = 0; i < tiles.size(); i++) {
-      cells[i].add(tiles.get(i));
-      cells[i].removeBorder();
-      tiles.get(i).getCurrentCell().createBorder();
-      while ((tiles.get(i).getRotations() % 4) != 0) {
-        tiles.get(i).rotate();
+    // Start from where any running animation would have left the tiles
+    Animator.finishAll();
+    RepaintCoordinator.begin();
+    try {
+      for (int i = 0; i < Math.min(tiles.size(), cells.length); i++) {
+        Tile tile = tiles.get(i);
+        if (tile == null) {
+          continue;
+        }
+        Cell oldCell = tile.getCurrentCell();
+
+        cells[i].add(tile);
+        cells[i].removeBorder();
+        int turns = 0;
+        while ((tile.getRotations() % 4) != 0) {
+          tile.rotate();
+          turns++;
+        }
+        tile.setCurrentCell(cells[i]);
+
+        if (oldCell != cells[i]) {
+          vacated.add(oldCell);
+          RepaintCoordinator.markLayout(oldCell);
+          Animator.move(tile, oldCell, cells[i], turns);
+        } else {
+          Animator.rotate(tile, turns);
+        }
+        RepaintCoordinator.markLayout(cells[i]);
+      }
+
+      // A cell vacated early may have been filled again later in the loop
+      for (Cell cell : vacated) {
+        if (cell.getComponentCount() == 0) {
+          cell.createBorder();
+        }
       }
-      tiles.get(i).getCurrentCell().revalidate();
-      tiles.get(i).setCurrentCell(cells[i]);
-      cells[i].revalidate();
-      tiles.get(i).revalidate();
+
+      HintIndex.rebuild();
+      TileController.rebuildModel();
+    } finally {
+      RepaintCoordinator.end();
     }
   }
 
   /**
-   * Tests for a solved maze. Displays a winning message if solved.
+   * Tests for a solved maze. Displays a winning message if solved. A cell whose
+   * tile was lost from a damaged file can't be filled, so it counts as solved.
    */
   public static void victory() {
     ArrayList<Tile> tiles = TileController.getOrderedTiles();
+    if (tiles == null) {
+      return;
+    }
     int i = 0;
     for (Cell thisCell : cells) {
+      Tile tile = i < tiles.size() ? tiles.get(i) : null;
+
       // If the tile is not in the correct cell or not rotated back to its original
       // position then we can return since it is not solved
-      if (tiles.get(i).getCurrentCell() != thisCell || (tiles.get(i).getRotations() % 4) != 0) {
+      if (tile != null
+          && (tile.getCurrentCell() != thisCell || (tile.getRotations() % 4) != 0)) {
         return;
       }
       ++i;
@@ -73,6 +114,54 @@ public class GameGrid extends JPanel {
     // if all tiles are in the correct spot, then display a winning message
     Clock.stop();
     JOptionPane.showMessageDialog(null, "You won in a time of " + Clock.getTime());
+    recordWin();
+  }
+
+  /**
+   * Asks for the player's name, adds the win to the leaderboard of this maze and
+   * shows the best times. The leaderboard is opened and written in the
+   * background, the results file may be large.
+   */
+  private static void recordWin() {
+    String name = (String) JOptionPane.showInputDialog(null, "Name for the leaderboard.",
+        "Leaderboard", JOptionPane.QUESTION_MESSAGE, null, null, Leaderboard.getLastPlayer());
+    if (name == null || name.trim().isEmpty()) {
+      return;
+    }
+    final String player = name.trim();
+    Leaderboard.setLastPlayer(player);
+
+    // Everything the win needs from the board is read here, on the event thread
+    final long maze = MazeLibrary.contentHash(TileController.getTileSource());
+    final long time = Clock.getTimeLong();
+    final int moves = TileController.getMoves();
+
+    new SwingWorker<String, Void>() {
+      @Override
+      protected String doInBackground() throws Exception {
+        Leaderboard board = Leaderboard.getShared();
+        int rank = board.add(maze, player, time, moves);
+
+        StringBuilder message = new StringBuilder("Rank " + rank + " of " + board.count(maze)
+            + ".\n");
+        int place = 1;
+        for (Leaderboard.Result result : board.top(maze, 10)) {
+          message.append("\n").append(place++).append(". ").append(result);
+        }
+        return message.toString();
+      }
+
+      @Override
+      protected void done() {
+        try {
+          JOptionPane.showMessageDialog(null, get(), "Leaderboard",
+              JOptionPane.INFORMATION_MESSAGE);
+        } catch (ExecutionException | InterruptedException e) {
+          JOptionPane.showMessageDialog(null, "Could not save to the leaderboard.", "Error",
+              JOptionPane.ERROR_MESSAGE);
+        }
+      }
+    }.execute();
   }
 
   /**
@@ -109,4 +198,17 @@ public class GameGrid extends JPanel {
     // Needs to update the frame to see the buttons.
     revalidate();
   }
+
+  /**
+   * Resizes every cell on the grid.
+   * 
+   * @param cellSize
+   *          size in pixels of the cell
+   */
+  public void setCellSize(int cellSize) {
+    for (Cell cell : cells) {
+      cell.setCellSize(cellSize);
+    }
+    RepaintCoordinator.markLayout(this);
+  }
 }
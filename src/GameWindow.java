@@ -1,13 +1,17 @@
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JFrame;
 import javax.swing.JLayeredPane;
+import javax.swing.SwingWorker;
 
 /**
  * Responsible for initializing and setting up main window game.
@@ -31,6 +35,47 @@ public class GameWindow extends JFrame {
    */
   private int tileDims = 100;
 
+  /**
+   * Smallest tile size in pixels the board can be zoomed out to.
+   */
+  public static final int MIN_TILE_SIZE = 20;
+
+  /**
+   * Largest tile size in pixels the board can be zoomed in to.
+   */
+  public static final int MAX_TILE_SIZE = 200;
+
+  /**
+   * Current size of the tiles on screen in pixels. The lines of the tiles stay
+   * in the 0 to 100 square of the file and are scaled when painted.
+   */
+  private int tileSize = tileDims;
+
+  /**
+   * Holds every object on the screen.
+   */
+  private TileMover tileMover;
+
+  /**
+   * The game grid in the middle of the board.
+   */
+  private GameGrid grid;
+
+  /**
+   * The cells on either side of the board.
+   */
+  private TileController tiles;
+
+  /**
+   * The file, reset, hint and quit buttons.
+   */
+  private Button buttons;
+
+  /**
+   * True once the window has been painted.
+   */
+  private boolean painted;
+
   /**
    * Constructor sets the window name using super(), changes the layout, which you
    * really need to read up on, and maybe you can see why I chose this one.
@@ -44,33 +89,30 @@ public class GameWindow extends JFrame {
   }
 
   /**
-   * Initializes window, sets the dimension and background for it, and makes it
-   * display on a screen. Then, adds tiles and buttons to window.
+   * Initializes window, sets the dimension and background for it. The window is
+   * shown once setUp() has added the board, so it is only laid out once.
    */
   public void initializeWindow() {
     // have to override the default layout to reposition things
     this.setSize(new Dimension(900, 1000));
-    setMinimumSize(new Dimension(900, 1000));
-    setResizable(false);
+    setMinimumSize(new Dimension(400, 400));
 
     // Exits when you click X button
     setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
     // Sets background color to be blue-ish.
     getContentPane().setBackground(new Color(0, 0, 200));
-
-    // Makes window visible
-    setVisible(true);
   }
 
   /**
-   * Establishes the initial board.
+   * Establishes the initial board and starts reading the default game. The
+   * tiles are added when it has been read.
    */
   public void setUp() {
 
-    // Initialize tileMover and add to the frame
-    TileMover tileMover = new TileMover();
-    this.add(tileMover);
+    // Initialize tileMover and add it to the frame inside a zoomable viewport
+    tileMover = new TileMover();
+    this.add(new BoardViewport(tileMover, this));
 
     // Set up the constrains for the components.
     GridBagConstraints gbConstraints = new GridBagConstraints();
@@ -83,34 +125,11 @@ public class GameWindow extends JFrame {
 
     // Initialize and add the game grid
     gbConstraints.anchor = GridBagConstraints.CENTER;
-    GameGrid grid = new GameGrid(4, tileDims);
+    grid = new GameGrid(4, tileDims);
 
     tileMover.add(grid, gbConstraints, JLayeredPane.DEFAULT_LAYER);
 
-    // Number of tiles
-    int numTiles = 0;
-
-    long time = 0;
-    boolean played = false;
-    HashMap<Integer, Lines> data = null;
-    int[] order = null;
-
-    Button buttons = new Button(tileDims);
-
-    // Add the tile areas
-    try {
-      File newGame = new File("default.mze");
-      FileReader fileReader = new FileReader(newGame);
-      data = fileReader.convertBytesToFloats(tileDims);
-      numTiles = data.size();
-      played = fileReader.getPlayed();
-      order = fileReader.getOrder();
-      time = fileReader.getTimePassed();
-      fileReader.close();
-    } catch (IOException exception) {
-      // If file is not found or corrupt, prompt user for a file
-      buttons.showLoad();
-    }
+    buttons = new Button(tileDims);
 
     // Add the game clock
     Clock clock = new Clock();
@@ -122,13 +141,7 @@ public class GameWindow extends JFrame {
     gbConstraints.anchor = GridBagConstraints.PAGE_START;
     tileMover.add(buttons, gbConstraints, JLayeredPane.DEFAULT_LAYER);
 
-    TileController tiles = new TileController(16, tileDims, clock);
-
-    if (played) {
-      TileController.loadOldTiles(numTiles, tileDims, data, order, time);
-    } else {
-      TileController.createNewTiles(numTiles, tileDims, data, order);
-    }
+    tiles = new TileController(16, tileDims, clock);
 
     gbConstraints.anchor = GridBagConstraints.LINE_START;
     tileMover.add(tiles.getLeftTiles(), gbConstraints, JLayeredPane.DEFAULT_LAYER);
@@ -140,5 +153,117 @@ public class GameWindow extends JFrame {
 
     // Refresh the window so the tiles show up
     revalidate();
+
+    // The empty board shows while the default game is read
+    loadDefault();
+  }
+
+  /**
+   * Reads default.mze on a background thread and adds its tiles to the board
+   * on the event thread. If it can't be read the user is asked for a file.
+   */
+  private void loadDefault() {
+    new SwingWorker<FileReader, Void>() {
+      /**
+       * The lines and rotations of every tile.
+       */
+      private HashMap<Integer, Lines> data;
+
+      @Override
+      protected FileReader doInBackground() throws IOException {
+        try (FileReader fileReader = new FileReader(new File("default.mze"))) {
+          data = fileReader.convertBytesToFloats();
+          return fileReader;
+        }
+      }
+
+      @Override
+      protected void done() {
+        FileReader fileReader;
+        try {
+          fileReader = get();
+        } catch (ExecutionException | InterruptedException exception) {
+          // If file is not found or corrupt, prompt user for a file
+          buttons.showLoad();
+          return;
+        }
+        int numTiles = data.size();
+        int[] order = fileReader.getOrder();
+        OptionalLong seed = fileReader.getSeed();
+        float difficulty = fileReader.getDifficulty();
+        if (fileReader.getPlayed()) {
+          try {
+            TileController.loadOldTiles(numTiles, tileDims, data, order,
+                fileReader.getTimePassed(), seed, difficulty);
+          } catch (IOException exception) {
+            buttons.showLoad();
+            return;
+          }
+        } else if (seed.isPresent()) {
+          TileController.createNewTiles(numTiles, tileDims, data, order,
+              DealGenerator.deal(order.length, seed.getAsLong(), difficulty));
+        } else {
+          TileController.createNewTiles(numTiles, tileDims, data, order);
+        }
+        TileController.restoreSaved(fileReader.getMoves(), fileReader.getUnknownBlocks());
+        Main.startupMark("tiles");
+      }
+    }.execute();
+  }
+
+  /**
+   * Paints the window, noting the first paint when startup is being timed.
+   *
+   * @param g
+   *          the graphics to paint with
+   */
+  @Override
+  public void paint(Graphics g) {
+    super.paint(g);
+    if (!painted) {
+      painted = true;
+      Main.startupMark("first paint");
+    }
+  }
+
+  /**
+   * Returns the current size of the tiles on screen.
+   *
+   * @return the tile size in pixels
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Resizes every cell on the board. The tiles scale their lines when they are
+   * painted, so nothing needs to be loaded again.
+   *
+   * @param size
+   *          the new tile size in pixels, clamped to the zoom limits
+   */
+  public void setTileSize(int size) {
+    size = Math.max(MIN_TILE_SIZE, Math.min(MAX_TILE_SIZE, size));
+    if (size == tileSize || tileMover == null) {
+      return;
+    }
+    tileSize = size;
+
+    RepaintCoordinator.begin();
+    try {
+      grid.setCellSize(size);
+      tiles.setTileSize(size);
+
+      // Leave room for the side panels and keep the buttons from overlapping them
+      int width = Math.max(size * 78 / 10,
+          buttons.getPreferredSize().width + 2 * (size + 6));
+      int height = Math.max(width, tiles.getLeftTiles().getPreferredSize().height);
+      tileMover.setPreferredSize(new Dimension(width, height));
+      tileMover.setMinimumSize(new Dimension(width, height));
+
+      RepaintCoordinator.markLayout(tileMover);
+    } finally {
+      RepaintCoordinator.end();
+    }
   }
 }
@@ -0,0 +1,258 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Optional clean up of the lines of a maze when it is loaded. Removes lines of
+ * zero length, joins lines that lie on the same line and touch or overlap, and
+ * makes tiles with identical lines share a single list. Keeps count of what it
+ * removed so the savings can be reported.
+ *
+ * @author Batyr Nuryyev
+ */
+public final class GeometryCleaner {
+
+  /**
+   * Distance below which two values count as equal.
+   */
+  private static final float EPSILON = 1e-3f;
+
+  /**
+   * The one shared copy of every distinct list of lines seen so far.
+   */
+  private final HashMap<List<Float>, List<Float>> canonical = new HashMap<>();
+
+  /**
+   * Number of tiles cleaned.
+   */
+  private int tiles;
+
+  /**
+   * Number of tiles that now share their lines with an earlier tile.
+   */
+  private int shared;
+
+  /**
+   * Number of lines before cleaning.
+   */
+  private int linesIn;
+
+  /**
+   * Number of lines of zero length removed.
+   */
+  private int degenerate;
+
+  /**
+   * Number of lines removed by joining them with another line.
+   */
+  private int merged;
+
+  /**
+   * Cleans the lines of every tile in place.
+   *
+   * @param data
+   *          map from tile ID to the rotations and lines of the tile
+   */
+  public void clean(HashMap<Integer, Lines> data) {
+    for (Lines tile : data.values()) {
+      List<Float> points = tile.getLines();
+      float[] in = new float[points.size()];
+      for (int i = 0; i < in.length; i++) {
+        in[i] = points.get(i);
+      }
+
+      float[] kept = dropShort(in, EPSILON);
+      float[] out = merge(kept);
+
+      linesIn += in.length / 4;
+      degenerate += (in.length - kept.length) / 4;
+      merged += (kept.length - out.length) / 4;
+      tiles++;
+
+      List<Float> cleaned = new ArrayList<>(out.length);
+      for (float value : out) {
+        cleaned.add(value);
+      }
+
+      // Tiles with the same lines share one list
+      List<Float> existing = canonical.putIfAbsent(cleaned, cleaned);
+      if (existing != null) {
+        cleaned = existing;
+        shared++;
+      }
+      tile.setLines(cleaned);
+    }
+  }
+
+  /**
+   * Returns the number of lines of zero length removed.
+   *
+   * @return the number of lines removed
+   */
+  public int getDegenerate() {
+    return degenerate;
+  }
+
+  /**
+   * Returns the number of lines removed by joining them with another line.
+   *
+   * @return the number of lines removed
+   */
+  public int getMerged() {
+    return merged;
+  }
+
+  /**
+   * Returns the number of tiles that share their lines with an earlier tile.
+   *
+   * @return the number of shared tiles
+   */
+  public int getShared() {
+    return shared;
+  }
+
+  /**
+   * Returns a summary of what was removed.
+   *
+   * @return the summary
+   */
+  @Override
+  public String toString() {
+    return "Cleaned " + tiles + " tiles: removed " + degenerate + " empty and " + merged
+        + " overlapping of " + linesIn + " lines, " + shared + " tiles share lines";
+  }
+
+  /**
+   * Removes lines shorter than a length.
+   *
+   * @param lines
+   *          the points of the lines, four values per line
+   * @param minLength
+   *          the shortest line to keep
+   * @return the lines that are long enough
+   */
+  public static float[] dropShort(float[] lines, float minLength) {
+    float[] kept = new float[lines.length];
+    int count = 0;
+    for (int i = 0; i < lines.length; i += 4) {
+      float dx = lines[i + 2] - lines[i];
+      float dy = lines[i + 3] - lines[i + 1];
+      if (dx * dx + dy * dy >= minLength * minLength) {
+        System.arraycopy(lines, i, kept, count, 4);
+        count += 4;
+      }
+    }
+    return Arrays.copyOf(kept, count);
+  }
+
+  /**
+   * Joins lines that lie on the same line and touch or overlap. Every line is
+   * described by its direction, its distance from the origin and the interval
+   * it covers along its direction, then the intervals of each line are merged.
+   *
+   * @param lines
+   *          the points of the lines, four values per line
+   * @return the joined lines
+   */
+  public static float[] merge(float[] lines) {
+    List<float[]> spans = new ArrayList<>();
+    float[] kept = new float[lines.length];
+    int count = 0;
+
+    for (int i = 0; i < lines.length; i += 4) {
+      float dx = lines[i + 2] - lines[i];
+      float dy = lines[i + 3] - lines[i + 1];
+      float length = (float) Math.sqrt(dx * dx + dy * dy);
+
+      // Points are kept as they are, they are not lines to merge
+      if (length < EPSILON) {
+        System.arraycopy(lines, i, kept, count, 4);
+        count += 4;
+        continue;
+      }
+
+      // Point every direction the same way so opposite lines match
+      float ux = dx / length;
+      float uy = dy / length;
+      if (ux < -EPSILON || (Math.abs(ux) <= EPSILON && uy < 0)) {
+        ux = -ux;
+        uy = -uy;
+      }
+      float offset = -uy * lines[i] + ux * lines[i + 1];
+      float t1 = ux * lines[i] + uy * lines[i + 1];
+      float t2 = ux * lines[i + 2] + uy * lines[i + 3];
+      spans.add(new float[] { ux, uy, offset, Math.min(t1, t2), Math.max(t1, t2) });
+    }
+
+    spans.sort(Comparator.<float[]>comparingDouble(s -> round(s[0]))
+        .thenComparingDouble(s -> round(s[1])).thenComparingDouble(s -> round(s[2]))
+        .thenComparingDouble(s -> s[3]));
+
+    float[] current = null;
+    for (float[] span : spans) {
+      if (current != null && sameLine(current, span) && span[3] <= current[4] + EPSILON) {
+        current[4] = Math.max(current[4], span[4]);
+        continue;
+      }
+      if (current != null) {
+        count = emit(current, kept, count);
+      }
+      current = span.clone();
+    }
+    if (current != null) {
+      count = emit(current, kept, count);
+    }
+    return Arrays.copyOf(kept, count);
+  }
+
+  /**
+   * Writes a span back as the two end points of a line.
+   *
+   * @param span
+   *          direction, offset and interval of the line
+   * @param out
+   *          the array to write to
+   * @param count
+   *          number of values already written
+   * @return number of values written afterwards
+   */
+  private static int emit(float[] span, float[] out, int count) {
+    float ux = span[0];
+    float uy = span[1];
+    float offset = span[2];
+    // Adding zero turns -0.0 into 0.0 so equal lines compare equal
+    out[count] = span[3] * ux - offset * uy + 0f;
+    out[count + 1] = span[3] * uy + offset * ux + 0f;
+    out[count + 2] = span[4] * ux - offset * uy + 0f;
+    out[count + 3] = span[4] * uy + offset * ux + 0f;
+    return count + 4;
+  }
+
+  /**
+   * Rounds a value so that values within EPSILON of each other usually sort
+   * together.
+   *
+   * @param value
+   *          the value
+   * @return the rounded value
+   */
+  private static double round(float value) {
+    return Math.round(value / EPSILON) * (double) EPSILON;
+  }
+
+  /**
+   * Returns true if two spans have the same direction and offset.
+   *
+   * @param a
+   *          the first span
+   * @param b
+   *          the second span
+   * @return true if they lie on the same line
+   */
+  private static boolean sameLine(float[] a, float[] b) {
+    return Math.abs(a[0] - b[0]) <= EPSILON && Math.abs(a[1] - b[1]) <= EPSILON
+        && Math.abs(a[2] - b[2]) <= EPSILON;
+  }
+}
@@ -0,0 +1,438 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Keeps every tile ranked by how useful moving or rotating it would be, so that
+ * a hint can be given without scanning the board. The ranking is kept up to
+ * date after each move and rotation by only looking at the cells around the
+ * change.
+ *
+ * <p>Tiles are kept in one linked list per score, stored in plain int arrays.
+ * Finding the best hint only looks at the head of each list.
+ *
+ * @author James Fantin
+ */
+public final class HintIndex {
+
+  /**
+   * Score of a tile that is solved, or whose home cell is taken. Tiles with this
+   * score are not hints.
+   */
+  private static final int NO_HINT = 0;
+
+  /**
+   * Score of a tile that is in its home cell but rotated wrong. A single click
+   * fixes it, so it ranks above every move.
+   */
+  private static final int ROTATE = 6;
+
+  /**
+   * Number of scores, a move scores 1 plus the number of solved neighbours of
+   * its home cell (at most 4).
+   */
+  private static final int SCORES = ROTATE + 1;
+
+  /**
+   * Offset between cell IDs and positions on the game grid.
+   */
+  private static final int GRID_OFFSET = 16;
+
+  /**
+   * Tiles in the order they were read in, tile i belongs in grid cell i. Null
+   * for a tile lost from a damaged file.
+   */
+  private static ArrayList<Tile> tiles;
+
+  /**
+   * Index of every tile in the tile list.
+   */
+  private static IdentityHashMap<Tile, Integer> indexOf;
+
+  /**
+   * The cells of the game grid.
+   */
+  private static Cell[] grid;
+
+  /**
+   * Width of the game grid in cells.
+   */
+  private static int width;
+
+  /**
+   * Current score of every tile.
+   */
+  private static int[] score;
+
+  /**
+   * First tile with each score, -1 if there is none.
+   */
+  private static int[] head = new int[SCORES];
+
+  /**
+   * Next tile with the same score, -1 at the end of the list.
+   */
+  private static int[] next;
+
+  /**
+   * Previous tile with the same score, -1 at the start of the list.
+   */
+  private static int[] prev;
+
+  /**
+   * Not instantiable, the index tracks the one board on screen.
+   */
+  private HintIndex() {
+  }
+
+  /**
+   * Forgets every tile.
+   */
+  public static void clear() {
+    tiles = null;
+    indexOf = null;
+  }
+
+  /**
+   * Returns the tile that is most worth moving or rotating next.
+   *
+   * @return the best tile to move, null if there is no useful move
+   */
+  public static Tile getHint() {
+    if (tiles == null) {
+      return null;
+    }
+    for (int s = SCORES - 1; s > NO_HINT; s--) {
+      if (head[s] != -1) {
+        return tiles.get(head[s]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the grid cell a tile belongs in.
+   *
+   * @param tile
+   *          the tile
+   * @return the home cell on the game grid, null if the tile is not indexed
+   */
+  public static Cell getTarget(Tile tile) {
+    if (indexOf == null || !indexOf.containsKey(tile)) {
+      return null;
+    }
+    return grid[indexOf.get(tile)];
+  }
+
+  /**
+   * Returns true if a hint would only ask for the tile to be rotated.
+   *
+   * @param tile
+   *          the tile
+   * @return true if the tile is home but rotated wrong
+   */
+  public static boolean isRotation(Tile tile) {
+    return indexOf != null && indexOf.containsKey(tile) && score[indexOf.get(tile)] == ROTATE;
+  }
+
+  /**
+   * Scores every tile on the board from scratch. Called when a board is loaded
+   * and after changes that touch every tile, such as reset and solve.
+   */
+  public static void rebuild() {
+    tiles = TileController.getOrderedTiles();
+    grid = GameGrid.getCells();
+    if (tiles == null || grid == null) {
+      clear();
+      return;
+    }
+
+    int n = tiles.size();
+    width = (int) Math.round(Math.sqrt(grid.length));
+    indexOf = new IdentityHashMap<>(n);
+    score = new int[n];
+    next = new int[n];
+    prev = new int[n];
+    for (int s = 0; s < SCORES; s++) {
+      head[s] = -1;
+    }
+
+    for (int i = 0; i < n; i++) {
+      if (tiles.get(i) != null) {
+        indexOf.put(tiles.get(i), i);
+      }
+      score[i] = NO_HINT;
+      link(i);
+    }
+    for (int i = 0; i < n; i++) {
+      refresh(i);
+    }
+  }
+
+  /**
+   * Updates the index after a tile was moved or rotated. Only the tile, the
+   * tiles that belong in the two cells involved and the tiles that belong next
+   * to them can change score.
+   *
+   * @param tile
+   *          the tile that changed
+   * @param from
+   *          the cell the tile was in, the same as its current cell for a rotation
+   */
+  public static void update(Tile tile, Cell from) {
+    Integer index = indexOf == null ? null : indexOf.get(tile);
+    if (index == null) {
+      return;
+    }
+    refresh(index);
+    refreshAround(from);
+    if (tile.getCurrentCell() != from) {
+      refreshAround(tile.getCurrentCell());
+    }
+  }
+
+  /**
+   * Returns the position of a cell on the game grid.
+   *
+   * @param cell
+   *          the cell
+   * @return the position, -1 if the cell is on the side panels
+   */
+  private static int gridPosition(Cell cell) {
+    int position = cell.getId() - GRID_OFFSET;
+    if (position < 0 || position >= grid.length || grid[position] != cell) {
+      return -1;
+    }
+    return position;
+  }
+
+  /**
+   * Returns true if the tile that belongs at a grid position is there and
+   * rotated correctly.
+   *
+   * @param position
+   *          the grid position
+   * @return true if the position is solved
+   */
+  private static boolean isSolved(int position) {
+    if (position >= tiles.size()) {
+      return false;
+    }
+    Tile tile = tiles.get(position);
+    return tile != null && tile.getCurrentCell() == grid[position]
+        && tile.getRotations() % 4 == 0;
+  }
+
+  /**
+   * Adds a tile to the front of the list for its score.
+   *
+   * @param i
+   *          the tile index
+   */
+  private static void link(int i) {
+    int s = score[i];
+    prev[i] = -1;
+    next[i] = head[s];
+    if (head[s] != -1) {
+      prev[head[s]] = i;
+    }
+    head[s] = i;
+  }
+
+  /**
+   * Scores the tile at an index again and moves it to the matching list.
+   *
+   * @param i
+   *          the tile index
+   */
+  private static void refresh(int i) {
+    if (i < 0 || i >= score.length) {
+      return;
+    }
+    int s = score(i);
+    if (s != score[i]) {
+      unlink(i);
+      score[i] = s;
+      link(i);
+    }
+  }
+
+  /**
+   * Scores again the tile that belongs in a cell and the tiles that belong next
+   * to it.
+   *
+   * @param cell
+   *          the cell that changed
+   */
+  private static void refreshAround(Cell cell) {
+    int position = cell == null ? -1 : gridPosition(cell);
+    if (position == -1) {
+      return;
+    }
+    int row = position / width;
+    int col = position % width;
+
+    refresh(position);
+    if (row > 0) {
+      refresh(position - width);
+    }
+    if (row < width - 1) {
+      refresh(position + width);
+    }
+    if (col > 0) {
+      refresh(position - 1);
+    }
+    if (col < width - 1) {
+      refresh(position + 1);
+    }
+  }
+
+  /**
+   * Works out how useful moving or rotating a tile is.
+   *
+   * @param i
+   *          the tile index
+   * @return the score of the tile
+   */
+  private static int score(int i) {
+    // Tiles that were lost, have no home on the grid or are not on the board are
+    // never hints
+    if (i >= grid.length || tiles.get(i) == null || tiles.get(i).getCurrentCell() == null) {
+      return NO_HINT;
+    }
+    Tile tile = tiles.get(i);
+    Cell home = grid[i];
+
+    if (tile.getCurrentCell() == home) {
+      return tile.getRotations() % 4 == 0 ? NO_HINT : ROTATE;
+    }
+
+    // The tile cannot be moved home while another tile is there
+    if (home.getComponentCount() > 0) {
+      return NO_HINT;
+    }
+
+    // Placing a tile next to solved tiles connects more of the maze
+    int row = i / width;
+    int col = i % width;
+    int s = 1;
+    if (row > 0 && isSolved(i - width)) {
+      s++;
+    }
+    if (row < width - 1 && isSolved(i + width)) {
+      s++;
+    }
+    if (col > 0 && isSolved(i - 1)) {
+      s++;
+    }
+    if (col < width - 1 && isSolved(i + 1)) {
+      s++;
+    }
+    return s;
+  }
+
+  /**
+   * Removes a tile from the list for its score.
+   *
+   * @param i
+   *          the tile index
+   */
+  private static void unlink(int i) {
+    int s = score[i];
+    if (prev[i] != -1) {
+      next[prev[i]] = next[i];
+    } else {
+      head[s] = next[i];
+    }
+    if (next[i] != -1) {
+      prev[next[i]] = prev[i];
+    }
+  }
+
+  /**
+   * Deals a large board without a window and plays it, half the time following
+   * the hint and half the time moving a random tile to a random empty cell.
+   * Prints how long a full rebuild takes and the latency of updating the index
+   * and getting the next hint after every change.
+   *
+   * @param args
+   *          the width of the grid and the number of changes, 128 and 200000 if
+   *          not given
+   */
+  public static void main(String[] args) {
+    int side = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+    int changes = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int n = side * side;
+
+    // A board of n tiles with their own lines, dealt to the side cells
+    new GameGrid(side, 60);
+    new TileController(n, 60, new Clock());
+    HashMap<Integer, Lines> data = new HashMap<>();
+    int[] order = new int[n];
+    for (int t = 0; t < n; t++) {
+      List<Float> points = new ArrayList<>();
+      points.add((float) (t % 99));
+      points.add(1f);
+      points.add((float) (t / 99 % 99));
+      points.add(99f);
+      data.put(t, new Lines(0, points));
+      order[t] = t;
+    }
+    TileController.createNewTiles(n, 60, data, order);
+    List<Tile> board = TileController.getOrderedTiles();
+    Cell[] all = new Cell[2 * n];
+    for (int t = 0; t < n; t++) {
+      all[t] = board.get(t).getCurrentCell();
+      all[n + t] = grid[t];
+    }
+
+    long start = System.nanoTime();
+    for (int r = 0; r < 10; r++) {
+      rebuild();
+    }
+    System.out.printf("%d tiles, rebuild %.2f ms%n", n, (System.nanoTime() - start) / 1e7);
+
+    SplittableRandom random = new SplittableRandom(1);
+    for (int pass = 0; pass < 2; pass++) {
+      // The first pass warms up the JIT
+      LatencyHistogram latency = new LatencyHistogram();
+      int followed = 0;
+      for (int c = 0; c < changes; c++) {
+        Tile hint = getHint();
+        Tile tile;
+        Cell to;
+        if (hint != null && random.nextBoolean()) {
+          tile = hint;
+          to = isRotation(hint) ? hint.getCurrentCell() : getTarget(hint);
+          followed++;
+        } else {
+          tile = board.get(random.nextInt(n));
+          do {
+            to = all[random.nextInt(all.length)];
+          } while (to.getComponentCount() > 0 && to != tile.getCurrentCell());
+        }
+
+        Cell from = tile.getCurrentCell();
+        if (to == from) {
+          tile.rotate();
+        } else {
+          from.remove(tile);
+          to.add(tile);
+          tile.setCurrentCell(to);
+        }
+
+        long begin = System.nanoTime();
+        update(tile, from);
+        getHint();
+        latency.record(System.nanoTime() - begin);
+      }
+      if (pass == 1) {
+        System.out.printf("%d changes, %d hints followed, update and hint: mean %.0f ns,"
+            + " p50 %d ns, p99 %d ns, max %d ns%n", changes, followed, latency.getMean(),
+            latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getMax());
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative error. Values are
+ * put in buckets by their power of two and then by their next few bits, like an
+ * HDR histogram. Recording is a couple of shifts and three atomic adds, for the
+ * bucket, the count and the sum, plus a compare and set only when the value is
+ * a new maximum.
+ *
+ * @author James Fantin
+ */
+public final class LatencyHistogram {
+
+  /**
+   * Number of bits used below the leading bit, 2^5 sub buckets per power of two
+   * gives a relative error of about 3 percent.
+   */
+  private static final int SUB_BITS = 5;
+
+  /**
+   * Number of sub buckets per power of two.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /**
+   * Count of values in every bucket.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+  /**
+   * Number of values recorded.
+   */
+  private final AtomicLong total = new AtomicLong();
+
+  /**
+   * Sum of every value recorded, for the mean.
+   */
+  private final AtomicLong sum = new AtomicLong();
+
+  /**
+   * Largest value recorded.
+   */
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Returns the number of values recorded.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * Returns the largest value recorded.
+   *
+   * @return the maximum, 0 if nothing was recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the mean of the values recorded.
+   *
+   * @return the mean, 0 if nothing was recorded
+   */
+  public double getMean() {
+    long count = total.get();
+    return count == 0 ? 0 : (double) sum.get() / count;
+  }
+
+  /**
+   * Returns the value below which a fraction of the recorded values fall.
+   *
+   * @param fraction
+   *          the fraction, 0.99 for the 99th percentile
+   * @return the upper bound of the bucket holding the percentile
+   */
+  public long getPercentile(double fraction) {
+    long count = total.get();
+    if (count == 0) {
+      return 0;
+    }
+
+    long wanted = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= wanted) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Records a value. Safe to call from any thread.
+   *
+   * @param value
+   *          the latency in nanoseconds, negative values count as 0
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    counts.incrementAndGet(bucket(value));
+    total.incrementAndGet();
+    sum.addAndGet(value);
+
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Returns the bucket a value is counted in.
+   *
+   * @param value
+   *          a value that is not negative
+   * @return the bucket index
+   */
+  private static int bucket(long value) {
+    // Small values get one bucket each
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * Returns the largest value counted in a bucket.
+   *
+   * @param index
+   *          the bucket index
+   * @return the upper bound of the bucket
+   */
+  private static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int magnitude = index / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = index % SUB_BUCKETS;
+    long low = (1L << magnitude) | (sub << (magnitude - SUB_BITS));
+    return low + (1L << (magnitude - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,790 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.prefs.Preferences;
+
+/**
+ * Finish times of every maze won on this computer, kept by the content hash of
+ * the maze so every save of the same maze shares one board.
+ *
+ * <p>Results are appended to a file and never rewritten. Several games may
+ * share the file, every append is made at the end of the file while holding a
+ * lock on it, after reading the results the other games added. The file starts
+ * with MAGIC and VERSION, then every result is:
+ *
+ * <pre>
+ * long maze hash, long time in seconds, int moves, long date in milliseconds,
+ * short name length, name in UTF-8
+ * </pre>
+ *
+ * <p>In memory every maze has a treap of its results ordered by time, then
+ * moves, then the order they were added. Every node knows the size of its
+ * subtree, so adding, ranking and finding the first results take O(log n). The
+ * nodes are plain arrays so millions of results don't need millions of objects.
+ *
+ * @author James Fantin
+ */
+public final class Leaderboard implements Closeable {
+
+  /**
+   * First four bytes of the file, "MZLB".
+   */
+  private static final int MAGIC = 0x4d5a4c42;
+
+  /**
+   * Version of the layout.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Size of the file header in bytes.
+   */
+  private static final int HEADER = 8;
+
+  /**
+   * Size of a result before its name in bytes.
+   */
+  private static final int RECORD = 30;
+
+  /**
+   * Longest player name kept, in UTF-8 bytes.
+   */
+  private static final int MAX_NAME = 255;
+
+  /**
+   * Longest name length a record can hold, in UTF-8 bytes.
+   */
+  private static final int MAX_RECORD_NAME = 0xffff;
+
+  /**
+   * Empty subtree.
+   */
+  private static final int NIL = -1;
+
+  /**
+   * Key of the last player name in the preferences.
+   */
+  private static final String PLAYER_KEY = "player";
+
+  /**
+   * The leaderboard of this computer, opened on first use.
+   */
+  private static Leaderboard shared;
+
+  /**
+   * The results file.
+   */
+  private final File file;
+
+  /**
+   * Channel results are appended to.
+   */
+  private final FileChannel channel;
+
+  /**
+   * End of the last whole result read from the file.
+   */
+  private long loaded;
+
+  /**
+   * Root of the treap of every maze.
+   */
+  private final HashMap<Long, Integer> roots = new HashMap<>();
+
+  /**
+   * Number of every player name.
+   */
+  private final HashMap<String, Integer> playerIndex = new HashMap<>();
+
+  /**
+   * Player names by number.
+   */
+  private final List<String> players = new ArrayList<>();
+
+  /**
+   * Gives every node a random priority.
+   */
+  private final SplittableRandom random = new SplittableRandom();
+
+  /**
+   * Number of results.
+   */
+  private int count;
+
+  /**
+   * Time of every result in seconds.
+   */
+  private long[] times = new long[1024];
+
+  /**
+   * Moves of every result.
+   */
+  private int[] moves = new int[1024];
+
+  /**
+   * Date of every result in milliseconds.
+   */
+  private long[] dates = new long[1024];
+
+  /**
+   * Player number of every result.
+   */
+  private int[] player = new int[1024];
+
+  /**
+   * Left child of every node.
+   */
+  private int[] left = new int[1024];
+
+  /**
+   * Right child of every node.
+   */
+  private int[] right = new int[1024];
+
+  /**
+   * Size of the subtree under every node.
+   */
+  private int[] size = new int[1024];
+
+  /**
+   * Heap priority of every node.
+   */
+  private int[] priority = new int[1024];
+
+  /**
+   * One finish of a maze.
+   */
+  public static final class Result {
+
+    /**
+     * Name of the player.
+     */
+    private final String player;
+
+    /**
+     * Time taken in seconds.
+     */
+    private final long time;
+
+    /**
+     * Number of moves and rotations made.
+     */
+    private final int moves;
+
+    /**
+     * When the maze was won, in milliseconds since 1970.
+     */
+    private final long date;
+
+    /**
+     * Creates a result.
+     *
+     * @param player
+     *          name of the player
+     * @param time
+     *          time taken in seconds
+     * @param moves
+     *          moves made
+     * @param date
+     *          when the maze was won
+     */
+    private Result(String player, long time, int moves, long date) {
+      this.player = player;
+      this.time = time;
+      this.moves = moves;
+      this.date = date;
+    }
+
+    /**
+     * Returns when the maze was won.
+     *
+     * @return milliseconds since 1970
+     */
+    public long getDate() {
+      return date;
+    }
+
+    /**
+     * Returns the number of moves and rotations made.
+     *
+     * @return the moves
+     */
+    public int getMoves() {
+      return moves;
+    }
+
+    /**
+     * Returns the name of the player.
+     *
+     * @return the name
+     */
+    public String getPlayer() {
+      return player;
+    }
+
+    /**
+     * Returns the time taken.
+     *
+     * @return the time in seconds
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Describes the result.
+     *
+     * @return the player, time and moves
+     */
+    @Override
+    public String toString() {
+      return String.format("%s %d:%02d:%02d, %d moves", player, time / 3600, time / 60 % 60,
+          time % 60, moves);
+    }
+  }
+
+  /**
+   * Opens a results file, creating it if needed, and reads every result. A
+   * result cut short by a crash is dropped from the end of the file, a whole
+   * result is never dropped. Only one leaderboard of a file may be open in a
+   * process, the file lock is held by the process.
+   *
+   * @param file
+   *          the results file
+   * @throws IOException
+   *           if the file can't be read or is not a results file
+   */
+  public Leaderboard(File file) throws IOException {
+    this.file = file;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      FileLock lock = channel.lock();
+      try {
+        loaded = load();
+        channel.truncate(loaded);
+      } finally {
+        lock.release();
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the leaderboard of this computer, kept in .maze-leaderboard in the
+   * home folder or the file set with -Dmaze.leaderboard.
+   *
+   * @return the leaderboard
+   * @throws IOException
+   *           if the file can't be opened
+   */
+  public static synchronized Leaderboard getShared() throws IOException {
+    if (shared == null) {
+      String path = System.getProperty("maze.leaderboard");
+      shared = new Leaderboard(path != null ? new File(path)
+          : new File(System.getProperty("user.home"), ".maze-leaderboard"));
+    }
+    return shared;
+  }
+
+  /**
+   * Opens the leaderboard of this computer in the background, so a large
+   * results file is already read by the time a maze is won.
+   */
+  public static void prefetchShared() {
+    Thread thread = new Thread(() -> {
+      try {
+        getShared();
+      } catch (IOException e) {
+        // Reported when a win is added
+      }
+    }, "maze-leaderboard");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Returns the name last entered for the leaderboard.
+   *
+   * @return the name, empty if there is none
+   */
+  public static String getLastPlayer() {
+    try {
+      return Preferences.userRoot().node("maze-game").get(PLAYER_KEY, "");
+    } catch (IllegalStateException e) {
+      return "";
+    }
+  }
+
+  /**
+   * Remembers the name entered for the leaderboard.
+   *
+   * @param name
+   *          the name
+   */
+  public static void setLastPlayer(String name) {
+    try {
+      Preferences.userRoot().node("maze-game").put(PLAYER_KEY, name);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      // Too long for the preferences or no preferences, not worth failing for
+    }
+  }
+
+  /**
+   * Adds a result and appends it to the file. A name longer than MAX_NAME
+   * bytes is cut after the last whole character that fits. Results other games
+   * appended since the file was last read are read first, so the rank counts
+   * them.
+   *
+   * @param maze
+   *          content hash of the maze, see MazeLibrary.contentHash()
+   * @param name
+   *          name of the player
+   * @param time
+   *          time taken in seconds
+   * @param moveCount
+   *          number of moves and rotations made
+   * @return the rank of the result, 1 for the best
+   * @throws IOException
+   *           if the result can't be written
+   */
+  public synchronized int add(long maze, String name, long time, int moveCount)
+      throws IOException {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_NAME) {
+      // The encoder stops before a character that does not fit, so the cut
+      // name decodes to the same characters and does not grow again
+      ByteBuffer cut = ByteBuffer.allocate(MAX_NAME);
+      StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE)
+          .encode(CharBuffer.wrap(name), cut, true);
+      bytes = Arrays.copyOf(cut.array(), cut.position());
+      name = new String(bytes, StandardCharsets.UTF_8);
+    }
+    if (bytes.length > MAX_NAME) {
+      throw new IOException("Error: Player name longer than " + MAX_NAME + " bytes");
+    }
+    long date = System.currentTimeMillis();
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD + bytes.length);
+    record.putLong(maze).putLong(time).putInt(moveCount).putLong(date);
+    record.putShort((short) bytes.length).put(bytes).flip();
+    FileLock lock = channel.lock();
+    try {
+      // Every append holds the lock, so an unfinished result is left by a crash
+      long end = channel.size();
+      if (end > loaded) {
+        loaded = read(loaded, end);
+      }
+      channel.truncate(loaded);
+
+      long position = channel.size();
+      while (record.hasRemaining()) {
+        position += channel.write(record, position);
+      }
+      loaded = position;
+    } finally {
+      lock.release();
+    }
+
+    int node = insert(maze, name, time, moveCount, date);
+    return rank(roots.get(maze), node) + 1;
+  }
+
+  /**
+   * Closes the file.
+   *
+   * @throws IOException
+   *           if the file can't be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Returns the number of results of a maze.
+   *
+   * @param maze
+   *          content hash of the maze
+   * @return the number of results
+   */
+  public synchronized int count(long maze) {
+    return size(roots.getOrDefault(maze, NIL));
+  }
+
+  /**
+   * Returns the rank a finish would have on a maze.
+   *
+   * @param maze
+   *          content hash of the maze
+   * @param time
+   *          time taken in seconds
+   * @param moveCount
+   *          moves made
+   * @return 1 plus the number of results with a better time, or the same time
+   *         and fewer moves
+   */
+  public synchronized int rank(long maze, long time, int moveCount) {
+    int rank = 1;
+    int node = roots.getOrDefault(maze, NIL);
+    while (node != NIL) {
+      if (times[node] < time || times[node] == time && moves[node] < moveCount) {
+        rank += size(left[node]) + 1;
+        node = right[node];
+      } else {
+        node = left[node];
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Returns the best results of a maze.
+   *
+   * @param maze
+   *          content hash of the maze
+   * @param k
+   *          the most results to return
+   * @return the results, best first
+   */
+  public synchronized List<Result> top(long maze, int k) {
+    List<Result> result = new ArrayList<>(Math.min(k, count(maze)));
+
+    // Walk in order, only going down the left edges that are needed
+    int[] stack = new int[64];
+    int depth = 0;
+    int node = roots.getOrDefault(maze, NIL);
+    while (result.size() < k && (node != NIL || depth > 0)) {
+      if (node != NIL) {
+        if (depth == stack.length) {
+          stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = node;
+        node = left[node];
+      } else {
+        node = stack[--depth];
+        result.add(new Result(players.get(player[node]), times[node], moves[node],
+            dates[node]));
+        node = right[node];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads every whole result in the file.
+   *
+   * @return the end of the last whole result
+   * @throws IOException
+   *           if the file can't be read or is not a results file
+   */
+  private long load() throws IOException {
+    long length = channel.size();
+    if (length < HEADER) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      channel.write(header, 0);
+      return HEADER;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER).flip();
+    fill(header, 0, HEADER);
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException("Error: " + file + " is not a leaderboard");
+    }
+    return read(HEADER, length);
+  }
+
+  /**
+   * Reads every whole result in part of the file.
+   *
+   * @param start
+   *          position of the first result
+   * @param length
+   *          size of the file
+   * @return the end of the last whole result
+   * @throws IOException
+   *           if the file can't be read
+   */
+  private long read(long start, long length) throws IOException {
+    // Room for the longest record a name length can describe
+    ByteBuffer buffer = ByteBuffer.allocate(128 * 1024).flip();
+    long position = start;
+    long read = fill(buffer, start, length);
+    byte[] name = new byte[MAX_NAME];
+    while (true) {
+      // Refill once the next record might not be in the buffer
+      if (buffer.remaining() < RECORD + MAX_NAME && read < length) {
+        read = fill(buffer, read, length);
+      }
+      if (buffer.remaining() < RECORD) {
+        break;
+      }
+      // A name written longer than MAX_NAME is still a whole record, only an
+      // unfinished record at the end of the file is dropped
+      int nameLength = buffer.getShort(buffer.position() + RECORD - 2) & MAX_RECORD_NAME;
+      if (buffer.remaining() < RECORD + nameLength && read < length) {
+        read = fill(buffer, read, length);
+      }
+      if (buffer.remaining() < RECORD + nameLength) {
+        break;
+      }
+      if (nameLength > name.length) {
+        name = new byte[nameLength];
+      }
+
+      long maze = buffer.getLong();
+      long time = buffer.getLong();
+      int moveCount = buffer.getInt();
+      long date = buffer.getLong();
+      buffer.getShort();
+      buffer.get(name, 0, nameLength);
+      insert(maze, new String(name, 0, nameLength, StandardCharsets.UTF_8), time, moveCount,
+          date);
+      position += RECORD + nameLength;
+    }
+    return position;
+  }
+
+  /**
+   * Moves the unread bytes to the start of the buffer and reads the file until
+   * the buffer or the file is full.
+   *
+   * @param buffer
+   *          the buffer, ready to be read from
+   * @param read
+   *          position in the file of the end of the buffer
+   * @param length
+   *          size of the file
+   * @return position in the file of the new end of the buffer
+   * @throws IOException
+   *           if the file can't be read
+   */
+  private long fill(ByteBuffer buffer, long read, long length) throws IOException {
+    buffer.compact();
+    while (buffer.hasRemaining() && read < length) {
+      int n = channel.read(buffer, read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    buffer.flip();
+    return read;
+  }
+
+  /**
+   * Adds a result to the treap of its maze.
+   *
+   * @param maze
+   *          content hash of the maze
+   * @param name
+   *          name of the player
+   * @param time
+   *          time taken
+   * @param moveCount
+   *          moves made
+   * @param date
+   *          when the maze was won
+   * @return the new node
+   */
+  private int insert(long maze, String name, long time, int moveCount, long date) {
+    if (count == times.length) {
+      int grown = count * 2;
+      times = Arrays.copyOf(times, grown);
+      moves = Arrays.copyOf(moves, grown);
+      dates = Arrays.copyOf(dates, grown);
+      player = Arrays.copyOf(player, grown);
+      left = Arrays.copyOf(left, grown);
+      right = Arrays.copyOf(right, grown);
+      size = Arrays.copyOf(size, grown);
+      priority = Arrays.copyOf(priority, grown);
+    }
+
+    Integer number = playerIndex.get(name);
+    if (number == null) {
+      number = players.size();
+      playerIndex.put(name, number);
+      players.add(name);
+    }
+
+    int node = count++;
+    times[node] = time;
+    moves[node] = moveCount;
+    dates[node] = date;
+    player[node] = number;
+    left[node] = NIL;
+    right[node] = NIL;
+    size[node] = 1;
+    priority[node] = random.nextInt();
+
+    roots.put(maze, insert(roots.getOrDefault(maze, NIL), node));
+    return node;
+  }
+
+  /**
+   * Adds a node under a subtree, rotating it up while its priority is higher.
+   *
+   * @param root
+   *          the subtree
+   * @param node
+   *          the new node
+   * @return the new root of the subtree
+   */
+  private int insert(int root, int node) {
+    if (root == NIL) {
+      return node;
+    }
+    size[root]++;
+    if (before(node, root)) {
+      left[root] = insert(left[root], node);
+      if (priority[left[root]] > priority[root]) {
+        int child = left[root];
+        left[root] = right[child];
+        right[child] = root;
+        return resize(child, root);
+      }
+    } else {
+      right[root] = insert(right[root], node);
+      if (priority[right[root]] > priority[root]) {
+        int child = right[root];
+        right[root] = left[child];
+        left[child] = root;
+        return resize(child, root);
+      }
+    }
+    return root;
+  }
+
+  /**
+   * Returns the number of nodes before a node in a treap.
+   *
+   * @param root
+   *          the treap
+   * @param node
+   *          a node in it
+   * @return the rank from 0
+   */
+  private int rank(int root, int node) {
+    int rank = 0;
+    while (root != node) {
+      if (before(root, node)) {
+        rank += size(left[root]) + 1;
+        root = right[root];
+      } else {
+        root = left[root];
+      }
+    }
+    return rank + size(left[node]);
+  }
+
+  /**
+   * Returns true if a result ranks before another, by time, then moves, then
+   * the order they were added.
+   *
+   * @param a
+   *          a node
+   * @param b
+   *          another node
+   * @return true if a is better
+   */
+  private boolean before(int a, int b) {
+    if (times[a] != times[b]) {
+      return times[a] < times[b];
+    }
+    if (moves[a] != moves[b]) {
+      return moves[a] < moves[b];
+    }
+    return a < b;
+  }
+
+  /**
+   * Fixes the sizes after a rotation.
+   *
+   * @param top
+   *          the node that moved up
+   * @param below
+   *          the node that moved down under it
+   * @return the node that moved up
+   */
+  private int resize(int top, int below) {
+    size[top] = size[below];
+    size[below] = 1 + size(left[below]) + size(right[below]);
+    return top;
+  }
+
+  /**
+   * Returns the size of a subtree.
+   *
+   * @param node
+   *          the subtree
+   * @return the number of nodes, 0 for an empty subtree
+   */
+  private int size(int node) {
+    return node == NIL ? 0 : size[node];
+  }
+
+  /**
+   * Adds random results to a leaderboard and times adding, ranking and the top
+   * ten.
+   *
+   * @param args
+   *          the results file, the number of results and the number of mazes,
+   *          1000000 and 100 if not given
+   * @throws IOException
+   *           if the file can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: Leaderboard file [results] [mazes]");
+      return;
+    }
+    int results = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    int mazes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    SplittableRandom random = new SplittableRandom(1);
+
+    long start = System.nanoTime();
+    try (Leaderboard board = new Leaderboard(new File(args[0]))) {
+      long opened = System.nanoTime();
+      int loaded = board.count;
+      for (int i = 0; i < results; i++) {
+        board.add(random.nextInt(mazes), "player" + random.nextInt(1000), random.nextInt(3600),
+            random.nextInt(500));
+      }
+      long added = System.nanoTime();
+
+      long ranks = 0;
+      for (int i = 0; i < results; i++) {
+        ranks += board.rank(random.nextInt(mazes), random.nextInt(3600), random.nextInt(500));
+      }
+      long ranked = System.nanoTime();
+
+      for (int i = 0; i < results; i++) {
+        ranks += board.top(random.nextInt(mazes), 10).size();
+      }
+      long listed = System.nanoTime();
+
+      System.out.printf("opened %,d results in %.0f ms%n", loaded, (opened - start) / 1e6);
+      System.out.printf("add %.2f us, rank %.2f us, top 10 %.2f us (%d)%n",
+          (added - opened) / 1e3 / results, (ranked - added) / 1e3 / results,
+          (listed - ranked) / 1e3 / results, ranks % 10);
+      System.out.println("best of maze 0: " + board.top(0, 3));
+    }
+  }
+}
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,7 +15,7 @@ public class Lines {
   /**
    * The lines for a tile.
    */
-  private List<Float> lines = new ArrayList<>();
+  private List<Float> lines;
 
   /**
    * Sets the rotations and list of floats.
@@ -24,14 +23,11 @@ public class Lines {
    * @param rotations
    *          The rotations for the line
    * @param points
-   *          The points for the line
+   *          The points for the line, kept without copying
    */
   public Lines(int rotations, List<Float> points) {
     this.rotations = rotations;
-
-    for (Float point : points) {
-      lines.add(point);
-    }
+    lines = points;
   }
 
   /**
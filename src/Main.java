@@ -1,3 +1,6 @@
+import java.time.Instant;
+
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
@@ -20,13 +23,11 @@ public class Main {
    *          generic main arguments, do nothing
    */
   public static void main(String[] args) {
-    // This is the play area
-    GameWindow game = new GameWindow("Gemini aMaze");
-
-    // Set up the window
-    game.initializeWindow();
-    game.setUp();
+    // Start reading the recent games and the leaderboard while the window is built
+    MazeCache.prefetchRecent();
+    Leaderboard.prefetchShared();
 
+    // Style before any component exists so nothing is styled twice
     try {
       // The 4 that are installed on Linux here
       // May have to test on Windows boxes to see what is there.
@@ -48,5 +49,35 @@ public class Main {
       // handle possible exception
     }
 
+    // Swing components are only made on the event thread
+    SwingUtilities.invokeLater(() -> {
+      // This is the play area
+      GameWindow game = new GameWindow("Gemini aMaze");
+
+      // Set up the window
+      game.initializeWindow();
+      game.setUp();
+      game.setVisible(true);
+    });
+  }
+
+  /**
+   * Prints how long after the program started a step of startup finished, if
+   * started with -Dmaze.startup=true. With -Dmaze.startup.exit=true the program
+   * exits once the tiles are shown, for timing runs and for writing a class data
+   * archive with -XX:ArchiveClassesAtExit.
+   *
+   * @param step
+   *          the step that finished
+   */
+  public static void startupMark(String step) {
+    if (Boolean.getBoolean("maze.startup")) {
+      long started = ProcessHandle.current().info().startInstant().map(Instant::toEpochMilli)
+          .orElse(System.currentTimeMillis());
+      System.out.println(step + " after " + (System.currentTimeMillis() - started) + " ms");
+    }
+    if (step.equals("tiles") && Boolean.getBoolean("maze.startup.exit")) {
+      System.exit(0);
+    }
   }
 }
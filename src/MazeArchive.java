@@ -0,0 +1,555 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Many mazes packed into one file, so a collection of hundreds of thousands of
+ * mazes is one file to copy and open instead of one file per maze.
+ *
+ * <p>The archive starts with a header that points to an index. The .mze files
+ * follow the header unchanged, one after another, and the index comes after
+ * them. Every index entry has the same size, so the entry of maze i is found
+ * without reading any other entry. The names of the mazes follow the entries.
+ *
+ * <p>An open archive is memory mapped, and a maze is decoded by a FileReader
+ * straight from the mapping, nothing is copied or extracted. Appending writes
+ * the new mazes and a new index after the old index and then points the header
+ * at the new index, so a failed append leaves the archive as it was. The old
+ * index is left behind as unused bytes until the archive is built again.
+ *
+ * @author Batyr Nuryyev
+ * @author James Fantin
+ */
+public final class MazeArchive implements Closeable {
+
+  /**
+   * First four bytes of every archive, "MZAR".
+   */
+  private static final int MAGIC = 0x4d5a4152;
+
+  /**
+   * Version of the archive layout.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Size of the header: magic, version, maze count, unused, index offset and
+   * index length.
+   */
+  private static final int HEADER = 32;
+
+  /**
+   * Size of an index entry: offset, length, tiles, time, hash, flags and name
+   * offset.
+   */
+  private static final int ENTRY = 40;
+
+  /**
+   * Flag of an entry for a game that has been played.
+   */
+  private static final int PLAYED = 1;
+
+  /**
+   * The archive file.
+   */
+  private final File file;
+
+  /**
+   * The whole archive, mapped read only.
+   */
+  private final ByteBuffer data;
+
+  /**
+   * Number of mazes.
+   */
+  private final int count;
+
+  /**
+   * Position of the first index entry.
+   */
+  private final int index;
+
+  /**
+   * Position of the names.
+   */
+  private final int names;
+
+  /**
+   * Maze number of every name, built the first time a maze is found by name.
+   */
+  private HashMap<String, Integer> byName;
+
+  /**
+   * Opens an archive and maps it into memory.
+   *
+   * @param file
+   *          the archive
+   * @throws IOException
+   *           if the file can't be read or is not an archive
+   */
+  public MazeArchive(File file) throws IOException {
+    this.file = file;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Error: Archive larger than 2 GB, split it into several");
+      }
+      // The mapping stays valid after the channel is closed
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    if (data.limit() < HEADER || data.getInt(0) != MAGIC) {
+      throw new IOException("Error: Not a maze archive");
+    }
+    if (data.getInt(4) != VERSION) {
+      throw new IOException("Error: Unknown archive version " + data.getInt(4));
+    }
+    count = data.getInt(8);
+    long offset = data.getLong(16);
+    long length = data.getLong(24);
+    if (count < 0 || offset < HEADER || offset + length > data.limit()
+        || (long) count * ENTRY > length) {
+      throw new IOException("Error: Corrupt Archive");
+    }
+    index = (int) offset;
+    names = index + count * ENTRY;
+  }
+
+  /**
+   * Returns the archive file.
+   *
+   * @return the file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns the number of mazes.
+   *
+   * @return the count
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Returns the position of the index entry of a maze.
+   *
+   * @param maze
+   *          the maze number, from 0 to size() - 1
+   * @return the position in the archive
+   */
+  private int entry(int maze) {
+    if (maze < 0 || maze >= count) {
+      throw new IndexOutOfBoundsException("Maze " + maze + " of " + count);
+    }
+    return index + maze * ENTRY;
+  }
+
+  /**
+   * Returns the name a maze was added with.
+   *
+   * @param maze
+   *          the maze number
+   * @return the name
+   */
+  public String getName(int maze) {
+    int position = names + data.getInt(entry(maze) + 36);
+    byte[] name = new byte[data.getShort(position) & 0xffff];
+    data.get(position + 2, name);
+    return new String(name, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the number of tiles of a maze.
+   *
+   * @param maze
+   *          the maze number
+   * @return the tiles
+   */
+  public int getTiles(int maze) {
+    return data.getInt(entry(maze) + 12);
+  }
+
+  /**
+   * Returns the time played of a maze.
+   *
+   * @param maze
+   *          the maze number
+   * @return the time in seconds
+   */
+  public long getTime(int maze) {
+    return data.getLong(entry(maze) + 16);
+  }
+
+  /**
+   * Returns the hash of the lines of a maze, see MazeLibrary.contentHash().
+   *
+   * @param maze
+   *          the maze number
+   * @return the hash
+   */
+  public long getHash(int maze) {
+    return data.getLong(entry(maze) + 24);
+  }
+
+  /**
+   * Returns true if a maze is a game that has been played.
+   *
+   * @param maze
+   *          the maze number
+   * @return true if played
+   */
+  public boolean isPlayed(int maze) {
+    return (data.getInt(entry(maze) + 32) & PLAYED) != 0;
+  }
+
+  /**
+   * Returns the bytes of a maze, exactly as they were in its .mze file.
+   *
+   * @param maze
+   *          the maze number
+   * @return a read only view of the mapped archive
+   */
+  public ByteBuffer getBytes(int maze) {
+    int position = entry(maze);
+    int offset = (int) data.getLong(position);
+    int length = data.getInt(position + 8);
+    return data.slice(offset, length).asReadOnlyBuffer();
+  }
+
+  /**
+   * Returns a reader that decodes a maze straight from the mapped archive.
+   *
+   * @param maze
+   *          the maze number
+   * @return the reader
+   */
+  public FileReader open(int maze) {
+    return new FileReader(file, getBytes(maze));
+  }
+
+  /**
+   * Finds a maze by the name it was added with.
+   *
+   * @param name
+   *          the name
+   * @return the maze number, -1 if no maze has the name
+   */
+  public int find(String name) {
+    if (byName == null) {
+      byName = new HashMap<>(count * 2);
+      for (int m = 0; m < count; m++) {
+        byName.putIfAbsent(getName(m), m);
+      }
+    }
+    return byName.getOrDefault(name, -1);
+  }
+
+  /**
+   * Nothing to release, the mapping is freed once the archive is no longer
+   * used. Here so an archive can be opened in a try with resources block.
+   */
+  @Override
+  public void close() {
+    byName = null;
+  }
+
+  /**
+   * Builds a new archive, replacing the file if it exists. The archive is
+   * written next to the file and moved over it once it is whole, with the
+   * permissions of the old archive, or the default ones for a new file.
+   *
+   * @param file
+   *          the archive
+   * @param mazes
+   *          the .mze files to add
+   * @throws IOException
+   *           if a maze can't be read or the archive can't be written
+   */
+  public static void build(File file, List<File> mazes) throws IOException {
+    Path target = file.getAbsoluteFile().toPath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0).putLong(HEADER).putLong(0);
+        channel.write(header.flip());
+        write(channel, new ArrayList<>(), new ArrayList<>(), mazes);
+      }
+      PosixFileAttributeView view = Files.getFileAttributeView(temp,
+          PosixFileAttributeView.class);
+      if (view != null && Files.exists(target)) {
+        view.setPermissions(Files.getPosixFilePermissions(target));
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Adds mazes to the end of an archive.
+   *
+   * @param file
+   *          the archive
+   * @param mazes
+   *          the .mze files to add
+   * @throws IOException
+   *           if a maze can't be read or the archive can't be written
+   */
+  public static void append(File file, List<File> mazes) throws IOException {
+    List<ByteBuffer> entries = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    try (MazeArchive archive = new MazeArchive(file)) {
+      for (int m = 0; m < archive.size(); m++) {
+        entries.add(archive.data.slice(archive.entry(m), ENTRY));
+        names.add(archive.getName(m));
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      long end = channel.size();
+      channel.position(end);
+      try {
+        write(channel, entries, names, mazes);
+      } catch (IOException e) {
+        // The header still points at the old index, only drop what was written
+        channel.truncate(end);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Writes mazes, then the index of the old and new mazes, then points the
+   * header at the index.
+   *
+   * @param channel
+   *          the archive, positioned where the mazes go
+   * @param entries
+   *          the index entries of the mazes already in the archive
+   * @param names
+   *          the names of the mazes already in the archive
+   * @param mazes
+   *          the .mze files to add
+   * @throws IOException
+   *           if a maze can't be read, the archive can't be written or would
+   *           be larger than 2 GB
+   */
+  private static void write(FileChannel channel, List<ByteBuffer> entries, List<String> names,
+      List<File> mazes) throws IOException {
+    // Only archives up to 2 GB can be opened, refuse before writing anything
+    long size = channel.position() + (long) (entries.size() + mazes.size()) * ENTRY;
+    for (String name : names) {
+      size += NameTable.size(name);
+    }
+    for (File maze : mazes) {
+      size += maze.length() + NameTable.size(maze.getName());
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Error: Archive larger than 2 GB, split it into several");
+    }
+
+    for (File maze : mazes) {
+      ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(maze.toPath()));
+      if (bytes.limit() < 16 || bytes.getShort(0) != (short) 0xcafe) {
+        throw new IOException("Error: Not a maze file: " + maze);
+      }
+
+      ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+      entry.putLong(channel.position()).putInt(bytes.limit()).putInt(bytes.getInt(4));
+      entry.putLong(bytes.getLong(8)).putLong(MazeLibrary.contentHash(bytes));
+      entry.putInt(bytes.getShort(2) == (short) 0xdeed ? PLAYED : 0).putInt(0);
+      entries.add(entry.flip());
+      names.add(maze.getName());
+
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+
+    // Entries first so maze i is found directly, then the names they point to
+    long offset = channel.position();
+    NameTable nameBytes = new NameTable();
+    ByteBuffer index = ByteBuffer.allocate(entries.size() * ENTRY);
+    for (int m = 0; m < entries.size(); m++) {
+      ByteBuffer entry = entries.get(m);
+      index.put(entry.duplicate().limit(ENTRY - 4)).putInt(nameBytes.size());
+      nameBytes.addName(names.get(m));
+    }
+    ByteBuffer[] tail = { index.flip(), ByteBuffer.wrap(nameBytes.toArray()) };
+    long length = tail[0].limit() + tail[1].limit();
+    while (tail[1].hasRemaining()) {
+      channel.write(tail);
+    }
+    channel.force(false);
+
+    // Only now point the header at the new index
+    ByteBuffer header = ByteBuffer.allocate(HEADER - 8);
+    header.putInt(entries.size()).putInt(0).putLong(offset).putLong(length);
+    channel.write(header.flip(), 8);
+    channel.force(false);
+  }
+
+  /**
+   * Growing array of the names of an index, each a length and UTF-8 bytes.
+   */
+  private static final class NameTable {
+
+    /**
+     * The names written so far.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    /**
+     * Returns the bytes a name takes in the table.
+     *
+     * @param name
+     *          the name
+     * @return the size
+     */
+    private static int size(String name) {
+      return 2 + Math.min(name.getBytes(StandardCharsets.UTF_8).length, 0xffff);
+    }
+
+    /**
+     * Adds a name.
+     *
+     * @param name
+     *          the name
+     */
+    private void addName(String name) {
+      byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      int length = Math.min(bytes.length, 0xffff);
+      if (buffer.remaining() < length + 2) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(),
+            buffer.position() + length + 2));
+        buffer = bigger.put(buffer.flip());
+      }
+      buffer.putShort((short) length).put(bytes, 0, length);
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the size
+     */
+    private int size() {
+      return buffer.position();
+    }
+
+    /**
+     * Returns a copy of the bytes written.
+     *
+     * @return the bytes
+     */
+    private byte[] toArray() {
+      byte[] bytes = new byte[buffer.position()];
+      buffer.get(0, bytes);
+      return bytes;
+    }
+  }
+
+  /**
+   * Adds a file, or every .mze file under a folder, to a list.
+   *
+   * @param path
+   *          the file or folder
+   * @param files
+   *          the list
+   * @throws IOException
+   *           if a folder can't be listed
+   */
+  private static void collect(File path, List<File> files) throws IOException {
+    if (!path.isDirectory()) {
+      files.add(path);
+      return;
+    }
+    try (Stream<Path> walk = Files.walk(path.toPath())) {
+      walk.filter(p -> p.toString().endsWith(".mze") && Files.isRegularFile(p)).sorted()
+          .forEach(p -> files.add(p.toFile()));
+    }
+  }
+
+  /**
+   * Builds, appends to or lists an archive.
+   *
+   * <pre>
+   * java MazeArchive build archive.mzar files or folders
+   * java MazeArchive append archive.mzar files or folders
+   * java MazeArchive list archive.mzar [name]
+   * </pre>
+   *
+   * @param args
+   *          the command, the archive and the mazes or name
+   * @throws IOException
+   *           if a maze or the archive can't be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: java MazeArchive build|append|list archive [mazes or name]");
+      System.exit(1);
+    }
+    File file = new File(args[1]);
+    List<File> mazes = new ArrayList<>();
+    for (int i = 2; i < args.length && !args[0].equals("list"); i++) {
+      collect(new File(args[i]), mazes);
+    }
+
+    long start = System.nanoTime();
+    switch (args[0]) {
+      case "build":
+        build(file, mazes);
+        break;
+      case "append":
+        append(file, mazes);
+        break;
+      case "list":
+        break;
+      default:
+        System.err.println("Unknown command " + args[0]);
+        System.exit(1);
+    }
+    long written = System.nanoTime();
+
+    try (MazeArchive archive = new MazeArchive(file)) {
+      if (mazes.size() > 0) {
+        System.out.printf("%d mazes added in %.1f ms, %d in %s (%d bytes)%n", mazes.size(),
+            (written - start) / 1e6, archive.size(), file, file.length());
+      } else if (args.length > 2) {
+        int maze = archive.find(args[2]);
+        if (maze < 0) {
+          System.out.println("No maze named " + args[2]);
+        } else {
+          long found = System.nanoTime();
+          try (FileReader reader = archive.open(maze)) {
+            int lines = reader.convertBytesToFloats().size();
+            System.out.printf("%d. %s: %d tiles read in %.3f ms%n", maze, args[2], lines,
+                (System.nanoTime() - found) / 1e6);
+          }
+        }
+      } else {
+        for (int m = 0; m < archive.size(); m++) {
+          System.out.printf("%6d. %-32s %4d tiles %s %016x%n", m, archive.getName(m),
+              archive.getTiles(m), archive.isPlayed(m) ? "played " + archive.getTime(m) + "s"
+                  : "new", archive.getHash(m));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps recently loaded mazes in memory so switching back to one does not read
+ * and decode the file again. Mazes are kept by path and dropped when the file's
+ * modification time or size changes. The least recently used mazes are dropped
+ * once the cache goes over its byte budget, set with -Dmaze.cache.bytes.
+ *
+ * <p>The paths of the last few files loaded or saved are remembered between
+ * runs, and prefetchRecent() loads them in the background at startup.
+ *
+ * @author Batyr Nuryyev
+ * @author James Fantin
+ */
+public final class MazeCache {
+
+  /**
+   * Largest number of bytes of parsed mazes kept in memory.
+   */
+  private static final long BUDGET = Long.getLong("maze.cache.bytes", 16L * 1024 * 1024);
+
+  /**
+   * Number of recent files remembered.
+   */
+  private static final int RECENT = 8;
+
+  /**
+   * Key of the recent files in the preferences.
+   */
+  private static final String RECENT_KEY = "recent";
+
+  /**
+   * Estimated bytes used by one point, a boxed float and its reference.
+   */
+  private static final int POINT_BYTES = 20;
+
+  /**
+   * Estimated bytes used by each tile besides its points.
+   */
+  private static final int TILE_BYTES = 96;
+
+  /**
+   * Cached mazes by absolute path, in least recently used order.
+   */
+  private static final LinkedHashMap<String, Maze> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * Estimated bytes used by every cached maze.
+   */
+  private static long used;
+
+  /**
+   * A parsed maze file. Shared by everyone who loads the file, so none of it
+   * may be changed.
+   */
+  public static final class Maze {
+
+    /**
+     * The lines and rotations of every tile by id.
+     */
+    private final HashMap<Integer, Lines> data;
+
+    /**
+     * The order the tiles were read in.
+     */
+    private final int[] order;
+
+    /**
+     * True if the game has been played.
+     */
+    private final boolean played;
+
+    /**
+     * Time played as stored in the file.
+     */
+    private final long time;
+
+    /**
+     * Seed the tiles were dealt with, empty if the file did not record it.
+     */
+    private final OptionalLong seed;
+
+    /**
+     * Difficulty the tiles were dealt at, NaN for a uniform shuffle.
+     */
+    private final float difficulty;
+
+    /**
+     * Moves made before the game was saved.
+     */
+    private final int moves;
+
+    /**
+     * Blocks of the file this version does not know.
+     */
+    private final Map<Integer, ByteBuffer> unknownBlocks;
+
+    /**
+     * The clean up done when the file was read, null if it was not cleaned.
+     */
+    private final GeometryCleaner cleaner;
+
+    /**
+     * The damaged parts skipped when the file was recovered.
+     */
+    private final List<FileReader.Damage> damage;
+
+    /**
+     * Modification time of the file when it was read.
+     */
+    private final long modified;
+
+    /**
+     * Size of the file when it was read.
+     */
+    private final long length;
+
+    /**
+     * Estimated bytes used in memory.
+     */
+    private final long bytes;
+
+    /**
+     * Reads and decodes a file.
+     *
+     * @param file
+     *          the file
+     * @param recover
+     *          true to skip damaged tiles instead of failing
+     * @throws IOException
+     *           if the file can't be read or is corrupt
+     */
+    private Maze(File file, boolean recover) throws IOException {
+      modified = file.lastModified();
+      length = file.length();
+      try (FileReader fileReader = new FileReader(file)) {
+        fileReader.setRecover(recover);
+        data = fileReader.convertBytesToFloats();
+        damage = fileReader.getDamage();
+        order = fileReader.getOrder();
+        played = fileReader.getPlayed();
+        time = fileReader.getTimePassed();
+        seed = fileReader.getSeed();
+        difficulty = fileReader.getDifficulty();
+        moves = fileReader.getMoves();
+        unknownBlocks = fileReader.getUnknownBlocks();
+        cleaner = fileReader.getCleaner();
+      }
+
+      long total = 0;
+      for (Lines lines : data.values()) {
+        total += TILE_BYTES + (long) POINT_BYTES * lines.getLines().size();
+      }
+      bytes = total;
+    }
+
+    /**
+     * Returns the clean up done when the file was read.
+     *
+     * @return the clean up, null if the lines were not cleaned
+     */
+    public GeometryCleaner getCleaner() {
+      return cleaner;
+    }
+
+    /**
+     * Returns the damaged parts skipped when the file was recovered.
+     *
+     * @return the damaged byte ranges, empty if nothing was skipped
+     */
+    public List<FileReader.Damage> getDamage() {
+      return damage;
+    }
+
+    /**
+     * Returns the difficulty the tiles were dealt at.
+     *
+     * @return the difficulty from 0 to 1, NaN for a uniform shuffle
+     */
+    public float getDifficulty() {
+      return difficulty;
+    }
+
+    /**
+     * Returns the moves made before the game was saved.
+     *
+     * @return the moves, 0 if the file did not record them
+     */
+    public int getMoves() {
+      return moves;
+    }
+
+    /**
+     * Returns the blocks of the file this version does not know.
+     *
+     * @return the payloads by tag, must not be changed
+     */
+    public Map<Integer, ByteBuffer> getUnknownBlocks() {
+      return unknownBlocks;
+    }
+
+    /**
+     * Returns the lines and rotations of every tile by id.
+     *
+     * @return the tiles, must not be changed
+     */
+    public HashMap<Integer, Lines> getData() {
+      return data;
+    }
+
+    /**
+     * Returns the order the tiles were read in.
+     *
+     * @return the tile ids, must not be changed
+     */
+    public int[] getOrder() {
+      return order;
+    }
+
+    /**
+     * Returns the seed the tiles were dealt with.
+     *
+     * @return the seed, empty if the file did not record it
+     */
+    public OptionalLong getSeed() {
+      return seed;
+    }
+
+    /**
+     * Returns the time played.
+     *
+     * @return the time played
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Returns true if the game has been played.
+     *
+     * @return true if played
+     */
+    public boolean isPlayed() {
+      return played;
+    }
+
+    /**
+     * Returns true if the file has not changed since it was read.
+     *
+     * @param file
+     *          the file
+     * @return true if the maze is still current
+     */
+    private boolean isCurrent(File file) {
+      return file.lastModified() == modified && file.length() == length;
+    }
+  }
+
+  /**
+   * Not instantiable, the cache is shared by the whole program.
+   */
+  private MazeCache() {
+  }
+
+  /**
+   * Returns the parsed maze of a file, reading it only if it is not cached or
+   * has changed. The file becomes the most recent one.
+   *
+   * @param file
+   *          the file
+   * @return the parsed maze
+   * @throws IOException
+   *           if the file can't be read or is corrupt
+   */
+  public static Maze load(File file) throws IOException {
+    Maze maze = get(file);
+    remember(file);
+    return maze;
+  }
+
+  /**
+   * Reads a damaged file, skipping the damaged tiles. The result is not cached
+   * so a later load still reports the damage.
+   *
+   * @param file
+   *          the file
+   * @return the parsed maze with the damage it skipped
+   * @throws IOException
+   *           if the file can't be read or nothing could be recovered
+   */
+  public static Maze recover(File file) throws IOException {
+    Maze maze = new Maze(file, true);
+    remember(file);
+    return maze;
+  }
+
+  /**
+   * Starts loading the recent files into the cache on a background thread.
+   */
+  public static void prefetchRecent() {
+    // Even reading the preferences is kept off the startup path
+    Thread thread = new Thread(() -> {
+      for (String path : getRecent()) {
+        try {
+          get(new File(path));
+        } catch (IOException e) {
+          // Moved or damaged, it is reported if the user loads it
+        }
+      }
+    }, "maze-prefetch");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /**
+   * Makes a file the most recent one, for example after saving it.
+   *
+   * @param file
+   *          the file
+   */
+  public static void remember(File file) {
+    String path = file.getAbsolutePath();
+    List<String> recent = getRecent();
+    recent.remove(path);
+    recent.add(0, path);
+    while (recent.size() > RECENT) {
+      recent.remove(recent.size() - 1);
+    }
+
+    try {
+      preferences().put(RECENT_KEY, String.join(File.pathSeparator, recent));
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      // Too long for the preferences or no preferences, not worth failing for
+    }
+  }
+
+  /**
+   * Returns the recent files, most recent first.
+   *
+   * @return the absolute paths
+   */
+  public static List<String> getRecent() {
+    List<String> recent = new ArrayList<>();
+    try {
+      for (String path : preferences().get(RECENT_KEY, "").split(File.pathSeparator)) {
+        if (!path.isEmpty()) {
+          recent.add(path);
+        }
+      }
+    } catch (IllegalStateException e) {
+      // No preferences
+    }
+    return recent;
+  }
+
+  /**
+   * Returns the cached maze of a file, reading it if needed.
+   *
+   * @param file
+   *          the file
+   * @return the parsed maze
+   * @throws IOException
+   *           if the file can't be read or is corrupt
+   */
+  private static Maze get(File file) throws IOException {
+    String key = file.getAbsolutePath();
+    synchronized (CACHE) {
+      Maze maze = CACHE.get(key);
+      if (maze != null && maze.isCurrent(file)) {
+        return maze;
+      }
+    }
+
+    // Read outside the lock so the prefetch doesn't hold up the user
+    Maze maze = new Maze(file, false);
+    synchronized (CACHE) {
+      Maze old = CACHE.put(key, maze);
+      if (old != null) {
+        used -= old.bytes;
+      }
+      used += maze.bytes;
+
+      // Drop the least recently used mazes, but never the one just read
+      Iterator<Map.Entry<String, Maze>> it = CACHE.entrySet().iterator();
+      while (used > BUDGET && it.hasNext()) {
+        Map.Entry<String, Maze> eldest = it.next();
+        if (eldest.getValue() != maze) {
+          used -= eldest.getValue().bytes;
+          it.remove();
+        }
+      }
+    }
+    return maze;
+  }
+
+  /**
+   * Returns the preferences the recent files are kept in.
+   *
+   * @return the preferences node
+   */
+  private static Preferences preferences() {
+    return Preferences.userRoot().node("maze-game");
+  }
+}
@@ -0,0 +1,1678 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Converts mazes between the binary .mze format and a JSON text format that
+ * can be read and edited by other tools.
+ *
+ * <pre>
+ * {
+ *   "format": "mze",
+ *   "version": 1,
+ *   "played": true,
+ *   "time": 42,
+ *   "count": 32,
+ *   "tiles": [
+ *     {"id": 16, "rotation": 1, "lines": [[1, 1, 99, 1], [50, 1, 50, 99]]},
+ *     ...
+ *   ],
+ *   "seed": 7,
+ *   "difficulty": 0.5,
+ *   "moves": 12,
+ *   "blocks": {"554e444f": "00ff..."}
+ * }
+ * </pre>
+ *
+ * <p>The tiles are in file order, so tile i belongs in grid cell i. Points are
+ * in the 0 to 100 square they are stored in. The seed, difficulty and moves are
+ * only there if the file had them, and blocks holds trailer blocks this version
+ * does not know by tag, see MazeTrailer, so they survive a round trip.
+ *
+ * <p>Both directions stream one tile at a time through a TileSource, the same
+ * interface FileWriter saves the board from, so a file of any size is converted
+ * with a fixed amount of memory. Reading JSON needs played, time and count
+ * before tiles, as they are written. The JSON is read as UTF-8 bytes by a small
+ * tokenizer that reuses its buffers and parses most numbers without making a
+ * String.
+ *
+ * @author James Fantin
+ */
+public final class MazeJson {
+
+  /**
+   * Value of the format member.
+   */
+  private static final String FORMAT = "mze";
+
+  /**
+   * Version of the JSON layout.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Powers of ten that are exact as doubles.
+   */
+  private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+      1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * Powers of ten that fit a long.
+   */
+  private static final long[] TENS = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+      10000000L, 100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L,
+      10000000000000L, 100000000000000L, 1000000000000000L, 10000000000000000L,
+      100000000000000000L, 1000000000000000000L };
+
+  /**
+   * Digits of hexadecimal numbers.
+   */
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Not instantiable, only converts.
+   */
+  private MazeJson() {
+  }
+
+  /**
+   * Pull tokenizer for JSON. Every call to next() returns the next token and
+   * checks it may follow the one before, so badly formed text is reported where
+   * it goes wrong. Names and strings are kept as UTF-8 in a buffer that is
+   * reused, and numbers are parsed from it when asked for.
+   */
+  static final class Tokenizer {
+
+    /**
+     * The end of the text.
+     */
+    static final int END = 0;
+
+    /**
+     * An opening brace.
+     */
+    static final int BEGIN_OBJECT = 1;
+
+    /**
+     * A closing brace.
+     */
+    static final int END_OBJECT = 2;
+
+    /**
+     * An opening bracket.
+     */
+    static final int BEGIN_ARRAY = 3;
+
+    /**
+     * A closing bracket.
+     */
+    static final int END_ARRAY = 4;
+
+    /**
+     * The name of a member of an object, see getText().
+     */
+    static final int NAME = 5;
+
+    /**
+     * A string value, see getText().
+     */
+    static final int STRING = 6;
+
+    /**
+     * A number, see getFloat(), getDouble(), getInt() and getLong().
+     */
+    static final int NUMBER = 7;
+
+    /**
+     * The literal true.
+     */
+    static final int TRUE = 8;
+
+    /**
+     * The literal false.
+     */
+    static final int FALSE = 9;
+
+    /**
+     * The literal null.
+     */
+    static final int NULL = 10;
+
+    /**
+     * State of a container that was just opened.
+     */
+    private static final int OPENED = 0;
+
+    /**
+     * State of an object after a name, a colon comes next.
+     */
+    private static final int AFTER_NAME = 1;
+
+    /**
+     * State of an object after a colon, a value comes next.
+     */
+    private static final int AFTER_COLON = 2;
+
+    /**
+     * State of a container after a value, a comma or the end comes next.
+     */
+    private static final int AFTER_VALUE = 3;
+
+    /**
+     * State of a container after a comma, a value or name comes next.
+     */
+    private static final int AFTER_COMMA = 4;
+
+    /**
+     * The text being read.
+     */
+    private final InputStream in;
+
+    /**
+     * Bytes read from the text and not yet tokenized.
+     */
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * Position of the next byte in the buffer.
+     */
+    private int position;
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int limit;
+
+    /**
+     * Number of bytes read before the buffer was last filled.
+     */
+    private long read;
+
+    /**
+     * Bytes of the last name, string or number.
+     */
+    private byte[] text = new byte[64];
+
+    /**
+     * Number of bytes in text.
+     */
+    private int length;
+
+    /**
+     * First half of a surrogate pair written as an escape, 0 if none.
+     */
+    private char high;
+
+    /**
+     * True for every open container that is an object, innermost last.
+     */
+    private boolean[] objects = new boolean[32];
+
+    /**
+     * Number of open containers.
+     */
+    private int depth;
+
+    /**
+     * State of the innermost container.
+     */
+    private int state;
+
+    /**
+     * True once the top level value has started.
+     */
+    private boolean started;
+
+    /**
+     * Creates a tokenizer.
+     *
+     * @param in
+     *          the UTF-8 text
+     */
+    Tokenizer(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return one of the token constants
+     * @throws IOException
+     *           if the text can't be read or is not well formed JSON
+     */
+    int next() throws IOException {
+      int c = peek();
+      if (depth == 0) {
+        if (started) {
+          if (c >= 0) {
+            throw error("Text after the end");
+          }
+          return END;
+        }
+        started = true;
+        return value(c);
+      }
+
+      if (c < 0) {
+        throw error("Unexpected end");
+      }
+      boolean object = objects[depth - 1];
+      if (state == AFTER_NAME) {
+        if (c != ':') {
+          throw error("Expected :");
+        }
+        position++;
+        state = AFTER_COLON;
+        return value(peek());
+      }
+      if (state == AFTER_VALUE) {
+        if (c == ',') {
+          position++;
+          state = AFTER_COMMA;
+          c = peek();
+        } else if (c != (object ? '}' : ']')) {
+          throw error(object ? "Expected , or }" : "Expected , or ]");
+        }
+      }
+      if (state != AFTER_COMMA && c == (object ? '}' : ']')) {
+        position++;
+        depth--;
+        state = AFTER_VALUE;
+        return object ? END_OBJECT : END_ARRAY;
+      }
+      if (!object) {
+        return value(c);
+      }
+      if (c != '"') {
+        throw error("Expected a name");
+      }
+      readString();
+      state = AFTER_NAME;
+      return NAME;
+    }
+
+    /**
+     * Reads a value.
+     *
+     * @param c
+     *          the first character of the value
+     * @return the token
+     * @throws IOException
+     *           if the value is not well formed
+     */
+    private int value(int c) throws IOException {
+      state = AFTER_VALUE;
+      switch (c) {
+        case '{':
+        case '[':
+          position++;
+          if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, 2 * depth);
+          }
+          objects[depth++] = c == '{';
+          state = OPENED;
+          return c == '{' ? BEGIN_OBJECT : BEGIN_ARRAY;
+        case '"':
+          readString();
+          return STRING;
+        case 't':
+          literal("true");
+          return TRUE;
+        case 'f':
+          literal("false");
+          return FALSE;
+        case 'n':
+          literal("null");
+          return NULL;
+        case -1:
+          throw error("Unexpected end");
+        default:
+          if (c == '-' || (c >= '0' && c <= '9')) {
+            readNumber();
+            return NUMBER;
+          }
+          throw error("Unexpected " + (char) c);
+      }
+    }
+
+    /**
+     * Skips a value whose first token was just read, such as a member that is
+     * not known.
+     *
+     * @param token
+     *          the first token of the value
+     * @throws IOException
+     *           if the value is not well formed
+     */
+    void skip(int token) throws IOException {
+      if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+        int open = depth;
+        while (depth >= open) {
+          next();
+        }
+      }
+    }
+
+    /**
+     * Returns true if the last name or string is a text.
+     *
+     * @param expected
+     *          the text, only ASCII
+     * @return true if they are equal
+     */
+    boolean isText(String expected) {
+      if (expected.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (text[i] != expected.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the last name or string.
+     *
+     * @return the text
+     */
+    String getText() {
+      return new String(text, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the last name or string as bytes written as hexadecimal digits.
+     *
+     * @return the bytes
+     * @throws IOException
+     *           if it is not hexadecimal
+     */
+    byte[] getHex() throws IOException {
+      if (length % 2 != 0) {
+        throw error("Odd number of hexadecimal digits");
+      }
+      byte[] bytes = new byte[length / 2];
+      for (int i = 0; i < bytes.length; i++) {
+        int first = Character.digit(text[2 * i], 16);
+        int second = Character.digit(text[2 * i + 1], 16);
+        if (first < 0 || second < 0) {
+          throw error("Not a hexadecimal digit");
+        }
+        bytes[i] = (byte) (first << 4 | second);
+      }
+      return bytes;
+    }
+
+    /**
+     * Returns the last number as the nearest double.
+     *
+     * @return the number
+     * @throws IOException
+     *           if it is not a number
+     */
+    double getDouble() throws IOException {
+      double value = fastDouble();
+      if (Double.isNaN(value)) {
+        try {
+          return Double.parseDouble(getText());
+        } catch (NumberFormatException e) {
+          throw error("Not a number");
+        }
+      }
+      return value;
+    }
+
+    /**
+     * Returns the last number as the nearest float, the same float
+     * Float.parseFloat() gives.
+     *
+     * @return the number
+     * @throws IOException
+     *           if it is not a number
+     */
+    float getFloat() throws IOException {
+      double value = fastDouble();
+      // Rounding twice only goes wrong from exactly halfway between floats
+      if (!Double.isNaN(value) && !isHalfway(value)) {
+        return (float) value;
+      }
+      try {
+        return Float.parseFloat(getText());
+      } catch (NumberFormatException e) {
+        throw error("Not a number");
+      }
+    }
+
+    /**
+     * Returns the last number as an int.
+     *
+     * @return the number
+     * @throws IOException
+     *           if it is not an int
+     */
+    int getInt() throws IOException {
+      long value = getLong();
+      if (value != (int) value) {
+        throw error("Number too large");
+      }
+      return (int) value;
+    }
+
+    /**
+     * Returns the last number as a long.
+     *
+     * @return the number
+     * @throws IOException
+     *           if it is not a whole number that fits a long
+     */
+    long getLong() throws IOException {
+      int i = length > 0 && text[0] == '-' ? 1 : 0;
+      if (length - i > 0 && length - i <= 18) {
+        long value = 0;
+        for (; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+          value = 10 * value + (text[i] - '0');
+        }
+        if (i == length) {
+          return text[0] == '-' ? -value : value;
+        }
+      }
+      try {
+        return Long.parseLong(getText());
+      } catch (NumberFormatException e) {
+        throw error("Not a whole number");
+      }
+    }
+
+    /**
+     * Parses the last number when its digits and its power of ten are both
+     * exact as doubles, so one division or multiplication gives the nearest
+     * double. Covers nearly every number written by this class.
+     *
+     * @return the number, NaN if it has to be parsed the slow way
+     * @throws IOException
+     *           if it is not a number
+     */
+    private double fastDouble() throws IOException {
+      int i = 0;
+      boolean negative = length > 0 && text[0] == '-';
+      if (negative) {
+        i++;
+      }
+
+      long digits = 0;
+      int significant = 0;
+      int exponent = 0;
+      int start = i;
+      for (; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+        if (digits != 0 || text[i] != '0') {
+          significant++;
+        }
+        digits = 10 * digits + (text[i] - '0');
+      }
+      boolean whole = i > start;
+      if (i < length && text[i] == '.') {
+        start = ++i;
+        for (; i < length && text[i] >= '0' && text[i] <= '9'; i++) {
+          if (digits != 0 || text[i] != '0') {
+            significant++;
+          }
+          digits = 10 * digits + (text[i] - '0');
+          exponent--;
+        }
+        if (i == start) {
+          throw error("Expected digits after .");
+        }
+      } else if (!whole) {
+        throw error("Expected digits");
+      }
+      if (significant > 15) {
+        return Double.NaN;
+      }
+
+      if (i < length && (text[i] == 'e' || text[i] == 'E')) {
+        i++;
+        boolean minus = i < length && text[i] == '-';
+        if (i < length && (text[i] == '-' || text[i] == '+')) {
+          i++;
+        }
+        int power = 0;
+        start = i;
+        for (; i < length && text[i] >= '0' && text[i] <= '9' && power < 1000; i++) {
+          power = 10 * power + (text[i] - '0');
+        }
+        if (i == start) {
+          throw error("Expected digits after e");
+        }
+        exponent += minus ? -power : power;
+      }
+      if (i != length) {
+        return Double.NaN;
+      }
+      if (exponent < -22 || exponent > 22) {
+        return Double.NaN;
+      }
+      double value = exponent < 0 ? digits / POWERS[-exponent] : digits * POWERS[exponent];
+      return negative ? -value : value;
+    }
+
+    /**
+     * Reads a string into text.
+     *
+     * @throws IOException
+     *           if the string is not closed or has a bad escape
+     */
+    private void readString() throws IOException {
+      position++;
+      length = 0;
+      high = 0;
+      while (true) {
+        if (position == limit && fill() < 0) {
+          throw error("Unclosed string");
+        }
+        byte b = buffer[position++];
+        if (b == '"') {
+          return;
+        }
+        if (b == '\\') {
+          add(escape());
+        } else if (b >= 0 && b < 0x20) {
+          throw error("Control character in string");
+        } else {
+          // Bytes of other characters are already UTF-8
+          add(b);
+        }
+      }
+    }
+
+    /**
+     * Reads the rest of an escape in a string.
+     *
+     * @return the character it stands for
+     * @throws IOException
+     *           if the escape is not valid
+     */
+    private char escape() throws IOException {
+      int c = read();
+      switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          return (char) c;
+        case 'b':
+          return '\b';
+        case 'f':
+          return '\f';
+        case 'n':
+          return '\n';
+        case 'r':
+          return '\r';
+        case 't':
+          return '\t';
+        case 'u':
+          int code = 0;
+          for (int k = 0; k < 4; k++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+              throw error("Bad \\u escape");
+            }
+            code = code << 4 | digit;
+          }
+          return (char) code;
+        default:
+          throw error("Bad escape");
+      }
+    }
+
+    /**
+     * Reads a number into text, checked when it is asked for.
+     *
+     * @throws IOException
+     *           if the text can't be read
+     */
+    private void readNumber() throws IOException {
+      length = 0;
+      while (true) {
+        if (position == limit && fill() < 0) {
+          return;
+        }
+        // Most numbers are wholly in the buffer
+        int from = position;
+        while (position < limit && isNumberChar(buffer[position])) {
+          position++;
+        }
+        if (length + position - from > text.length) {
+          text = Arrays.copyOf(text, Math.max(2 * text.length, length + position - from));
+        }
+        System.arraycopy(buffer, from, text, length, position - from);
+        length += position - from;
+        if (position < limit) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Reads a literal.
+     *
+     * @param word
+     *          the literal
+     * @throws IOException
+     *           if the text is not the literal
+     */
+    private void literal(String word) throws IOException {
+      for (int k = 0; k < word.length(); k++) {
+        if (read() != word.charAt(k)) {
+          throw error("Expected " + word);
+        }
+      }
+    }
+
+    /**
+     * Adds a byte to text.
+     *
+     * @param b
+     *          the byte
+     */
+    private void add(byte b) {
+      if (length == text.length) {
+        text = Arrays.copyOf(text, 2 * length);
+      }
+      text[length++] = b;
+    }
+
+    /**
+     * Adds an escaped character to text as UTF-8. The first half of a surrogate
+     * pair waits for the second.
+     *
+     * @param c
+     *          the character
+     */
+    private void add(char c) {
+      int code = c;
+      if (Character.isHighSurrogate(c)) {
+        high = c;
+        return;
+      }
+      if (Character.isLowSurrogate(c) && high != 0) {
+        code = Character.toCodePoint(high, c);
+      }
+      high = 0;
+      if (code < 0x80) {
+        add((byte) code);
+      } else if (code < 0x800) {
+        add((byte) (0xc0 | code >> 6));
+        add((byte) (0x80 | code & 0x3f));
+      } else if (code < 0x10000) {
+        add((byte) (0xe0 | code >> 12));
+        add((byte) (0x80 | code >> 6 & 0x3f));
+        add((byte) (0x80 | code & 0x3f));
+      } else {
+        add((byte) (0xf0 | code >> 18));
+        add((byte) (0x80 | code >> 12 & 0x3f));
+        add((byte) (0x80 | code >> 6 & 0x3f));
+        add((byte) (0x80 | code & 0x3f));
+      }
+    }
+
+    /**
+     * Skips white space.
+     *
+     * @return the next byte without reading it, -1 at the end
+     * @throws IOException
+     *           if the text can't be read
+     */
+    private int peek() throws IOException {
+      while (true) {
+        if (position == limit && fill() < 0) {
+          return -1;
+        }
+        int c = buffer[position] & 0xff;
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+          return c;
+        }
+        position++;
+      }
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the byte, -1 at the end
+     * @throws IOException
+     *           if the text can't be read
+     */
+    private int read() throws IOException {
+      if (position == limit && fill() < 0) {
+        return -1;
+      }
+      return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Refills the buffer.
+     *
+     * @return the number of bytes read, -1 at the end
+     * @throws IOException
+     *           if the text can't be read
+     */
+    private int fill() throws IOException {
+      read += limit;
+      position = 0;
+      limit = 0;
+      int count;
+      do {
+        count = in.read(buffer);
+      } while (count == 0);
+      limit = Math.max(count, 0);
+      return count;
+    }
+
+    /**
+     * Makes the error for a problem at the current position.
+     *
+     * @param problem
+     *          what is wrong
+     * @return the error
+     */
+    IOException error(String problem) {
+      return new IOException("Error: " + problem + " at byte " + (read + position));
+    }
+
+    /**
+     * Returns true for the characters a number can have.
+     *
+     * @param c
+     *          the character
+     * @return true if it can be in a number
+     */
+    private static boolean isNumberChar(byte c) {
+      return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+    }
+  }
+
+  /**
+   * Tiles read from JSON one at a time, in the order FileWriter asks for them.
+   * Problems found while reading are thrown as UncheckedIOException.
+   */
+  private static final class JsonTiles implements TileSource {
+
+    /**
+     * The JSON being read.
+     */
+    private final Tokenizer json;
+
+    /**
+     * True if the game has been played.
+     */
+    private boolean played;
+
+    /**
+     * The time played in seconds.
+     */
+    private long time;
+
+    /**
+     * Number of tiles, -1 until read.
+     */
+    private int count = -1;
+
+    /**
+     * The seed, empty if not given.
+     */
+    private OptionalLong seed = OptionalLong.empty();
+
+    /**
+     * The difficulty, NaN if not given.
+     */
+    private float difficulty = Float.NaN;
+
+    /**
+     * The moves made.
+     */
+    private int moves;
+
+    /**
+     * Blocks written back unchanged.
+     */
+    private final LinkedHashMap<Integer, ByteBuffer> blocks = new LinkedHashMap<>();
+
+    /**
+     * Index of the tile read last, -1 before the first.
+     */
+    private int current = -1;
+
+    /**
+     * Id of the tile read last.
+     */
+    private int id;
+
+    /**
+     * Rotation of the tile read last.
+     */
+    private int rotation;
+
+    /**
+     * Points of the tile read last.
+     */
+    private float[] points;
+
+    /**
+     * Points as they are read, reused for every tile.
+     */
+    private float[] scratch = new float[256];
+
+    /**
+     * True once everything after the tiles is read.
+     */
+    private boolean finished;
+
+    /**
+     * Reads everything before the tiles.
+     *
+     * @param in
+     *          the JSON
+     * @throws IOException
+     *           if it can't be read, is not well formed or is not a maze
+     */
+    private JsonTiles(InputStream in) throws IOException {
+      json = new Tokenizer(in);
+      expect(json.next(), Tokenizer.BEGIN_OBJECT, "a maze object");
+      while (true) {
+        int token = json.next();
+        if (token == Tokenizer.END_OBJECT) {
+          throw json.error("Maze has no tiles");
+        }
+        if (json.isText("tiles")) {
+          if (count < 0) {
+            throw json.error("count must come before tiles");
+          }
+          expect(json.next(), Tokenizer.BEGIN_ARRAY, "an array of tiles");
+          return;
+        }
+        member();
+      }
+    }
+
+    /**
+     * Reads a member of the maze object other than tiles, whose name was just
+     * read.
+     *
+     * @throws IOException
+     *           if the value is not what the member needs
+     */
+    private void member() throws IOException {
+      if (json.isText("format")) {
+        expect(json.next(), Tokenizer.STRING, "a string");
+        if (!json.isText(FORMAT)) {
+          throw json.error("Not a maze");
+        }
+      } else if (json.isText("version")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        if (json.getInt() > VERSION) {
+          throw json.error("Made by a newer version");
+        }
+      } else if (json.isText("played")) {
+        int token = json.next();
+        if (token != Tokenizer.TRUE && token != Tokenizer.FALSE) {
+          throw json.error("Expected true or false");
+        }
+        played = token == Tokenizer.TRUE;
+      } else if (json.isText("time")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        time = json.getLong();
+      } else if (json.isText("count")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        count = json.getInt();
+        if (count < 0) {
+          throw json.error("Negative count");
+        }
+      } else if (json.isText("seed")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        seed = OptionalLong.of(json.getLong());
+      } else if (json.isText("difficulty")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        difficulty = json.getFloat();
+      } else if (json.isText("moves")) {
+        expect(json.next(), Tokenizer.NUMBER, "a number");
+        moves = json.getInt();
+      } else if (json.isText("blocks")) {
+        expect(json.next(), Tokenizer.BEGIN_OBJECT, "an object");
+        while (json.next() == Tokenizer.NAME) {
+          if (json.length != 8) {
+            throw json.error("Expected a tag of 8 hexadecimal digits");
+          }
+          int tag = ByteBuffer.wrap(json.getHex()).getInt();
+          expect(json.next(), Tokenizer.STRING, "hexadecimal bytes");
+          blocks.put(tag, ByteBuffer.wrap(json.getHex()).asReadOnlyBuffer());
+        }
+      } else {
+        // Members added by later versions
+        json.skip(json.next());
+      }
+    }
+
+    /**
+     * Reads the next tile.
+     *
+     * @throws IOException
+     *           if the tile is not well formed
+     */
+    private void readTile() throws IOException {
+      int token = json.next();
+      if (token == Tokenizer.END_ARRAY) {
+        throw json.error("Fewer tiles than count");
+      }
+      expect(token, Tokenizer.BEGIN_OBJECT, "a tile");
+      id = -1;
+      rotation = 0;
+      int size = 0;
+      while (json.next() == Tokenizer.NAME) {
+        if (json.isText("id")) {
+          expect(json.next(), Tokenizer.NUMBER, "a number");
+          id = json.getInt();
+        } else if (json.isText("rotation")) {
+          expect(json.next(), Tokenizer.NUMBER, "a number");
+          rotation = json.getInt();
+        } else if (json.isText("lines")) {
+          expect(json.next(), Tokenizer.BEGIN_ARRAY, "an array of lines");
+          while ((token = json.next()) == Tokenizer.BEGIN_ARRAY) {
+            if (size + 4 > scratch.length) {
+              scratch = Arrays.copyOf(scratch, 2 * scratch.length);
+            }
+            for (int k = 0; k < 4; k++) {
+              expect(json.next(), Tokenizer.NUMBER, "four numbers");
+              scratch[size++] = json.getFloat();
+            }
+            expect(json.next(), Tokenizer.END_ARRAY, "four numbers");
+          }
+          expect(token, Tokenizer.END_ARRAY, "a line");
+        } else {
+          json.skip(json.next());
+        }
+      }
+      if (id < 0) {
+        throw json.error("Tile has no id");
+      }
+      points = Arrays.copyOf(scratch, size);
+    }
+
+    /**
+     * Reads everything after the tiles.
+     *
+     * @throws IOException
+     *           if it is not well formed
+     */
+    private void finish() throws IOException {
+      if (current != count - 1) {
+        throw new IllegalStateException("Tiles must be read first");
+      }
+      if (json.next() != Tokenizer.END_ARRAY) {
+        throw json.error("More tiles than count");
+      }
+      while (json.next() == Tokenizer.NAME) {
+        member();
+      }
+      if (json.next() != Tokenizer.END) {
+        throw json.error("Text after the maze");
+      }
+      finished = true;
+    }
+
+    /**
+     * Checks a token.
+     *
+     * @param token
+     *          the token read
+     * @param expected
+     *          the token needed
+     * @param what
+     *          what the token starts, for the error
+     * @throws IOException
+     *           if it is not the token needed
+     */
+    private void expect(int token, int expected, String what) throws IOException {
+      if (token != expected) {
+        throw json.error("Expected " + what);
+      }
+    }
+
+    /**
+     * Moves on to a tile.
+     *
+     * @param tile
+     *          the next tile or the current one
+     */
+    private void seek(int tile) {
+      if (tile == current) {
+        return;
+      }
+      if (tile != current + 1 || tile >= count) {
+        throw new IllegalStateException("Tiles must be read in order");
+      }
+      try {
+        readTile();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      current = tile;
+    }
+
+    /**
+     * Reads everything after the tiles if not done yet.
+     */
+    private void trailer() {
+      if (!finished) {
+        try {
+          finish();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public boolean isPlayed() {
+      return played;
+    }
+
+    @Override
+    public long getTime() {
+      return time;
+    }
+
+    @Override
+    public int getId(int tile) {
+      seek(tile);
+      return id;
+    }
+
+    @Override
+    public int getRotation(int tile) {
+      seek(tile);
+      return rotation;
+    }
+
+    @Override
+    public float[] getPoints(int tile) {
+      seek(tile);
+      return points;
+    }
+
+    @Override
+    public OptionalLong getSeed() {
+      trailer();
+      return seed;
+    }
+
+    @Override
+    public float getDifficulty() {
+      trailer();
+      return difficulty;
+    }
+
+    @Override
+    public int getMoves() {
+      trailer();
+      return moves;
+    }
+
+    @Override
+    public Map<Integer, ByteBuffer> getUnknownBlocks() {
+      trailer();
+      return blocks;
+    }
+  }
+
+  /**
+   * Tiles of a .mze file in memory, walked one at a time in file order. The
+   * blocks after the tiles are read by a FileReader over the same bytes.
+   * Problems found while walking are thrown as UncheckedIOException.
+   */
+  private static final class BinaryTiles implements TileSource {
+
+    /**
+     * The whole file.
+     */
+    private final ByteBuffer data;
+
+    /**
+     * Reads the blocks after the tiles.
+     */
+    private final FileReader reader;
+
+    /**
+     * Where the tiles end.
+     */
+    private final int end;
+
+    /**
+     * Index of the current tile, -1 before the first.
+     */
+    private int current = -1;
+
+    /**
+     * Offset of the current tile.
+     */
+    private int offset;
+
+    /**
+     * Offset just past the current tile.
+     */
+    private int next = 16;
+
+    /**
+     * Checks the header of a file.
+     *
+     * @param file
+     *          the file, for the reader
+     * @param data
+     *          the whole file
+     * @throws IOException
+     *           if it is not a maze
+     */
+    private BinaryTiles(File file, ByteBuffer data) throws IOException {
+      this.data = data;
+      int trailer = MazeTrailer.start(data);
+      end = trailer < 0 ? data.limit() : trailer;
+      if (end < 16 || data.getShort(0) != (short) 0xcafe
+          || (data.getShort(2) != (short) 0xdeed && data.getShort(2) != (short) 0xbeef)
+          || data.getInt(4) < 0) {
+        throw new IOException("Error: Corrupt File");
+      }
+      reader = new FileReader(file, data);
+    }
+
+    /**
+     * Moves on to a tile.
+     *
+     * @param tile
+     *          the next tile or the current one
+     */
+    private void seek(int tile) {
+      if (tile == current) {
+        return;
+      }
+      if (tile != current + 1 || tile >= size()) {
+        throw new IllegalStateException("Tiles must be read in order");
+      }
+      int numLines = next <= end - 12 ? data.getInt(next + 8) : -1;
+      if (numLines < 0 || numLines > (end - next - 12) / 16) {
+        throw new UncheckedIOException(new IOException("Error: Corrupt File"));
+      }
+      offset = next;
+      next += 12 + 16 * numLines;
+      current = tile;
+    }
+
+    @Override
+    public int size() {
+      return data.getInt(4);
+    }
+
+    @Override
+    public boolean isPlayed() {
+      return data.getShort(2) == (short) 0xdeed;
+    }
+
+    @Override
+    public long getTime() {
+      return data.getLong(8);
+    }
+
+    @Override
+    public int getId(int tile) {
+      seek(tile);
+      return data.getInt(offset);
+    }
+
+    @Override
+    public int getRotation(int tile) {
+      seek(tile);
+      return data.getInt(offset + 4);
+    }
+
+    @Override
+    public float[] getPoints(int tile) {
+      seek(tile);
+      float[] points = new float[4 * data.getInt(offset + 8)];
+      for (int k = 0; k < points.length; k++) {
+        points[k] = data.getFloat(offset + 12 + 4 * k);
+      }
+      return points;
+    }
+
+    @Override
+    public OptionalLong getSeed() {
+      return reader.getSeed();
+    }
+
+    @Override
+    public float getDifficulty() {
+      return reader.getDifficulty();
+    }
+
+    @Override
+    public int getMoves() {
+      return reader.getMoves();
+    }
+
+    @Override
+    public Map<Integer, ByteBuffer> getUnknownBlocks() {
+      return reader.getUnknownBlocks();
+    }
+  }
+
+  /**
+   * Bytes waiting to be written, so numbers are formatted straight into one
+   * array instead of into a String each. Everything written is ASCII, so a
+   * character is a byte.
+   */
+  private static final class Output {
+
+    /**
+     * Where the bytes go.
+     */
+    private final OutputStream out;
+
+    /**
+     * Bytes not yet written.
+     */
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int length;
+
+    /**
+     * Formats the floats that have no short exact decimal.
+     */
+    private final StringBuilder slow = new StringBuilder();
+
+    /**
+     * Creates an output.
+     *
+     * @param out
+     *          where the bytes go
+     */
+    private Output(OutputStream out) {
+      this.out = out;
+    }
+
+    /**
+     * Makes room for bytes.
+     *
+     * @param count
+     *          the number of bytes
+     * @throws IOException
+     *           if the buffer can't be written
+     */
+    private void ensure(int count) throws IOException {
+      if (length + count > buffer.length) {
+        flush();
+      }
+    }
+
+    /**
+     * Adds text.
+     *
+     * @param text
+     *          the text, ASCII and shorter than the buffer
+     * @return this output
+     * @throws IOException
+     *           if the buffer can't be written
+     */
+    private Output put(CharSequence text) throws IOException {
+      ensure(text.length());
+      for (int i = 0; i < text.length(); i++) {
+        buffer[length++] = (byte) text.charAt(i);
+      }
+      return this;
+    }
+
+    /**
+     * Adds a whole number.
+     *
+     * @param value
+     *          the number
+     * @return this output
+     * @throws IOException
+     *           if the buffer can't be written
+     */
+    private Output put(long value) throws IOException {
+      return putDecimal(value, 0);
+    }
+
+    /**
+     * Adds a number with some of its digits after the point.
+     *
+     * @param digits
+     *          all the digits as a whole number
+     * @param decimals
+     *          how many of the digits come after the point
+     * @return this output
+     * @throws IOException
+     *           if the buffer can't be written
+     */
+    private Output putDecimal(long digits, int decimals) throws IOException {
+      if (digits == Long.MIN_VALUE) {
+        return put(Long.toString(digits));
+      }
+      ensure(24);
+      if (digits < 0) {
+        buffer[length++] = '-';
+        digits = -digits;
+      }
+      // At least one digit before the point
+      int size = 1;
+      while (size < TENS.length && digits >= TENS[size]) {
+        size++;
+      }
+      size = Math.max(size, decimals + 1);
+
+      // Two digits at a time, backwards from the end, then the point
+      int end = length + size;
+      int at = end;
+      while (digits >= Integer.MAX_VALUE) {
+        long rest = digits / 100;
+        at = putPair((int) (digits - 100 * rest), at);
+        digits = rest;
+      }
+      int small = (int) digits;
+      while (small >= 100) {
+        int rest = small / 100;
+        at = putPair(small - 100 * rest, at);
+        small = rest;
+      }
+      if (small >= 10) {
+        at = putPair(small, at);
+      } else {
+        buffer[--at] = (byte) ('0' + small);
+      }
+      while (at > length) {
+        buffer[--at] = '0';
+      }
+      if (decimals > 0) {
+        System.arraycopy(buffer, end - decimals, buffer, end - decimals + 1, decimals);
+        buffer[end - decimals] = '.';
+        end++;
+      }
+      length = end;
+      return this;
+    }
+
+    /**
+     * Puts two digits in front of a position.
+     *
+     * @param pair
+     *          the digits, from 0 to 99
+     * @param at
+     *          the position just past the digits
+     * @return the position of the first digit
+     */
+    private int putPair(int pair, int at) {
+      buffer[at - 1] = (byte) ('0' + pair % 10);
+      buffer[at - 2] = (byte) ('0' + pair / 10);
+      return at - 2;
+    }
+
+    /**
+     * Adds a float with the fewest decimals that read back as the same float.
+     * Points are nearly always whole or have a few decimals, so the shortest
+     * decimals are tried first, and nothing but very large or very small floats
+     * need a String made.
+     *
+     * @param value
+     *          the float
+     * @return this output
+     * @throws IOException
+     *           if the float is not a number or the buffer can't be written
+     */
+    private Output put(float value) throws IOException {
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        throw new IOException("Error: " + value + " can't be written as JSON");
+      }
+      if (value == 0 && Float.floatToRawIntBits(value) != 0) {
+        return put("-0");
+      }
+      if (Math.abs(value) < 1e9f) {
+        for (int decimals = 0; decimals < 16; decimals++) {
+          double scaled = value * POWERS[decimals];
+          if (Math.abs(scaled) >= 1e15) {
+            break;
+          }
+          long digits = Math.round(scaled);
+          double back = digits / POWERS[decimals];
+          // Same test as Tokenizer.getFloat(), so it reads back exactly
+          if ((float) back == value && !isHalfway(back)) {
+            return putDecimal(digits, decimals);
+          }
+        }
+      }
+      slow.setLength(0);
+      return put(slow.append(value));
+    }
+
+    /**
+     * Writes the buffer.
+     *
+     * @throws IOException
+     *           if it can't be written
+     */
+    private void flush() throws IOException {
+      out.write(buffer, 0, length);
+      length = 0;
+    }
+  }
+
+  /**
+   * Returns true if a double is exactly halfway between two floats. A number
+   * rounded to the nearest double and then to the nearest float only ends up on
+   * a different float than rounding it straight to a float from there. Doubles
+   * too small for a normal float are counted as halfway, to be parsed the slow
+   * way.
+   *
+   * @param value
+   *          the double
+   * @return true if halfway
+   */
+  private static boolean isHalfway(double value) {
+    if (value == 0) {
+      return false;
+    }
+    if (Math.abs(value) < Float.MIN_NORMAL) {
+      return true;
+    }
+    // The 29 bits a float drops are exactly one half
+    return (Double.doubleToRawLongBits(value) & 0x1fffffffL) == 0x10000000L;
+  }
+
+  /**
+   * Writes tiles as JSON, one tile per line.
+   *
+   * @param source
+   *          the tiles, asked for in order
+   * @param stream
+   *          where the JSON goes, not closed
+   * @throws IOException
+   *           if the JSON can't be written or the source can't be read
+   */
+  public static void write(TileSource source, OutputStream stream) throws IOException {
+    try {
+      Output out = new Output(stream);
+      boolean played = source.isPlayed();
+      int count = source.size();
+      out.put("{\n  \"format\": \"").put(FORMAT).put("\",\n  \"version\": ").put(VERSION);
+      out.put(",\n  \"played\": ").put(played ? "true" : "false");
+      out.put(",\n  \"time\": ").put(source.getTime());
+      out.put(",\n  \"count\": ").put(count).put(",\n  \"tiles\": [");
+
+      for (int t = 0; t < count; t++) {
+        // Like FileWriter, a new game has no rotations
+        out.put(t == 0 ? "\n    {\"id\": " : ",\n    {\"id\": ").put(source.getId(t));
+        out.put(", \"rotation\": ").put(played ? source.getRotation(t) % 4 : 0);
+        out.put(", \"lines\": [");
+        float[] points = source.getPoints(t);
+        for (int k = 0; k + 3 < points.length; k += 4) {
+          out.put(k == 0 ? "[" : ", [").put(points[k]).put(", ").put(points[k + 1]).put(", ")
+              .put(points[k + 2]).put(", ").put(points[k + 3]).put("]");
+        }
+        out.put("]}");
+      }
+      out.put("\n  ]");
+
+      OptionalLong seed = source.getSeed();
+      if (seed.isPresent()) {
+        out.put(",\n  \"seed\": ").put(seed.getAsLong());
+        if (!Float.isNaN(source.getDifficulty())) {
+          out.put(",\n  \"difficulty\": ").put(source.getDifficulty());
+        }
+      }
+      if (source.getMoves() > 0) {
+        out.put(",\n  \"moves\": ").put(source.getMoves());
+      }
+      Map<Integer, ByteBuffer> blocks = source.getUnknownBlocks();
+      if (!blocks.isEmpty()) {
+        out.put(",\n  \"blocks\": {");
+        String separator = "\n";
+        for (Map.Entry<Integer, ByteBuffer> block : blocks.entrySet()) {
+          out.put(separator).put("    \"").put(String.format("%08x", block.getKey())).put("\": \"");
+          ByteBuffer payload = block.getValue().duplicate();
+          while (payload.hasRemaining()) {
+            out.ensure(2);
+            int b = payload.get() & 0xff;
+            out.buffer[out.length++] = HEX[b >>> 4];
+            out.buffer[out.length++] = HEX[b & 0xf];
+          }
+          out.put("\"");
+          separator = ",\n";
+        }
+        out.put("\n  }");
+      }
+      out.put("\n}\n").flush();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Writes a .mze file already in memory, such as a mapped file or a maze of a
+   * MazeArchive, as JSON.
+   *
+   * @param file
+   *          the file the bytes come from
+   * @param data
+   *          the bytes of the file
+   * @param stream
+   *          where the JSON goes, not closed
+   * @throws IOException
+   *           if the maze is corrupt or the JSON can't be written
+   */
+  public static void write(File file, ByteBuffer data, OutputStream stream) throws IOException {
+    write(new BinaryTiles(file, data.slice()), stream);
+  }
+
+  /**
+   * Reads JSON as tiles to save with FileWriter.save(). The tiles must be asked
+   * for once each, in order, before the seed, moves and blocks.
+   *
+   * @param in
+   *          the JSON as UTF-8
+   * @return the tiles
+   * @throws IOException
+   *           if the JSON can't be read or does not start like a maze
+   */
+  public static TileSource read(InputStream in) throws IOException {
+    return new JsonTiles(in);
+  }
+
+  /**
+   * Converts a .json file to a .mze file, or any other file from .mze to JSON.
+   * The result is written next to out and only replaces it once it is whole,
+   * keeping the permissions of the old file, or the default ones for a new
+   * file.
+   *
+   * @param in
+   *          the file to convert
+   * @param out
+   *          the file to write, replaced if it exists
+   * @throws IOException
+   *           if a file can't be read or written, or is not a maze
+   */
+  public static void convert(File in, File out) throws IOException {
+    Path target = out.getAbsoluteFile().toPath();
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      if (in.getName().endsWith(".json")) {
+        try (InputStream json = new FileInputStream(in);
+            FileWriter writer = new FileWriter(temp.toFile())) {
+          writer.save(read(json));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      } else {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+          if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Error: File larger than 2 GB");
+          }
+          data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try (OutputStream stream = new FileOutputStream(temp.toFile())) {
+          write(in, data, stream);
+        }
+      }
+      PosixFileAttributeView view = Files.getFileAttributeView(temp,
+          PosixFileAttributeView.class);
+      if (view != null && Files.exists(target)) {
+        view.setPermissions(Files.getPosixFilePermissions(target));
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Converts a file and prints how fast it went.
+   *
+   * @param args
+   *          the file to convert and the file to write
+   * @throws IOException
+   *           if a file can't be read or written, or is not a maze
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: java MazeJson <in.mze|in.json> <out.json|out.mze>");
+      System.exit(1);
+    }
+    File in = new File(args[0]);
+    long start = System.nanoTime();
+    convert(in, new File(args[1]));
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%s: %d bytes in %.1f ms, %.0f MB/s%n", in, in.length(), seconds * 1e3,
+        in.length() / 1e6 / seconds);
+  }
+}
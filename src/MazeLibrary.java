@@ -0,0 +1,539 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of every saved maze in a folder, so questions like which games are in
+ * progress and how long they have been played don't need every file opened.
+ *
+ * <p>The index is kept in a small binary file in the folder. A refresh only
+ * reads the files whose size or modification time changed since the index was
+ * written, and reads those in parallel. Reading a file takes its header and a
+ * hash of its lines, the lines themselves are never turned into floats.
+ *
+ * @author Batyr Nuryyev
+ * @author James Fantin
+ */
+public final class MazeLibrary {
+
+  /**
+   * Name of the index file kept in the folder.
+   */
+  public static final String INDEX_NAME = ".mazeindex";
+
+  /**
+   * First four bytes of an index file, "MZIX".
+   */
+  private static final int INDEX_MAGIC = 0x4d5a4958;
+
+  /**
+   * Layout version of the index file. Older indexes are rebuilt.
+   */
+  private static final int INDEX_VERSION = 2;
+
+  /**
+   * Odd constant used to spread the bits of the hash.
+   */
+  private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+  /**
+   * The folder of saved games.
+   */
+  private final Path folder;
+
+  /**
+   * The index file.
+   */
+  private final Path indexFile;
+
+  /**
+   * Every indexed maze by its path relative to the folder.
+   */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * What the index knows about one maze file.
+   */
+  public static final class Entry {
+
+    /**
+     * Path relative to the folder, with / between names.
+     */
+    private final String path;
+
+    /**
+     * Size of the file in bytes when it was read.
+     */
+    private final long size;
+
+    /**
+     * Modification time of the file in milliseconds when it was read.
+     */
+    private final long modified;
+
+    /**
+     * True if the game has been played.
+     */
+    private final boolean played;
+
+    /**
+     * Number of tiles, -1 if the file is not a valid maze.
+     */
+    private final int tiles;
+
+    /**
+     * Time played as stored in the file.
+     */
+    private final long time;
+
+    /**
+     * Hash of the lines of every tile, see contentHash().
+     */
+    private final long hash;
+
+    /**
+     * Creates an entry.
+     *
+     * @param path
+     *          path relative to the folder
+     * @param size
+     *          size of the file in bytes
+     * @param modified
+     *          modification time in milliseconds
+     * @param played
+     *          true if the game has been played
+     * @param tiles
+     *          number of tiles
+     * @param time
+     *          time played
+     * @param hash
+     *          hash of the lines
+     */
+    private Entry(String path, long size, long modified, boolean played, int tiles, long time,
+        long hash) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.played = played;
+      this.tiles = tiles;
+      this.time = time;
+      this.hash = hash;
+    }
+
+    /**
+     * Returns the hash of the lines of every tile. Equal for every save of the
+     * same maze, however far it has been played.
+     *
+     * @return the hash
+     */
+    public long getHash() {
+      return hash;
+    }
+
+    /**
+     * Returns the path relative to the folder.
+     *
+     * @return the path, with / between names
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * Returns the number of tiles.
+     *
+     * @return the number of tiles
+     */
+    public int getTiles() {
+      return tiles;
+    }
+
+    /**
+     * Returns the time played as stored in the file.
+     *
+     * @return the time played
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Returns true if the game has been played.
+     *
+     * @return true if played
+     */
+    public boolean isPlayed() {
+      return played;
+    }
+
+    /**
+     * Returns true if the file is a valid maze. Invalid files are kept in the
+     * index so they are not read again until they change.
+     *
+     * @return true if valid
+     */
+    private boolean isValid() {
+      return tiles >= 0;
+    }
+
+    /**
+     * Describes the entry.
+     *
+     * @return the path, state, tiles and time
+     */
+    @Override
+    public String toString() {
+      return path + (played ? " played " : " new ") + tiles + " tiles, time " + time
+          + String.format(", hash %016x", hash);
+    }
+  }
+
+  /**
+   * Creates the library of a folder and reads its index if there is one. Call
+   * refresh() to bring the index up to date.
+   *
+   * @param folder
+   *          the folder of saved games
+   */
+  public MazeLibrary(File folder) {
+    this.folder = folder.toPath().toAbsolutePath().normalize();
+    indexFile = this.folder.resolve(INDEX_NAME);
+
+    try {
+      readIndex();
+    } catch (IOException e) {
+      // A missing or damaged index is rebuilt by the next refresh
+      entries.clear();
+    }
+  }
+
+  /**
+   * Returns a hash of the lines of every tile. The ids and rotations of the tiles
+   * are left out, so the hash is the same for a new game and for any save of it
+   * after playing. Files keep the tiles in winning order, and the tile hashes are
+   * chained in that order, so the same tiles won in another order hash
+   * differently.
+   *
+   * @param data
+   *          the whole file
+   * @return the hash
+   * @throws IOException
+   *           if the tiles don't fit the file
+   */
+  public static long contentHash(ByteBuffer data) throws IOException {
+    int end = MazeTrailer.start(data);
+    if (end < 0) {
+      end = data.limit();
+    }
+    if (end < 16) {
+      throw new IOException("Error: Corrupt File");
+    }
+
+    int numTiles = data.getInt(4);
+    int position = 16;
+    long chain = 0;
+    for (int i = 0; i < numTiles; i++) {
+      if (position > end - 12) {
+        throw new IOException("Error: Corrupt File");
+      }
+      int numLines = data.getInt(position + 8);
+      if (numLines < 0 || numLines > (end - position - 12) / 16) {
+        throw new IOException("Error: Corrupt File");
+      }
+      position += 12;
+      chain = chain * GOLDEN + hash(data, position, position + 16 * numLines);
+      position += 16 * numLines;
+    }
+    return chain;
+  }
+
+  /**
+   * Returns the same hash as contentHash(ByteBuffer) for tiles in memory, such
+   * as the board being played.
+   *
+   * @param source
+   *          the tiles
+   * @return the hash
+   */
+  public static long contentHash(TileSource source) {
+    ByteBuffer lines = ByteBuffer.allocate(1024);
+    long chain = 0;
+    for (int t = 0; t < source.size(); t++) {
+      // Hash the bytes FileWriter would write for the lines
+      float[] points = source.getPoints(t);
+      int bytes = 16 * (points.length / 4);
+      if (lines.capacity() < bytes) {
+        lines = ByteBuffer.allocate(bytes);
+      }
+      lines.clear();
+      for (int k = 0; k < bytes / 4; k++) {
+        lines.putFloat(points[k]);
+      }
+      chain = chain * GOLDEN + hash(lines, 0, bytes);
+    }
+    return chain;
+  }
+
+  /**
+   * Returns every indexed maze.
+   *
+   * @return the entries sorted by path
+   */
+  public List<Entry> getEntries() {
+    return query(entry -> true);
+  }
+
+  /**
+   * Returns the valid indexed mazes that match a condition, from the index only.
+   *
+   * @param condition
+   *          the condition to match
+   * @return the matching entries sorted by path
+   */
+  public List<Entry> query(Predicate<Entry> condition) {
+    List<Entry> result = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      if (entry.isValid() && condition.test(entry)) {
+        result.add(entry);
+      }
+    }
+    result.sort(Comparator.comparing(Entry::getPath));
+    return result;
+  }
+
+  /**
+   * Brings the index up to date with the folder and writes it out if anything
+   * changed. Only new and changed files are read, in parallel. Files that are
+   * not valid mazes are left out of every query.
+   *
+   * @return the number of files read
+   * @throws IOException
+   *           if the folder can't be listed or the index can't be written
+   */
+  public int refresh() throws IOException {
+    List<Path> changed = new ArrayList<>();
+    Map<String, Entry> kept = new HashMap<>();
+
+    // Compare the size and time of every file with the index
+    try (Stream<Path> files = Files.walk(folder)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (!file.toString().endsWith(".mze")) {
+          continue;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+        String path = relative(file);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == attributes.size()
+            && entry.modified == attributes.lastModifiedTime().toMillis()) {
+          kept.put(path, entry);
+        } else {
+          changed.add(file);
+        }
+      }
+    }
+
+    List<Entry> read = changed.parallelStream().map(this::read).filter(Objects::nonNull)
+        .collect(Collectors.toList());
+
+    boolean modified = !changed.isEmpty() || kept.size() != entries.size();
+    entries.clear();
+    entries.putAll(kept);
+    for (Entry entry : read) {
+      entries.put(entry.path, entry);
+    }
+
+    if (modified) {
+      writeIndex();
+    }
+    return changed.size();
+  }
+
+  /**
+   * Hashes a range of bytes, eight at a time.
+   *
+   * @param data
+   *          the bytes
+   * @param from
+   *          offset of the first byte
+   * @param to
+   *          offset just past the last byte
+   * @return the hash
+   */
+  private static long hash(ByteBuffer data, int from, int to) {
+    long h = GOLDEN * (to - from + 1);
+    int i = from;
+    for (; i <= to - 8; i += 8) {
+      h = Long.rotateLeft(h ^ mix(data.getLong(i)), 27) * GOLDEN;
+    }
+    for (; i < to; i++) {
+      h = (h ^ data.get(i)) * GOLDEN;
+    }
+    return mix(h);
+  }
+
+  /**
+   * Spreads the bits of a value over the whole long.
+   *
+   * @param z
+   *          the value
+   * @return the mixed value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  /**
+   * Reads the header and hash of one file.
+   *
+   * @param file
+   *          the file
+   * @return the entry, null if the file can't be read
+   */
+  private Entry read(Path file) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    } catch (IOException e) {
+      // Deleted while refreshing
+      return null;
+    }
+    Entry invalid = new Entry(relative(file), attributes.size(),
+        attributes.lastModifiedTime().toMillis(), false, -1, 0, 0);
+
+    try {
+      ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+      if (data.limit() < 16 || data.get(0) != (byte) 0xca || data.get(1) != (byte) 0xfe) {
+        return invalid;
+      }
+
+      // Bytes 2 and 3 tell a played game from a new one
+      boolean played;
+      if (data.get(2) == (byte) 0xde && data.get(3) == (byte) 0xed) {
+        played = true;
+      } else if (data.get(2) == (byte) 0xbe && data.get(3) == (byte) 0xef) {
+        played = false;
+      } else {
+        return invalid;
+      }
+
+      return new Entry(relative(file), attributes.size(),
+          attributes.lastModifiedTime().toMillis(), played, data.getInt(4), data.getLong(8),
+          contentHash(data));
+    } catch (NoSuchFileException e) {
+      // Deleted while refreshing
+      return null;
+    } catch (IOException e) {
+      return invalid;
+    }
+  }
+
+  /**
+   * Reads the index file.
+   *
+   * @throws IOException
+   *           if the index is missing or damaged
+   */
+  private void readIndex() throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+        throw new IOException("Error: Old or corrupt index");
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readBoolean(),
+            in.readInt(), in.readLong(), in.readLong());
+        entries.put(entry.path, entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the path of a file relative to the folder.
+   *
+   * @param file
+   *          the file
+   * @return the relative path, with / between names
+   */
+  private String relative(Path file) {
+    return folder.relativize(file.toAbsolutePath().normalize()).toString()
+        .replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Writes the index file. It is written next to the old one and then moved over
+   * it, so a crash never leaves a half written index.
+   *
+   * @throws IOException
+   *           if the index can't be written
+   */
+  private void writeIndex() throws IOException {
+    Path temp = folder.resolve(INDEX_NAME + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(INDEX_VERSION);
+      out.writeInt(entries.size());
+      for (Entry entry : entries.values()) {
+        out.writeUTF(entry.path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.writeBoolean(entry.played);
+        out.writeInt(entry.tiles);
+        out.writeLong(entry.time);
+        out.writeLong(entry.hash);
+      }
+    }
+    Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Refreshes the index of a folder and lists the games in progress.
+   *
+   * @param args
+   *          the folder, the current folder if not given
+   * @throws IOException
+   *           if the folder can't be listed or the index can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    long start = System.nanoTime();
+    MazeLibrary library = new MazeLibrary(new File(args.length > 0 ? args[0] : "."));
+    int read = library.refresh();
+    long refreshed = System.nanoTime();
+
+    List<Entry> played = library.query(Entry::isPlayed);
+    long queried = System.nanoTime();
+
+    System.out.printf("%d mazes, %d read in %.1f ms, queried in %.3f ms%n",
+        library.getEntries().size(), read, (refreshed - start) / 1e6, (queried - refreshed) / 1e6);
+    System.out.println(played.size() + " in progress:");
+    played.sort(Comparator.comparingLong(Entry::getTime).reversed());
+    for (Entry entry : played) {
+      System.out.println("  " + entry);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Optional data stored after the last tile of a .mze file. Readers that only
+ * know the tile layout stop after the last tile, so anything written here is
+ * ignored by them.
+ *
+ * <p>The trailer is a list of blocks followed by a footer:
+ *
+ * <pre>
+ * block:  int tag, int length, length bytes of payload
+ * footer: int total length of the blocks, int MAGIC
+ * </pre>
+ *
+ * <p>The footer is at the very end of the file, so the trailer can be found
+ * without walking the tiles. That matters when a tile is damaged and the tiles
+ * after it can't be found by walking.
+ *
+ * <p>New state is added as a new block, never by changing the tile layout, so
+ * no file ever has to be converted. Readers skip blocks with tags they don't
+ * know, and a payload may grow in a later version as long as the fields already
+ * in it stay where they are. Blocks a reader does not know are written back
+ * unchanged when the game is saved again, see getUnknownBlocks(), as long as
+ * the tiles were not moved or rotated. Once they were, only blocks that are safe
+ * to copy are written back, the others may describe a board that no longer
+ * exists. Like in PNG, a block is safe to copy if the last letter of its tag is
+ * lower case, see SAFE_TO_COPY.
+ *
+ * @author Batyr Nuryyev
+ * @author James Fantin
+ */
+public final class MazeTrailer {
+
+  /**
+   * Last four bytes of a file with a trailer, "MZEX".
+   */
+  public static final int MAGIC = 0x4d5a4558;
+
+  /**
+   * Tag of the checksum block, "CRCC". The payload is the CRC32C of the 16
+   * header bytes, the number of tiles, then for every tile its offset in the
+   * file (long), its length in bytes (int) and the CRC32C of those bytes (int).
+   * The last int is the CRC32C of the rest of the payload.
+   */
+  public static final int CHECKSUMS = 0x43524343;
+
+  /**
+   * Tag of the seed block, "SEED". The payload is the long the tiles were
+   * dealt with, followed by the difficulty as a float if the deal was not a
+   * uniform shuffle, see DealGenerator.deal().
+   */
+  public static final int SEED = 0x53454544;
+
+  /**
+   * Tag of the moves block, "MOVS". The payload is the number of moves and
+   * rotations made on the game so far, as an int.
+   */
+  public static final int MOVES = 0x4d4f5653;
+
+  /**
+   * Bit of a tag set for blocks that stay true when the tiles are moved, the
+   * last letter of the tag in lower case.
+   */
+  public static final int SAFE_TO_COPY = 0x20;
+
+  /**
+   * Size of the footer in bytes.
+   */
+  public static final int FOOTER = 8;
+
+  /**
+   * Size of a block header in bytes.
+   */
+  public static final int BLOCK_HEADER = 8;
+
+  /**
+   * Not instantiable, only holds the layout.
+   */
+  private MazeTrailer() {
+  }
+
+  /**
+   * Returns the payload of a block.
+   *
+   * @param data
+   *          the whole file
+   * @param tag
+   *          the tag of the block
+   * @return the payload, positioned at its start, null if there is no trailer or
+   *         no block with the tag
+   */
+  public static ByteBuffer getBlock(ByteBuffer data, int tag) {
+    int position = start(data);
+    if (position < 0) {
+      return null;
+    }
+
+    int end = data.limit() - FOOTER;
+    while (position + BLOCK_HEADER <= end) {
+      int blockTag = data.getInt(position);
+      int length = data.getInt(position + 4);
+      position += BLOCK_HEADER;
+      if (length < 0 || length > end - position) {
+        return null;
+      }
+      if (blockTag == tag) {
+        return data.duplicate().position(position).limit(position + length).slice();
+      }
+      position += length;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the payload of every block by tag, without reading the payloads.
+   * Only the first block with a tag is kept, like getBlock(), and the walk stops
+   * at a block whose length does not fit.
+   *
+   * @param data
+   *          the whole file
+   * @return the payloads in file order, empty if there is no trailer
+   */
+  public static LinkedHashMap<Integer, ByteBuffer> getBlocks(ByteBuffer data) {
+    LinkedHashMap<Integer, ByteBuffer> blocks = new LinkedHashMap<>();
+    int position = start(data);
+    if (position < 0) {
+      return blocks;
+    }
+
+    int end = data.limit() - FOOTER;
+    while (position + BLOCK_HEADER <= end) {
+      int tag = data.getInt(position);
+      int length = data.getInt(position + 4);
+      position += BLOCK_HEADER;
+      if (length < 0 || length > end - position) {
+        break;
+      }
+      blocks.putIfAbsent(tag, data.slice(position, length));
+      position += length;
+    }
+    return blocks;
+  }
+
+  /**
+   * Returns the blocks of a file that this version does not read, copied out of
+   * the file so they can be written back when the game is saved again.
+   *
+   * @param data
+   *          the whole file
+   * @return the payloads by tag in file order, empty if every block is known
+   */
+  public static LinkedHashMap<Integer, ByteBuffer> getUnknownBlocks(ByteBuffer data) {
+    LinkedHashMap<Integer, ByteBuffer> unknown = new LinkedHashMap<>();
+    getBlocks(data).forEach((tag, payload) -> {
+      if (!isKnown(tag)) {
+        ByteBuffer copy = ByteBuffer.allocate(payload.limit()).put(payload.duplicate());
+        unknown.put(tag, copy.flip().asReadOnlyBuffer());
+      }
+    });
+    return unknown;
+  }
+
+  /**
+   * Returns the blocks that may be written back after the tiles were moved.
+   *
+   * @param blocks
+   *          the payloads by tag
+   * @return the payloads of the blocks that are safe to copy, in the same order
+   */
+  public static LinkedHashMap<Integer, ByteBuffer> getSafeToCopy(
+      Map<Integer, ByteBuffer> blocks) {
+    LinkedHashMap<Integer, ByteBuffer> safe = new LinkedHashMap<>();
+    blocks.forEach((tag, payload) -> {
+      if ((tag & SAFE_TO_COPY) != 0) {
+        safe.put(tag, payload);
+      }
+    });
+    return safe;
+  }
+
+  /**
+   * Returns true for the tags FileWriter writes itself.
+   *
+   * @param tag
+   *          the tag of a block
+   * @return true if the block is read and written by this version
+   */
+  public static boolean isKnown(int tag) {
+    return tag == CHECKSUMS || tag == SEED || tag == MOVES;
+  }
+
+  /**
+   * Returns where the trailer starts, which is also where the tiles end.
+   *
+   * @param data
+   *          the whole file
+   * @return the offset of the first block, -1 if there is no trailer
+   */
+  public static int start(ByteBuffer data) {
+    int length = data.limit();
+    if (length < 16 + FOOTER || data.getInt(length - 4) != MAGIC) {
+      return -1;
+    }
+
+    int blocks = data.getInt(length - FOOTER);
+    if (blocks < 0 || blocks > length - 16 - FOOTER) {
+      return -1;
+    }
+    return length - FOOTER - blocks;
+  }
+}
@@ -0,0 +1,181 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A second player that helps solve the board on screen. The partner works on
+ * the shared board model from a thread of its own, the same way a player on
+ * another computer would, and its changes are shown on the board as they land.
+ *
+ * <p>It works from the last tile back, turning every tile upright and moving
+ * it home, and moves any tile in the way to a free side cell. When the person
+ * at this computer changes the same cell or tile at the same moment, the model
+ * decides who wins and the partner tries again on its next turn.
+ *
+ * <p>The partner leaves when the board is solved, or when tiles are dealt,
+ * loaded, reset or solved and the model it was working on is replaced.
+ *
+ * @author James Fantin
+ */
+public final class Partner implements Runnable {
+
+  /**
+   * Player number of the partner in the board model.
+   */
+  public static final int PLAYER = 1;
+
+  /**
+   * Time between changes in nanoseconds, slow enough to watch.
+   */
+  private static final long PAUSE = 300_000_000L;
+
+  /**
+   * The partner playing now, null if there is none. Only used on the event
+   * thread.
+   */
+  private static Partner current;
+
+  /**
+   * The model the partner works on.
+   */
+  private final BoardModel model;
+
+  /**
+   * The cell every tile belongs in, -1 if it has none.
+   */
+  private final int[] homes;
+
+  /**
+   * True for the cells that are some tile's home.
+   */
+  private final boolean[] isHome;
+
+  /**
+   * Set to make the partner leave.
+   */
+  private volatile boolean stopped;
+
+  /**
+   * Creates a partner.
+   *
+   * @param model
+   *          the model to work on
+   * @param homes
+   *          the cell every tile belongs in, -1 if it has none
+   */
+  private Partner(BoardModel model, int[] homes) {
+    this.model = model;
+    this.homes = homes;
+    isHome = new boolean[model.getCells()];
+    for (int home : homes) {
+      if (home >= 0) {
+        isHome[home] = true;
+      }
+    }
+  }
+
+  /**
+   * Starts a partner on the board on screen, or sends the one playing away.
+   * Called on the event thread.
+   *
+   * @return true if a partner started, false if one left or there is no board
+   *         to play on
+   */
+  public static boolean toggle() {
+    if (isPlaying()) {
+      current.stopped = true;
+      current = null;
+      return false;
+    }
+
+    BoardModel model = TileController.getModel();
+    if (model == null) {
+      return false;
+    }
+    current = new Partner(model, TileController.getModelHomes());
+    Thread thread = new Thread(current, "partner");
+    thread.setDaemon(true);
+    thread.start();
+    return true;
+  }
+
+  /**
+   * Tells if a partner is playing. Called on the event thread.
+   *
+   * @return true if a partner is playing
+   */
+  public static boolean isPlaying() {
+    return current != null && !current.stopped;
+  }
+
+  /**
+   * Makes a change every pause until the board is solved or the model is
+   * replaced.
+   */
+  @Override
+  public void run() {
+    while (!stopped && TileController.getModel() == model) {
+      LockSupport.parkNanos(PAUSE);
+      if (stopped || TileController.getModel() != model || !step()) {
+        break;
+      }
+    }
+    stopped = true;
+  }
+
+  /**
+   * Makes one change to the model, rotating or moving the last tile that is
+   * not solved.
+   *
+   * @return false if every tile is solved
+   */
+  private boolean step() {
+    for (int t = homes.length - 1; t >= 0; t--) {
+      int home = homes[t];
+      if (home < 0) {
+        continue;
+      }
+      if (model.getRotation(t) != 0) {
+        model.rotate(PLAYER, t);
+        return true;
+      }
+
+      int from = model.getLocation(t);
+      if (from == home) {
+        continue;
+      }
+
+      // Move whoever is in the way first, a rejected move is tried again
+      int other = model.getOccupant(home);
+      if (other < 0) {
+        model.move(PLAYER, t, from, home);
+      } else if (other != t) {
+        int free = freeCell(home);
+        if (free >= 0) {
+          model.move(PLAYER, other, home, free);
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Finds an empty cell to move a tile out of the way to, preferring cells
+   * that are nobody's home.
+   *
+   * @param skip
+   *          the cell that is being cleared
+   * @return the cell, -1 if every cell is full
+   */
+  private int freeCell(int skip) {
+    int free = -1;
+    for (int c = 0; c < isHome.length; c++) {
+      if (c != skip && model.getOccupant(c) < 0) {
+        if (!isHome[c]) {
+          return c;
+        }
+        free = free < 0 ? c : free;
+      }
+    }
+    return free;
+  }
+}
@@ -0,0 +1,353 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Several players solving the same deal side by side. Every player has a
+ * board model and a clock of their own, and every clock counts from one shared
+ * start signal. Moves made before the signal are refused.
+ *
+ * <p>A player's board has the tiles' side cells first and their home cells
+ * after them, so tile t belongs in cell tiles + t, like the board on screen.
+ * A player finishes when every tile is home and upright. The finish is timed
+ * on the thread that made the last move, so players whose moves are shown on
+ * different event queues are still compared fairly.
+ *
+ * @author James Fantin
+ */
+public final class Race {
+
+  /**
+   * Returned for a move made before the start signal.
+   */
+  public static final int EARLY = -1;
+
+  /**
+   * The deal every player starts from.
+   */
+  private final DealGenerator.Deal deal;
+
+  /**
+   * The board and clock of every player.
+   */
+  private final Lane[] lanes;
+
+  /**
+   * System.nanoTime() of the start signal.
+   */
+  private final long start;
+
+  /**
+   * The board and clock of one player.
+   */
+  public final class Lane implements BoardModel.Listener {
+
+    /**
+     * Player number, also used as the player in the board model.
+     */
+    private final int number;
+
+    /**
+     * The player's board.
+     */
+    private final BoardModel model;
+
+    /**
+     * The player's clock.
+     */
+    private final RaceClock clock;
+
+    /**
+     * True for every tile that is home and upright.
+     */
+    private final boolean[] placed;
+
+    /**
+     * Number of tiles that are home and upright.
+     */
+    private int count;
+
+    /**
+     * Deals the race's tiles onto a new board.
+     *
+     * @param number
+     *          the player number
+     */
+    private Lane(int number) {
+      this.number = number;
+      int[] positions = deal.getPositions();
+      int[] locations = new int[positions.length];
+      for (int j = 0; j < positions.length; j++) {
+        locations[positions[j]] = j;
+      }
+      model = new BoardModel(2 * positions.length, locations, deal.getRotations());
+      clock = new RaceClock(start);
+      placed = new boolean[positions.length];
+      model.setListener(this);
+    }
+
+    /**
+     * Returns the player's clock.
+     *
+     * @return the clock
+     */
+    public RaceClock getClock() {
+      return clock;
+    }
+
+    /**
+     * Returns the cell a tile belongs in.
+     *
+     * @param tile
+     *          the tile
+     * @return the home cell
+     */
+    public int getHome(int tile) {
+      return placed.length + tile;
+    }
+
+    /**
+     * Returns the player's board, to read from. Change it with move() and
+     * rotate() so moves before the start are refused.
+     *
+     * @return the board
+     */
+    public BoardModel getModel() {
+      return model;
+    }
+
+    /**
+     * Returns the player number.
+     *
+     * @return the number
+     */
+    public int getNumber() {
+      return number;
+    }
+
+    /**
+     * Moves a tile to an empty cell.
+     *
+     * @param tile
+     *          the tile
+     * @param from
+     *          the cell the player saw it in
+     * @param to
+     *          the cell to move it to
+     * @return BoardModel.MOVED, a reason it was rejected, or EARLY
+     */
+    public int move(int tile, int from, int to) {
+      if (!clock.isStarted() || clock.isFinished()) {
+        return EARLY;
+      }
+      return model.move(number, tile, from, to);
+    }
+
+    /**
+     * Rotates a tile a quarter turn clockwise.
+     *
+     * @param tile
+     *          the tile
+     * @return the new rotation, or EARLY
+     */
+    public int rotate(int tile) {
+      if (!clock.isStarted() || clock.isFinished()) {
+        return EARLY;
+      }
+      return model.rotate(number, tile);
+    }
+
+    /**
+     * Checks for a finish after a move.
+     *
+     * @param player
+     *          the player who moved
+     * @param tile
+     *          the tile
+     * @param from
+     *          the cell it left
+     * @param to
+     *          the cell it is now in
+     */
+    @Override
+    public void moved(int player, int tile, int from, int to) {
+      check(tile, System.nanoTime());
+    }
+
+    /**
+     * Checks for a finish after a rotation.
+     *
+     * @param player
+     *          the player who rotated
+     * @param tile
+     *          the tile
+     */
+    @Override
+    public void rotated(int player, int tile) {
+      check(tile, System.nanoTime());
+    }
+
+    /**
+     * Updates the count of placed tiles and stops the clock when every tile is
+     * placed. The tile is looked up again, so changes that overlap still end on
+     * the right count.
+     *
+     * @param tile
+     *          the tile that changed
+     * @param now
+     *          System.nanoTime() right after the change
+     */
+    private synchronized void check(int tile, long now) {
+      boolean home = model.getLocation(tile) == getHome(tile) && model.getRotation(tile) == 0;
+      if (home != placed[tile]) {
+        placed[tile] = home;
+        count += home ? 1 : -1;
+      }
+      if (count == placed.length) {
+        clock.finish(now);
+      }
+    }
+
+    /**
+     * Describes the player.
+     *
+     * @return the number and time
+     */
+    @Override
+    public String toString() {
+      return "player " + number + " " + clock + (clock.isFinished() ? "" : " (racing)");
+    }
+  }
+
+  /**
+   * Creates a race.
+   *
+   * @param deal
+   *          the deal every player starts from
+   * @param players
+   *          the number of players
+   * @param delay
+   *          nanoseconds from now to the start signal
+   */
+  public Race(DealGenerator.Deal deal, int players, long delay) {
+    this.deal = deal;
+    start = System.nanoTime() + delay;
+    lanes = new Lane[players];
+    for (int p = 0; p < players; p++) {
+      lanes[p] = new Lane(p);
+    }
+  }
+
+  /**
+   * Waits for the start signal.
+   *
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   */
+  public void awaitStart() throws InterruptedException {
+    long left;
+    while ((left = start - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(left);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Returns the deal every player starts from.
+   *
+   * @return the deal
+   */
+  public DealGenerator.Deal getDeal() {
+    return deal;
+  }
+
+  /**
+   * Returns the board and clock of a player.
+   *
+   * @param player
+   *          the player number
+   * @return the lane
+   */
+  public Lane getLane(int player) {
+    return lanes[player];
+  }
+
+  /**
+   * Returns the number of players.
+   *
+   * @return the players
+   */
+  public int getPlayers() {
+    return lanes.length;
+  }
+
+  /**
+   * Returns the players who have finished, fastest first, then the rest.
+   *
+   * @return the lanes in finishing order
+   */
+  public List<Lane> getStandings() {
+    List<Lane> standings = new ArrayList<>(List.of(lanes));
+    standings.sort(Comparator.comparing((Lane lane) -> !lane.clock.isFinished())
+        .thenComparingLong(lane -> lane.clock.getElapsed()));
+    return standings;
+  }
+
+  /**
+   * Races players that move tiles home one after another with a short random
+   * pause before every change, and prints the standings.
+   *
+   * @param args
+   *          the number of tiles, the number of players and the deal seed, 16,
+   *          4 and 1 if not given
+   * @throws InterruptedException
+   *           if interrupted while waiting for the players
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int players = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+    Race race = new Race(DealGenerator.uniform(tiles, seed), players, 50_000_000L);
+    Thread[] threads = new Thread[players];
+    for (int p = 0; p < players; p++) {
+      final Lane lane = race.getLane(p);
+      threads[p] = new Thread(() -> {
+        SplittableRandom random = new SplittableRandom(lane.getNumber());
+        int[] order = new int[tiles];
+        for (int t = 0; t < tiles; t++) {
+          order[t] = t;
+        }
+        TileController.shuffle(order, random);
+
+        try {
+          race.awaitStart();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int tile : order) {
+          while (lane.getModel().getRotation(tile) != 0) {
+            LockSupport.parkNanos(50_000 + random.nextInt(100_000));
+            lane.rotate(tile);
+          }
+          LockSupport.parkNanos(50_000 + random.nextInt(100_000));
+          lane.move(tile, lane.getModel().getLocation(tile), lane.getHome(tile));
+        }
+      }, "racer-" + p);
+      threads[p].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    System.out.println(race.getDeal());
+    int place = 1;
+    for (Lane lane : race.getStandings()) {
+      System.out.printf("%d. %s (%.3f ms)%n", place++, lane, lane.getClock().getElapsed() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The clock of one player in a race. Every clock in a race counts from the
+ * same System.nanoTime() start signal, and the finish is taken on the thread
+ * that made the winning move, so no event queue delay gets into the times.
+ *
+ * @author James Fantin
+ */
+public final class RaceClock {
+
+  /**
+   * System.nanoTime() of the start signal.
+   */
+  private final long start;
+
+  /**
+   * System.nanoTime() of the finish, Long.MIN_VALUE while racing.
+   */
+  private final AtomicLong finish = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * Creates a clock.
+   *
+   * @param start
+   *          System.nanoTime() of the start signal, shared by every player
+   */
+  public RaceClock(long start) {
+    this.start = start;
+  }
+
+  /**
+   * Formats a time as minutes, seconds and milliseconds.
+   *
+   * @param nanos
+   *          the time in nanoseconds
+   * @return the time as mm:ss.SSS
+   */
+  public static String format(long nanos) {
+    long millis = nanos / 1_000_000L;
+    return String.format("%02d:%02d.%03d", millis / 60000, millis / 1000 % 60, millis % 1000);
+  }
+
+  /**
+   * Stops the clock. Only the first call counts.
+   *
+   * @param now
+   *          System.nanoTime() when the player finished
+   * @return true if this call stopped the clock
+   */
+  public boolean finish(long now) {
+    return finish.compareAndSet(Long.MIN_VALUE, now);
+  }
+
+  /**
+   * Returns the time from the start signal to the finish, or to now while
+   * racing.
+   *
+   * @return the time in nanoseconds, 0 before the start signal
+   */
+  public long getElapsed() {
+    long end = finish.get();
+    if (end == Long.MIN_VALUE) {
+      end = System.nanoTime();
+    }
+    return Math.max(0, end - start);
+  }
+
+  /**
+   * Returns the start signal.
+   *
+   * @return System.nanoTime() of the start
+   */
+  public long getStart() {
+    return start;
+  }
+
+  /**
+   * Returns true once the player has finished.
+   *
+   * @return true if finished
+   */
+  public boolean isFinished() {
+    return finish.get() != Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns true once the start signal has passed.
+   *
+   * @return true if the race has started
+   */
+  public boolean isStarted() {
+    return System.nanoTime() - start >= 0;
+  }
+
+  /**
+   * Describes the clock.
+   *
+   * @return the elapsed time
+   */
+  @Override
+  public String toString() {
+    return format(getElapsed());
+  }
+}
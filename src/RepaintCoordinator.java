@@ -0,0 +1,135 @@
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Rectangle;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/**
+ * Batches the layout and repaint work caused by a single user action. Every
+ * action (a move, a rotate, a reset or a solve) is wrapped in begin() and end().
+ * Components changed in between are only marked, and end() issues one layout
+ * pass and one repaint of the union of the marked areas.
+ *
+ * @author James Fantin
+ */
+public final class RepaintCoordinator {
+
+  /**
+   * The component that all dirty areas are collected relative to.
+   */
+  private static JComponent root;
+
+  /**
+   * How many begin() calls have not been matched by end() yet.
+   */
+  private static int depth;
+
+  /**
+   * Union of the dirty areas in root coordinates, null if nothing is dirty.
+   */
+  private static Rectangle dirty;
+
+  /**
+   * True if a marked container needs to be laid out again.
+   */
+  private static boolean layout;
+
+  /**
+   * Not instantiable, all state is shared by the whole window.
+   */
+  private RepaintCoordinator() {
+  }
+
+  /**
+   * Starts a batch. Batches may be nested, only the outermost end() flushes.
+   * Call end() in a finally block, a batch left open stops every later flush.
+   */
+  public static void begin() {
+    depth++;
+  }
+
+  /**
+   * Ends a batch. If it is the outermost batch, lays out the invalid containers
+   * once and repaints the union of the dirty areas.
+   */
+  public static void end() {
+    if (depth > 0) {
+      depth--;
+    }
+    if (depth == 0) {
+      flush();
+    }
+  }
+
+  /**
+   * Marks the area covered by a component as needing to be repainted.
+   *
+   * @param c
+   *          the component that changed
+   */
+  public static void markDirty(Component c) {
+    if (c == null || root == null || c.getParent() == null) {
+      return;
+    }
+
+    Rectangle area = SwingUtilities.convertRectangle(c.getParent(), c.getBounds(), root);
+    if (dirty == null) {
+      dirty = area;
+    } else {
+      dirty.add(area);
+    }
+
+    // Outside of a batch, flush right away
+    if (depth == 0) {
+      flush();
+    }
+  }
+
+  /**
+   * Marks a container whose children changed. It is laid out again and
+   * repainted when the batch ends.
+   *
+   * @param c
+   *          the container that changed
+   */
+  public static void markLayout(Container c) {
+    if (c == null) {
+      return;
+    }
+    c.invalidate();
+    layout = true;
+    markDirty(c);
+  }
+
+  /**
+   * Sets the component that the dirty areas are collected relative to. Must be
+   * an ancestor of every component that is marked.
+   *
+   * @param component
+   *          the root component
+   */
+  public static void setRoot(JComponent component) {
+    root = component;
+    dirty = null;
+    layout = false;
+  }
+
+  /**
+   * Issues the pending layout pass and repaint. The repaint manager validates
+   * before it paints, so both happen in the same cycle.
+   */
+  private static void flush() {
+    if (root == null) {
+      return;
+    }
+    if (layout) {
+      root.revalidate();
+      layout = false;
+    }
+    if (dirty != null) {
+      root.repaint(dirty);
+      dirty = null;
+    }
+  }
+}
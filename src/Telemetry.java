@@ -0,0 +1,463 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records where time goes while loading, building, moving, painting and saving.
+ * Every measurement is committed as a Java Flight Recorder event and added to a
+ * latency histogram that can be dumped to a file.
+ *
+ * <p>Instrumentation is off unless the program is started with
+ * -Dmaze.telemetry=true. The flag is a static final constant, so when it is off
+ * every instrumented call site compiles down to nothing. If -Dmaze.telemetry.file
+ * is also set, the histograms are dumped to that file on exit.
+ *
+ * @author James Fantin
+ */
+public final class Telemetry {
+
+  /**
+   * True if instrumentation is turned on.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("maze.telemetry");
+
+  /**
+   * Metric for loading a file from the load dialog.
+   */
+  public static final int LOAD = 0;
+
+  /**
+   * Metric for decoding the bytes of a file into lines.
+   */
+  public static final int PARSE = 1;
+
+  /**
+   * Metric for creating the tiles of a board.
+   */
+  public static final int BUILD = 2;
+
+  /**
+   * Metric for handling a mouse press or a drag and drop on the board, not
+   * counting the win check and its dialogs.
+   */
+  public static final int MOVE = 3;
+
+  /**
+   * Metric for painting a single tile.
+   */
+  public static final int PAINT = 4;
+
+  /**
+   * Metric for saving a file.
+   */
+  public static final int SAVE = 5;
+
+  /**
+   * Names of the metrics, in the order of the constants above.
+   */
+  private static final String[] NAMES = { "load", "parse", "build", "move", "paint", "save" };
+
+  /**
+   * Latency histogram of every metric.
+   */
+  private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[NAMES.length];
+
+  static {
+    for (int i = 0; i < HISTOGRAMS.length; i++) {
+      HISTOGRAMS[i] = new LatencyHistogram();
+    }
+
+    String file = System.getProperty("maze.telemetry.file");
+    if (ENABLED && file != null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          dump(new File(file));
+        } catch (IOException e) {
+          // Nothing left to report the error to
+        }
+      }));
+    }
+  }
+
+  /**
+   * Event for a file loaded from the load dialog.
+   */
+  @Name("maze.Load")
+  @Label("Load Maze")
+  @Category("Maze")
+  static final class LoadEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("File Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Event for decoding the bytes of a file.
+   */
+  @Name("maze.Parse")
+  @Label("Parse Maze")
+  @Category("Maze")
+  static final class ParseEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("File Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Event for creating the tiles of a board.
+   */
+  @Name("maze.Build")
+  @Label("Build Tiles")
+  @Category("Maze")
+  static final class BuildEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Played")
+    boolean played;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Event for a mouse press or a drag and drop on the board.
+   */
+  @Name("maze.Move")
+  @Label("Move Tile")
+  @Category("Maze")
+  static final class MoveEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("Button")
+    int button;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Event for painting a single tile.
+   */
+  @Name("maze.Paint")
+  @Label("Paint Tile")
+  @Category("Maze")
+  static final class PaintEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("Lines")
+    int lines;
+  }
+
+  /**
+   * Event for a saved file.
+   */
+  @Name("maze.Save")
+  @Label("Save Maze")
+  @Category("Maze")
+  static final class SaveEvent extends Event {
+    @Label("Elapsed")
+    @Timespan
+    long elapsed;
+
+    @Label("File Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * Holds the thread bean, only loaded once instrumentation asks for it.
+   */
+  private static final class Allocation {
+    /**
+     * The bean that counts allocated bytes per thread, null if not supported.
+     */
+    private static final com.sun.management.ThreadMXBean BEAN = bean();
+
+    /**
+     * Gets the thread bean if it can count allocated bytes.
+     *
+     * @return the bean, null if not supported
+     */
+    private static com.sun.management.ThreadMXBean bean() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (sunBean.isThreadAllocatedMemorySupported()) {
+          sunBean.setThreadAllocatedMemoryEnabled(true);
+          return sunBean;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Not instantiable, all metrics are shared by the whole program.
+   */
+  private Telemetry() {
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread. Call before and
+   * after the work to measure and pass the first value to the record method.
+   *
+   * @return the allocated bytes, 0 if instrumentation is off or not supported
+   */
+  public static long allocatedBytes() {
+    if (!ENABLED || Allocation.BEAN == null) {
+      return 0;
+    }
+    return Allocation.BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread even when
+   * instrumentation is off, for tools that always measure like BatchSolver.
+   *
+   * @return the allocated bytes, -1 if not supported
+   */
+  public static long threadAllocatedBytes() {
+    if (Allocation.BEAN == null) {
+      return -1;
+    }
+    return Allocation.BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Writes a summary of every histogram to a file.
+   *
+   * @param file
+   *          the file to write to
+   * @throws IOException
+   *           IOException if the file can't be written
+   */
+  public static void dump(File file) throws IOException {
+    try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+      out.println("metric,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us");
+      for (int i = 0; i < NAMES.length; i++) {
+        LatencyHistogram h = HISTOGRAMS[i];
+        out.printf("%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f%n", NAMES[i], h.getCount(),
+            h.getMean() / 1e3, h.getPercentile(0.5) / 1e3, h.getPercentile(0.9) / 1e3,
+            h.getPercentile(0.99) / 1e3, h.getPercentile(0.999) / 1e3, h.getMax() / 1e3);
+      }
+    }
+  }
+
+  /**
+   * Returns the histogram of a metric.
+   *
+   * @param metric
+   *          one of the metric constants
+   * @return the histogram
+   */
+  public static LatencyHistogram getHistogram(int metric) {
+    return HISTOGRAMS[metric];
+  }
+
+  /**
+   * Returns the current time to measure from.
+   *
+   * @return the time in nanoseconds, 0 if instrumentation is off
+   */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Records the creation of the tiles of a board.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param allocated
+   *          the value returned by allocatedBytes() before the work
+   * @param tiles
+   *          the number of tiles created
+   * @param played
+   *          true if the board was a played game
+   */
+  public static void recordBuild(long start, long allocated, int tiles, boolean played) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[BUILD].record(duration);
+
+    BuildEvent event = new BuildEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.tiles = tiles;
+      event.played = played;
+      event.allocated = allocatedBytes() - allocated;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records a file loaded from the load dialog.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param allocated
+   *          the value returned by allocatedBytes() before the work
+   * @param bytes
+   *          the size of the file
+   * @param tiles
+   *          the number of tiles loaded
+   */
+  public static void recordLoad(long start, long allocated, long bytes, int tiles) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[LOAD].record(duration);
+
+    LoadEvent event = new LoadEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.bytes = bytes;
+      event.tiles = tiles;
+      event.allocated = allocatedBytes() - allocated;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records a mouse press or a drag and drop on the board. Call before the win
+   * check, its dialogs wait for the player.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param allocated
+   *          the value returned by allocatedBytes() before the work
+   * @param button
+   *          the mouse button pressed or released
+   */
+  public static void recordMove(long start, long allocated, int button) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[MOVE].record(duration);
+
+    MoveEvent event = new MoveEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.button = button;
+      event.allocated = allocatedBytes() - allocated;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records painting a single tile. Allocation is not counted here, painting
+   * happens too often for the extra call to be worth it.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param lines
+   *          the number of lines drawn
+   */
+  public static void recordPaint(long start, int lines) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[PAINT].record(duration);
+
+    PaintEvent event = new PaintEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.lines = lines;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records decoding the bytes of a file.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param allocated
+   *          the value returned by allocatedBytes() before the work
+   * @param bytes
+   *          the number of bytes decoded
+   * @param tiles
+   *          the number of tiles decoded
+   */
+  public static void recordParse(long start, long allocated, long bytes, int tiles) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[PARSE].record(duration);
+
+    ParseEvent event = new ParseEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.bytes = bytes;
+      event.tiles = tiles;
+      event.allocated = allocatedBytes() - allocated;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records a saved file.
+   *
+   * @param start
+   *          the value returned by start()
+   * @param allocated
+   *          the value returned by allocatedBytes() before the work
+   * @param bytes
+   *          the size of the file written
+   * @param tiles
+   *          the number of tiles written
+   */
+  public static void recordSave(long start, long allocated, long bytes, int tiles) {
+    long duration = System.nanoTime() - start;
+    HISTOGRAMS[SAVE].record(duration);
+
+    SaveEvent event = new SaveEvent();
+    if (event.shouldCommit()) {
+      event.elapsed = duration;
+      event.bytes = bytes;
+      event.tiles = tiles;
+      event.allocated = allocatedBytes() - allocated;
+      event.commit();
+    }
+  }
+}
@@ -1,11 +1,10 @@
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.ArrayList;
+import java.awt.image.BufferedImage;
 import java.util.List;
 
 import javax.swing.JLabel;
@@ -25,6 +24,11 @@ public class Tile extends JLabel implements ActionListener {
    */
   private static final long serialVersionUID = 1L;
 
+  /**
+   * Default purple-ish background color of a tile.
+   */
+  private static final Color BACKGROUND = new Color(177, 59, 253);
+
   /**
    * Initial cell place.
    */
@@ -46,14 +50,9 @@ public class Tile extends JLabel implements ActionListener {
   private int homeRotation;
 
   /**
-   * List of points for line drawing.
+   * The lines of the tile, shared with every tile that has the same lines.
    */
-  private List<Float> points;
-
-  /**
-   * Stores the original points without any rotations.
-   */
-  private List<Float> originalPoints;
+  private final TileShape shape;
 
   /**
    * size in pixels of the tile. (tile is a square)
@@ -61,10 +60,21 @@ public class Tile extends JLabel implements ActionListener {
   private int size;
 
   /**
-   * Timer that waits to display a warning.
+   * Timer that waits to display a warning, created when first needed.
    */
   private Timer timer;
 
+  /**
+   * Quarter turns the tile is still drawn behind its rotation while it animates.
+   */
+  private double turn;
+
+  /**
+   * True while the animator draws the tile flying to its cell. The tile is
+   * already in the cell and draws nothing there until it lands.
+   */
+  private boolean flying;
+
   /**
    * Creates a tile object that extends JLabel. This will hold the actual maze
    * tile to be dragged in the game. This constructor is used for creating a Tile
@@ -80,35 +90,8 @@ public class Tile extends JLabel implements ActionListener {
    *          The number of times to rotate the tile
    */
   public Tile(Cell homeCell, int tileSize, List<Float> points, int rotations) {
-    this.homeCell = homeCell;
-    currentCell = homeCell;
-    this.points = points;
-
-    // Store the original points without rotations
-    originalPoints = new ArrayList<>();
-    for (int i = 0; i < points.size(); i++) {
-      originalPoints.add(points.get(i));
-    }
-    size = tileSize;
-    homeRotation = rotations;
-
-    // Set dimension to be 80 x 80 (pixels)
-    setPreferredSize(new Dimension(size, size));
-
-    // Set purple-ish background color
-    setBackground(new Color(177, 59, 253));
-
-    setOpaque(true);
-
-    // Create the timer that displays a warning
-    timer = new Timer(500, this);
-
-    // Must set repeats to false so the delay is the same everytime
-    timer.setRepeats(false);
-
-    for (int i = 0; i < rotations; ++i) {
-      rotate();
-    }
+    // Tiles with the same lines share one shape
+    this(homeCell, tileSize, TileShape.intern(points), rotations);
   }
 
   /**
@@ -124,33 +107,37 @@ public class Tile extends JLabel implements ActionListener {
    *          The number of times to rotate the tile
    */
   public Tile(int tileSize, List<Float> points, int rotations) {
-    this.points = points;
+    this(null, tileSize, TileShape.intern(points), rotations);
+  }
 
-    // Store the original points without rotations
-    originalPoints = new ArrayList<>();
-    for (int i = 0; i < points.size(); i++) {
-      originalPoints.add(points.get(i));
-    }
+  /**
+   * Creates a tile from a shape that is already interned, so nothing but the
+   * component itself is built. The home cell is null for a new game.
+   * 
+   * @param homeCell
+   *          The Home location for the tile, null if not placed yet
+   * @param tileSize
+   *          The number of pixels in the tile
+   * @param shape
+   *          The lines of the tile
+   * @param rotations
+   *          The number of times to rotate the tile
+   */
+  public Tile(Cell homeCell, int tileSize, TileShape shape, int rotations) {
+    this.homeCell = homeCell;
+    currentCell = homeCell;
+    this.shape = shape;
     size = tileSize;
     homeRotation = rotations;
+    this.rotations = rotations;
 
     // Set dimension to be 80 x 80 (pixels)
     setPreferredSize(new Dimension(size, size));
 
     // Set purple-ish background color
-    setBackground(new Color(177, 59, 253));
+    setBackground(BACKGROUND);
 
     setOpaque(true);
-
-    // Create the timer that displays a warning
-    timer = new Timer(500, this);
-
-    // Must set repeats to false so the delay is the same everytime
-    timer.setRepeats(false);
-
-    for (int i = 0; i < rotations; ++i) {
-      rotate();
-    }
   }
 
   /**
@@ -159,7 +146,15 @@ public class Tile extends JLabel implements ActionListener {
    */
   @Override
   public void actionPerformed(ActionEvent e) {
-    setBackground(new Color(177, 59, 253));
+    setBackground(BACKGROUND);
+  }
+
+  /**
+   * Changes background color of tile for half a second. Used to point out the
+   * tile suggested by a hint.
+   */
+  public void displayHint() {
+    flash(Color.orange);
   }
 
   /**
@@ -167,27 +162,25 @@ public class Tile extends JLabel implements ActionListener {
    * the user drags a tile on top of another tile.
    */
   public void displayWarning() {
-    setBackground(Color.red);
-    timer.start();
+    flash(Color.red);
   }
 
   /**
-   * Draws a single line.
+   * Changes the background color for half a second. The timer is only created
+   * the first time, most tiles never flash.
    * 
-   * @param g2
-   *          for rendering 2-dimensional shapes
-   * @param x1
-   *          starting coordinate
-   * @param y1
-   *          starting coordinate
-   * @param x2
-   *          ending coordinate
-   * @param y2
-   *          ending coordinate
-   */
-  private void drawLine(Graphics2D g2, int x1, int y1, int x2, int y2) {
-    g2.setStroke(new BasicStroke(3));
-    g2.drawLine(x1, y1, x2, y2);
+   * @param color
+   *          the color to show
+   */
+  private void flash(Color color) {
+    if (timer == null) {
+      timer = new Timer(500, this);
+
+      // Must set repeats to false so the delay is the same everytime
+      timer.setRepeats(false);
+    }
+    setBackground(color);
+    timer.start();
   }
 
   /**
@@ -218,21 +211,70 @@ public class Tile extends JLabel implements ActionListener {
   }
 
   /**
-   * Returns the original points with no rotations.
+   * Returns the original points with no rotations. Must not be changed.
+   * 
+   * @return array of points with no rotations, four values per line
+   */
+  public float[] getOriginalPoints() {
+    return shape.getPoints(0);
+  }
+
+  /**
+   * Returns the points at the current rotation. Must not be changed.
+   * 
+   * @return array of points, four values per line
+   */
+  public float[] getPoints() {
+    return shape.getPoints(rotations);
+  }
+
+  /**
+   * Returns the shared lines of the tile.
+   * 
+   * @return the shape of the tile
+   */
+  public TileShape getShape() {
+    return shape;
+  }
+
+  /**
+   * Returns an image of the tile in its default colors at its size on screen.
+   * The image is shared by every tile with the same lines and rotation, and is
+   * only drawn again when the size changes.
+   * 
+   * @return image of the tile
+   */
+  public BufferedImage getSprite() {
+    int width = getWidth() > 0 ? getWidth() : size;
+    return shape.getSprite(rotations, width, BACKGROUND);
+  }
+
+  /**
+   * Returns the quarter turns the tile is still drawn behind its rotation.
    * 
-   * @return List of points with no rotations
+   * @return the turns left to animate, 0 if the tile is not animating
    */
-  public List<Float> getOriginalPoints() {
-    return originalPoints;
+  public double getTurn() {
+    return turn;
   }
 
   /**
-   * Returns list of points.
+   * Returns true while the tile is drawn flying to its cell.
    * 
-   * @return List of points
+   * @return true if the animator draws the tile
    */
-  public List<Float> getPoints() {
-    return points;
+  public boolean isFlying() {
+    return flying;
+  }
+
+  /**
+   * The tile is see through while it flies, so the cell under it is drawn.
+   * 
+   * @return true if the tile paints all of its pixels
+   */
+  @Override
+  public boolean isOpaque() {
+    return !flying && super.isOpaque();
   }
 
   /**
@@ -252,16 +294,29 @@ public class Tile extends JLabel implements ActionListener {
    */
   @Override
   public void paintComponent(Graphics g) {
+    if (flying) {
+      return;
+    }
+    long start = Telemetry.start();
     super.paintComponent(g);
-    g.setColor(Color.GREEN);
-
-    // Loop through each point and draw it
-    for (int i = 0; i < points.size(); i += 4) {
-      int x1 = points.get(i).intValue();
-      int y1 = points.get(i + 1).intValue();
-      int x2 = points.get(i + 2).intValue();
-      int y2 = points.get(i + 3).intValue();
-      drawLine((Graphics2D) g, x1, y1, x2, y2);
+
+    Graphics2D g2 = (Graphics2D) g.create();
+
+    // Draw the lines turned back by the turns left to animate
+    if (turn != 0) {
+      g2.rotate(-turn * Math.PI / 2, getWidth() / 2.0, getHeight() / 2.0);
+    }
+
+    // The points are in file units, scale them to the size on screen
+    int pixels = getWidth() > 0 ? getWidth() : size;
+    if (pixels != TileShape.UNITS) {
+      g2.scale((double) pixels / TileShape.UNITS, (double) pixels / TileShape.UNITS);
+    }
+    int lines = shape.draw(g2, rotations, pixels);
+    g2.dispose();
+
+    if (Telemetry.ENABLED) {
+      Telemetry.recordPaint(start, lines);
     }
   }
 
@@ -269,28 +324,15 @@ public class Tile extends JLabel implements ActionListener {
    * Removes the border.
    */
   public void removeBackground() {
-    setBackground(new Color(177, 59, 253));
+    setBackground(BACKGROUND);
   }
 
   /**
-   * rotates the lines on the tile by 90 degrees using matrix algebra. The points
-   * are first rotated 90 degrees: x' = y*sin(90) = -y y' = -x*sin(90) = x Then
-   * translated back into the first quadrant: x = x + size
+   * Rotates the tile by 90 degrees clockwise. The rotated lines are shared by
+   * every tile with the same shape, so only the count changes.
    */
   public void rotate() {
     rotations++;
-    float temp = 0; // temporarily stores the x value since we use is second.
-    // for every point
-    for (int i = 0; i < points.size(); i++) {
-      // for the x values
-      if (i % 2 == 0) {
-        temp = points.get(i); // store is so we can assign the x
-        points.add(i, (-1) * points.get(i + 1) + size); // x = -y + size
-      } else {
-        points.add(i, temp); // y = x
-      }
-      points.remove(i + 1); // since we are using a list we have to remove the old value.
-    }
   }
 
   /**
@@ -310,6 +352,27 @@ public class Tile extends JLabel implements ActionListener {
     this.currentCell = currentCell;
   }
 
+  /**
+   * Sets the quarter turns the tile is drawn behind its rotation. Used by the
+   * animator to turn the tile smoothly.
+   * 
+   * @param turn
+   *          the turns left to animate
+   */
+  public void setTurn(double turn) {
+    this.turn = turn;
+  }
+
+  /**
+   * Sets whether the tile is drawn flying to its cell by the animator.
+   * 
+   * @param flying
+   *          true while the animator draws the tile
+   */
+  public void setFlying(boolean flying) {
+    this.flying = flying;
+  }
+
   /**
    * Sets the home cell.
    * 
@@ -1,12 +1,23 @@
+import java.awt.Component;
 import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * This object is responsible for creating left and right JPanels that hold cell
@@ -19,6 +30,11 @@ import javax.swing.JPanel;
  */
 public class TileController {
 
+  /**
+   * Boards with at least this many tiles are prepared on every core.
+   */
+  private static final int PARALLEL_TILES = 256;
+
   /**
    * Cells on the sides.
    */
@@ -39,6 +55,72 @@ public class TileController {
    */
   private final JPanel rightTiles;
 
+  /**
+   * The board as numbers, shared with other players. Null if some tile has no
+   * cell.
+   */
+  private static volatile BoardModel model;
+
+  /**
+   * Side cells then grid cells, by model cell number.
+   */
+  private static Cell[] modelCells;
+
+  /**
+   * Model number of every cell.
+   */
+  private static IdentityHashMap<Cell, Integer> cellIndex;
+
+  /**
+   * Model number of every tile. Tiles are numbered in winning order, skipping
+   * tiles that were lost.
+   */
+  private static IdentityHashMap<Tile, Integer> tileIndex;
+
+  /**
+   * Tile of every model number.
+   */
+  private static Tile[] modelTiles;
+
+  /**
+   * Model number of the grid cell every model tile belongs in, -1 if the grid
+   * has no such cell.
+   */
+  private static int[] modelHomes;
+
+  /**
+   * Number of moves and rotations made on this computer since the tiles were
+   * dealt, loaded or reset.
+   */
+  private static int moves;
+
+  /**
+   * Seed the current deal was shuffled with, empty if it is not known.
+   */
+  private static OptionalLong seed = OptionalLong.empty();
+
+  /**
+   * Difficulty the current deal was made at, NaN for a uniform shuffle.
+   */
+  private static float difficulty = Float.NaN;
+
+  /**
+   * Blocks of the loaded file this version does not know, saved back with the
+   * game.
+   */
+  private static Map<Integer, ByteBuffer> unknownBlocks = Map.of();
+
+  /**
+   * Cell of every tile when the unknown blocks were read, to tell if the tiles
+   * were moved since. Null for a lost tile.
+   */
+  private static Cell[] loadedCells;
+
+  /**
+   * Rotation of every tile when the unknown blocks were read.
+   */
+  private static int[] loadedRotations;
+
   /**
    * Contains all of the tiles in a shuffled order.
    */
@@ -46,7 +128,9 @@ public class TileController {
 
   /**
    * Contains all of the tiles in the order that they are read in from the file.
-   * This corresponds with a winning tile order.
+   * This corresponds with a winning tile order, tile i belongs in grid cell i.
+   * A tile lost from a damaged file is null, so the tiles after it keep their
+   * place.
    */
   private static ArrayList<Tile> orderedTiles;
 
@@ -56,6 +140,14 @@ public class TileController {
   public static void clearTiles() {
     orderedTiles = null;
     shuffledTiles = null;
+    seed = OptionalLong.empty();
+    difficulty = Float.NaN;
+    unknownBlocks = Map.of();
+    HintIndex.clear();
+    if (model != null) {
+      model.setListener(null);
+    }
+    model = null;
   }
 
   /**
@@ -72,60 +164,480 @@ public class TileController {
    */
   public static void createNewTiles(int n, int tileSize, HashMap<Integer, Lines> data,
       int[] order) {
-    // Storage for points
-    List<Float> points;
+    createNewTiles(n, tileSize, data, order,
+        DealGenerator.uniform(order.length, new SplittableRandom().nextLong()));
+  }
 
-    // Get random rotations
-    List<Integer> randomRotations = new ArrayList<>(n);
-    for (int i = 0; i < n; i++) {
-      randomRotations.add(i % 4);
+  /**
+   * Adds tiles for a new game that has not been played, placed as a deal says.
+   * The same deal and tiles always give the same board.
+   * 
+   * @param n
+   *          the number of tiles
+   * @param tileSize
+   *          the size of the tiles in pixels
+   * @param data
+   *          the hash map of data containing all of the lines and rotations
+   * @param order
+   *          array that has the order the titles were read in
+   * @param deal
+   *          the deal, made for order.length tiles
+   */
+  public static void createNewTiles(int n, int tileSize, HashMap<Integer, Lines> data,
+      int[] order, DealGenerator.Deal deal) {
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
+
+    TileShape[] shapes = prepareShapes(data, order, deal.getRotations());
+    dealTiles(tileSize, shapes, deal);
+
+    if (Telemetry.ENABLED) {
+      Telemetry.recordBuild(start, allocated, orderedTiles.size(), false);
     }
+  }
 
-    // "Shuffle" the hash map (if played)
-    Collections.shuffle(randomRotations);
+  /**
+   * Deals the current tiles again as a new game. The old tiles must be removed
+   * from the board with TileMover.removeTiles() first.
+   * 
+   * @param tileSize
+   *          the size of the tiles in pixels
+   * @param shapes
+   *          the shapes of the tiles in winning order, from getShapes()
+   * @param deal
+   *          the deal, made for shapes.length tiles
+   */
+  public static void redealTiles(int tileSize, TileShape[] shapes, DealGenerator.Deal deal) {
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
 
-    // Initializes all of the tiles
-    orderedTiles = new ArrayList<>();
-    shuffledTiles = new ArrayList<>();
+    prepareShapes(shapes, deal.getRotations());
+    dealTiles(tileSize, shapes, deal);
 
-    // Create tiles
-    for (int i = 0; i < order.length; ++i) {
-      // Get the list of points for the tile and pass it to the tile
-      points = data.get(order[i]).getLines();
+    if (Telemetry.ENABLED) {
+      Telemetry.recordBuild(start, allocated, orderedTiles.size(), false);
+    }
+  }
+
+  /**
+   * Builds the tiles of a new game and places them in the side cells.
+   * 
+   * @param tileSize
+   *          the size of the tiles in pixels
+   * @param shapes
+   *          the shapes of the tiles in winning order
+   * @param deal
+   *          which tile goes in each side cell and the rotation of each tile
+   */
+  private static void dealTiles(int tileSize, TileShape[] shapes, DealGenerator.Deal deal) {
+    seed = OptionalLong.of(deal.getSeed());
+    difficulty = deal.getDifficulty();
+    int[] rotations = deal.getRotations();
+    int[] positions = deal.getPositions();
+
+    // Initializes all of the tiles
+    orderedTiles = new ArrayList<>(shapes.length);
+    shuffledTiles = new ArrayList<>(shapes.length);
 
-      Tile tile = new Tile(tileSize, points, randomRotations.get(i));
+    // Create tiles, a tile lost from a damaged file has no shape
+    for (int i = 0; i < shapes.length; ++i) {
+      Tile tile = shapes[i] == null ? null : new Tile(null, tileSize, shapes[i], rotations[i]);
 
       // Add tile to the array of tiles
       orderedTiles.add(tile);
     }
 
-    // Copy the values to the shuffled array
-    for (int j = 0; j < orderedTiles.size(); j++) {
-      shuffledTiles.add(orderedTiles.get(j));
+    // Put the tiles in the order they are placed in
+    for (int j = 0; j < positions.length; j++) {
+      if (orderedTiles.get(positions[j]) != null) {
+        shuffledTiles.add(orderedTiles.get(positions[j]));
+      }
     }
 
-    // Shuffle the order of the tiles so they are placed randomly
-    Collections.shuffle(shuffledTiles);
-
-    // Place all of the tiles in the cells
-    for (int j = 0; j < cells.length; j++) {
-      Tile tile = shuffledTiles.get(j);
-      Cell cell = cells[j];
+    // Place all of the tiles in the cells, the cell of a lost tile stays empty
+    RepaintCoordinator.begin();
+    try {
+      for (int j = 0; j < Math.min(cells.length, positions.length); j++) {
+        Tile tile = orderedTiles.get(positions[j]);
+        if (tile == null) {
+          continue;
+        }
+        Cell cell = cells[j];
 
-      tile.setCurrentCell(cell);
-      tile.setHomeCell(cell);
+        tile.setCurrentCell(cell);
+        tile.setHomeCell(cell);
 
-      cell.add(tile);
-      cell.removeBorder();
+        cell.add(tile);
+        cell.removeBorder();
+        RepaintCoordinator.markLayout(cell);
+      }
+    } finally {
+      RepaintCoordinator.end();
     }
+    HintIndex.rebuild();
+    rebuildModel();
+    moves = 0;
     clock.setTime(0);
     clock.repaint();
   }
 
+  /**
+   * Interns the shape of every tile and works out what it needs to be drawn at
+   * its starting rotation. None of this touches Swing, so large boards do it on
+   * every core and only the components are built on the event thread.
+   * 
+   * @param data
+   *          the hash map of data containing all of the lines and rotations
+   * @param order
+   *          array that has the order the titles were read in
+   * @param rotations
+   *          the starting rotation of every tile
+   * @return the shape of every tile, in the same order, null for a tile lost
+   *         from a damaged file
+   */
+  private static TileShape[] prepareShapes(HashMap<Integer, Lines> data, int[] order,
+      int[] rotations) {
+    TileShape[] shapes = new TileShape[order.length];
+    IntStream indexes = IntStream.range(0, order.length);
+    if (order.length >= PARALLEL_TILES) {
+      indexes = indexes.parallel();
+    }
+    indexes.forEach(i -> {
+      Lines lines = data.get(order[i]);
+      if (lines != null) {
+        shapes[i] = TileShape.intern(lines.getLines());
+        shapes[i].prepare(rotations[i]);
+      }
+    });
+    return shapes;
+  }
+
+  /**
+   * Works out what already interned shapes need to be drawn at new starting
+   * rotations, on every core for large boards.
+   * 
+   * @param shapes
+   *          the shape of every tile
+   * @param rotations
+   *          the starting rotation of every tile
+   */
+  private static void prepareShapes(TileShape[] shapes, int[] rotations) {
+    IntStream indexes = IntStream.range(0, shapes.length);
+    if (shapes.length >= PARALLEL_TILES) {
+      indexes = indexes.parallel();
+    }
+    indexes.forEach(i -> {
+      if (shapes[i] != null) {
+        shapes[i].prepare(rotations[i]);
+      }
+    });
+  }
+
+  /**
+   * Shuffles an array in place. Every order is equally likely.
+   * 
+   * @param array
+   *          the values to shuffle
+   * @param random
+   *          the source of randomness
+   */
+  public static void shuffle(int[] array, SplittableRandom random) {
+    for (int i = array.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = array[i];
+      array[i] = array[j];
+      array[j] = swap;
+    }
+  }
+
+  /**
+   * Gets the seed the current deal was shuffled with.
+   * 
+   * @return the seed, empty if the tiles were loaded from a played game that
+   *         did not record it
+   */
+  public static OptionalLong getSeed() {
+    return seed;
+  }
+
+  /**
+   * Gets the difficulty the current deal was made at.
+   * 
+   * @return the difficulty from 0 to 1, NaN for a uniform shuffle or if it is
+   *         not known
+   */
+  public static float getDifficulty() {
+    return difficulty;
+  }
+
+  /**
+   * Gets the shapes of the current tiles in winning order, so they can be dealt
+   * again.
+   * 
+   * @return the shapes, null if there are no tiles. The shape of a lost tile is
+   *         null
+   */
+  public static TileShape[] getShapes() {
+    if (orderedTiles == null) {
+      return null;
+    }
+    TileShape[] shapes = new TileShape[orderedTiles.size()];
+    for (int i = 0; i < shapes.length; i++) {
+      Tile tile = orderedTiles.get(i);
+      shapes[i] = tile == null ? null : tile.getShape();
+    }
+    return shapes;
+  }
+
+  /**
+   * Gets the number of moves and rotations made on this computer since the
+   * tiles were dealt, loaded or reset.
+   * 
+   * @return the moves
+   */
+  public static int getMoves() {
+    return moves;
+  }
+
+  /**
+   * Starts counting moves again, when the tiles are reset.
+   */
+  public static void resetMoves() {
+    moves = 0;
+  }
+
+  /**
+   * Restores what a saved game kept besides its tiles. Call after the tiles are
+   * loaded, the board as it is now is the one the blocks describe.
+   *
+   * @param savedMoves
+   *          the moves made before the game was saved
+   * @param blocks
+   *          the blocks of the file this version does not know
+   */
+  public static void restoreSaved(int savedMoves, Map<Integer, ByteBuffer> blocks) {
+    moves = savedMoves;
+    unknownBlocks = blocks;
+    int n = orderedTiles == null ? 0 : orderedTiles.size();
+    loadedCells = new Cell[n];
+    loadedRotations = new int[n];
+    for (int i = 0; i < n; i++) {
+      Tile tile = orderedTiles.get(i);
+      if (tile != null) {
+        loadedCells[i] = tile.getCurrentCell();
+        loadedRotations[i] = tile.getRotations() % 4;
+      }
+    }
+  }
+
+  /**
+   * Checks if any tile was moved or rotated since the saved game was restored.
+   * 
+   * @return true if the board is not the one the unknown blocks describe
+   */
+  private static boolean isMovedSinceLoad() {
+    int n = orderedTiles == null ? 0 : orderedTiles.size();
+    if (loadedCells == null || loadedCells.length != n) {
+      return true;
+    }
+    for (int i = 0; i < n; i++) {
+      Tile tile = orderedTiles.get(i);
+      if (tile != null && (tile.getCurrentCell() != loadedCells[i]
+          || tile.getRotations() % 4 != loadedRotations[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the shared model of the board, for other players to move tiles on.
+   * 
+   * @return the model, null if there is no board or some tile has no cell
+   */
+  public static BoardModel getModel() {
+    return model;
+  }
+
+  /**
+   * Gets the cell every tile of the shared model belongs in.
+   * 
+   * @return the model cell of every model tile, -1 if the grid has no cell for
+   *         it, a copy
+   */
+  public static int[] getModelHomes() {
+    return modelHomes.clone();
+  }
+
+  /**
+   * Makes a new shared model from the tiles on the board. Called after tiles are
+   * dealt, loaded, reset or solved, so other players have to get the new model.
+   */
+  public static void rebuildModel() {
+    if (model != null) {
+      model.setListener(null);
+    }
+    model = null;
+    if (orderedTiles == null) {
+      return;
+    }
+
+    Cell[] gridCells = GameGrid.getCells();
+    modelCells = new Cell[cells.length + gridCells.length];
+    cellIndex = new IdentityHashMap<>();
+    for (int c = 0; c < modelCells.length; c++) {
+      modelCells[c] = c < cells.length ? cells[c] : gridCells[c - cells.length];
+      cellIndex.put(modelCells[c], c);
+    }
+
+    tileIndex = new IdentityHashMap<>();
+    modelTiles = orderedTiles.stream().filter(Objects::nonNull).toArray(Tile[]::new);
+    modelHomes = new int[modelTiles.length];
+    int home = 0;
+    for (int i = 0; i < orderedTiles.size(); i++) {
+      if (orderedTiles.get(i) != null) {
+        modelHomes[home++] = i < gridCells.length ? cells.length + i : -1;
+      }
+    }
+    int[] locations = new int[modelTiles.length];
+    int[] rotations = new int[modelTiles.length];
+    for (int t = 0; t < locations.length; t++) {
+      Tile tile = modelTiles[t];
+      Integer cell = cellIndex.get(tile.getCurrentCell());
+      if (cell == null) {
+        return;
+      }
+      tileIndex.put(tile, t);
+      locations[t] = cell;
+      rotations[t] = tile.getRotations() % 4;
+    }
+
+    final BoardModel board = new BoardModel(modelCells.length, locations, rotations);
+    board.setListener(new BoardModel.Listener() {
+      @Override
+      public void moved(int player, int tile, int from, int to) {
+        if (player != BoardModel.LOCAL) {
+          SwingUtilities.invokeLater(() -> showRemote(board, tile));
+        }
+      }
+
+      @Override
+      public void rotated(int player, int tile) {
+        if (player != BoardModel.LOCAL) {
+          SwingUtilities.invokeLater(() -> showRemote(board, tile));
+        }
+      }
+    });
+    model = board;
+  }
+
+  /**
+   * Tells the shared model about a move made on this computer.
+   * 
+   * @param tile
+   *          the tile being moved
+   * @param from
+   *          the cell it is in
+   * @param to
+   *          the empty cell it is dropped on
+   * @return true if the tile may be moved, false if another player got there
+   *         first
+   */
+  public static boolean commitMove(Tile tile, Cell from, Cell to) {
+    if (model != null && model.move(BoardModel.LOCAL, tileIndex.get(tile), cellIndex.get(from),
+        cellIndex.get(to)) != BoardModel.MOVED) {
+      return false;
+    }
+    moves++;
+    return true;
+  }
+
+  /**
+   * Tells the shared model about a rotation made on this computer.
+   * 
+   * @param tile
+   *          the tile that was rotated
+   */
+  public static void commitRotate(Tile tile) {
+    moves++;
+    if (model != null) {
+      model.rotate(BoardModel.LOCAL, tileIndex.get(tile));
+    }
+  }
+
+  /**
+   * Moves and rotates a tile on screen to where another player put it in the
+   * model. Only the model's latest state is shown, so it does not matter in
+   * which order the changes arrive.
+   * 
+   * @param board
+   *          the model the change was made on
+   * @param t
+   *          the tile
+   */
+  private static void showRemote(BoardModel board, int t) {
+    if (board != model) {
+      return;
+    }
+    Animator.finishAll();
+    RepaintCoordinator.begin();
+    try {
+      showTile(t, 0);
+    } finally {
+      RepaintCoordinator.end();
+    }
+    GameGrid.victory();
+  }
+
+  /**
+   * Moves and rotates a tile on screen to match the model.
+   * 
+   * @param t
+   *          the tile
+   * @param depth
+   *          number of tiles already being moved out of the way
+   */
+  private static void showTile(int t, int depth) {
+    Tile tile = modelTiles[t];
+    Cell current = tile.getCurrentCell();
+    Cell target = modelCells[model.getLocation(t)];
+
+    int turns = 0;
+    while (tile.getRotations() % 4 != model.getRotation(t)) {
+      tile.rotate();
+      turns++;
+    }
+
+    if (current != target) {
+      // The tile shown in the target may already have left it in the model
+      if (target.getComponentCount() > 0 && depth < modelTiles.length) {
+        Component shown = target.getComponent(0);
+        if (shown instanceof Tile && tileIndex.containsKey(shown)) {
+          showTile(tileIndex.get(shown), depth + 1);
+        }
+      }
+
+      target.removeBorder();
+      target.add(tile);
+      tile.setCurrentCell(target);
+      if (current.getComponentCount() == 0) {
+        current.createBorder();
+      }
+      RepaintCoordinator.markLayout(current);
+      RepaintCoordinator.markLayout(target);
+      Animator.move(tile, current, target, turns);
+      HintIndex.update(tile, current);
+    } else if (turns > 0) {
+      Animator.rotate(tile, turns);
+      HintIndex.update(tile, current);
+    }
+  }
+
   /**
    * Gets the array list of ordered tiles.
    * 
-   * @return an array list of the tiles in the order read in
+   * @return an array list of the tiles in the order read in, tile i belongs in
+   *         grid cell i and is null if it was lost from a damaged file
    */
   public static ArrayList<Tile> getOrderedTiles() {
     return orderedTiles;
@@ -140,6 +652,81 @@ public class TileController {
     return shuffledTiles;
   }
 
+  /**
+   * Gets the tiles on the board in the order read in, for saving. The played
+   * flag and the time are taken when this is called. A lost tile is saved with
+   * the id FileReader.MISSING and no lines, so it keeps its place. Blocks of the
+   * file this version does not know are only kept if the tiles were not moved
+   * since it was read, or if they are safe to copy, see MazeTrailer.
+   *
+   * @return the tiles as a source for FileWriter
+   */
+  public static TileSource getTileSource() {
+    final List<Tile> tiles = orderedTiles == null ? new ArrayList<>() : orderedTiles;
+    final boolean played = isPlayed();
+    final long time = Clock.getTimeLong();
+    final OptionalLong dealSeed = seed;
+    final float dealDifficulty = difficulty;
+    final int movesMade = moves;
+    final Map<Integer, ByteBuffer> blocks = unknownBlocks.isEmpty() || !isMovedSinceLoad()
+        ? unknownBlocks : MazeTrailer.getSafeToCopy(unknownBlocks);
+
+    return new TileSource() {
+      @Override
+      public int size() {
+        return tiles.size();
+      }
+
+      @Override
+      public boolean isPlayed() {
+        return played;
+      }
+
+      @Override
+      public long getTime() {
+        return time;
+      }
+
+      @Override
+      public int getId(int tile) {
+        Tile t = tiles.get(tile);
+        return t == null ? FileReader.MISSING : t.getCurrentCell().getId();
+      }
+
+      @Override
+      public int getRotation(int tile) {
+        Tile t = tiles.get(tile);
+        return t == null ? 0 : t.getRotations() % 4;
+      }
+
+      @Override
+      public float[] getPoints(int tile) {
+        Tile t = tiles.get(tile);
+        return t == null ? new float[0] : t.getOriginalPoints();
+      }
+
+      @Override
+      public OptionalLong getSeed() {
+        return dealSeed;
+      }
+
+      @Override
+      public float getDifficulty() {
+        return dealDifficulty;
+      }
+
+      @Override
+      public int getMoves() {
+        return movesMade;
+      }
+
+      @Override
+      public Map<Integer, ByteBuffer> getUnknownBlocks() {
+        return blocks;
+      }
+    };
+  }
+
   /**
    * Checks to see if a game has been played or not.
    * 
@@ -172,47 +759,163 @@ public class TileController {
    *          array that has the order the titles were read in
    * @param time
    *          the played time to display
+   * @throws IOException
+   *           if a tile of a damaged file has no free cell left
    */
   public static void loadOldTiles(int n, int tileSize, HashMap<Integer, Lines> data, int[] order,
-      long time) {
-    // Storage for points
-    List<Float> points;
+      long time) throws IOException {
+    loadOldTiles(n, tileSize, data, order, time, OptionalLong.empty(), Float.NaN);
+  }
+
+  /**
+   * Adds tiles for a game that has been played.
+   * 
+   * @param n
+   *          the number of tiles
+   * @param tileSize
+   *          the size of the tiles in pixels
+   * @param data
+   *          the hash map of data containing all of the lines and rotations
+   * @param order
+   *          array that has the order the titles were read in
+   * @param time
+   *          the played time to display
+   * @param dealSeed
+   *          seed the game was dealt with, empty if the file did not record it
+   * @param dealDifficulty
+   *          difficulty the game was dealt at, NaN for a uniform shuffle
+   * @throws IOException
+   *           if a tile of a damaged file has no free cell left
+   */
+  public static void loadOldTiles(int n, int tileSize, HashMap<Integer, Lines> data, int[] order,
+      long time, OptionalLong dealSeed, float dealDifficulty) throws IOException {
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
 
     Cell[] gridCells = GameGrid.getCells();
 
+    int[] rotations = new int[order.length];
+    for (int i = 0; i < order.length; ++i) {
+      Lines lines = data.get(order[i]);
+      rotations[i] = lines == null ? 0 : lines.getRotations();
+    }
+    TileShape[] shapes = prepareShapes(data, order, rotations);
+
+    // Fails before the board is changed if a tile has nowhere to go
+    Cell[] places = findLoadedCells(order, shapes, gridCells);
+
+    seed = dealSeed;
+    difficulty = dealDifficulty;
+
     // Set the time
     Clock.stop();
 
-    // Initializes all of the tiles
-    orderedTiles = new ArrayList<>();
+    // Initializes all of the tiles, lost tiles stay null
+    orderedTiles = new ArrayList<>(Collections.nCopies(order.length, (Tile) null));
     shuffledTiles = new ArrayList<>();
 
-    // Init cell
-    Cell cell;
+    RepaintCoordinator.begin();
+    try {
+      for (int i = 0; i < order.length; ++i) {
+        if (places[i] != null) {
+          placeLoadedTile(i, places[i], tileSize, shapes[i], rotations[i]);
+        }
+      }
+    } finally {
+      RepaintCoordinator.end();
+    }
+    HintIndex.rebuild();
+    rebuildModel();
+    moves = 0;
+    clock.setTime(time);
+    clock.repaint();
 
+    if (Telemetry.ENABLED) {
+      Telemetry.recordBuild(start, allocated, shuffledTiles.size(), true);
+    }
+  }
+
+  /**
+   * Picks the cell every tile of a played game is loaded into, the one its id
+   * names. A tile whose cell was taken or does not exist, which only happens in
+   * a damaged file, goes in a free side cell, or in a free grid cell once the
+   * side is full.
+   *
+   * @param order
+   *          the id of every tile in winning order
+   * @param shapes
+   *          the shape of every tile, null for a lost tile
+   * @param gridCells
+   *          the cells of the game grid
+   * @return the cell of every tile, null for a lost tile
+   * @throws IOException
+   *           if a tile has no free cell left
+   */
+  private static Cell[] findLoadedCells(int[] order, TileShape[] shapes, Cell[] gridCells)
+      throws IOException {
+    Cell[] places = new Cell[order.length];
+    Set<Cell> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Integer> homeless = new ArrayList<>();
     for (int i = 0; i < order.length; ++i) {
-      // Get the list of points for the tile and pass it to the tile
-      points = data.get(order[i]).getLines();
+      if (shapes[i] == null) {
+        continue;
+      }
 
-      // Init cell
-      if (order[i] >= 16) {
+      Cell cell = null;
+      if (order[i] >= 16 && order[i] - 16 < gridCells.length) {
         cell = gridCells[order[i] - 16];
-      } else {
+      } else if (order[i] >= 0 && order[i] < cells.length) {
         cell = cells[order[i]];
       }
+      if (cell == null || !taken.add(cell)) {
+        homeless.add(i);
+      } else {
+        places[i] = cell;
+      }
+    }
 
-      // Initialize tile
-      Tile tile = new Tile(cell, tileSize, points, data.get(order[i]).getRotations());
+    // Side cells first, then the grid
+    int free = 0;
+    int total = cells.length + gridCells.length;
+    for (int i : homeless) {
+      while (free < total
+          && taken.contains(free < cells.length ? cells[free] : gridCells[free - cells.length])) {
+        free++;
+      }
+      if (free == total) {
+        throw new IOException("Error: No free cell for tile " + i);
+      }
+      places[i] = free < cells.length ? cells[free] : gridCells[free - cells.length];
+      taken.add(places[i]);
+    }
+    return places;
+  }
 
-      cell.add(tile);
-      cell.removeBorder();
+  /**
+   * Creates a tile of a played game in the cell it was loaded into.
+   *
+   * @param i
+   *          index of the tile in winning order
+   * @param cell
+   *          the empty cell to put it in
+   * @param tileSize
+   *          the size of the tile in pixels
+   * @param shape
+   *          the shape of the tile
+   * @param rotation
+   *          the rotation of the tile
+   */
+  private static void placeLoadedTile(int i, Cell cell, int tileSize, TileShape shape,
+      int rotation) {
+    Tile tile = new Tile(cell, tileSize, shape, rotation);
 
-      // Add tile to the array of tiles
-      orderedTiles.add(tile);
-      shuffledTiles.add(tile);
-    }
-    clock.setTime(time);
-    clock.repaint();
+    cell.add(tile);
+    cell.removeBorder();
+    RepaintCoordinator.markLayout(cell);
+
+    // Add tile to the array of tiles
+    orderedTiles.set(i, tile);
+    shuffledTiles.add(tile);
   }
 
   /**
@@ -254,10 +957,8 @@ public class TileController {
     leftTiles = new JPanel();
     rightTiles = new JPanel();
 
-    leftTiles.setPreferredSize(
-        new Dimension(tileSize + 6, tileSize * (n / 2) + (5 * (n / 2)) + 10 + tileSize));
-    rightTiles.setPreferredSize(
-        new Dimension(tileSize + 6, tileSize * (n / 2) + (5 * (n / 2)) + 10 + tileSize));
+    leftTiles.setPreferredSize(panelSize(n, tileSize));
+    rightTiles.setPreferredSize(panelSize(n, tileSize));
 
     // Makes the JPanel transparent
     leftTiles.setOpaque(false);
@@ -291,6 +992,46 @@ public class TileController {
     }
   }
 
+  /**
+   * Returns the size of a side panel.
+   * 
+   * @param n
+   *          the number of cells on both sides
+   * @param tileSize
+   *          size in pixels of the cells
+   * @return the preferred size of one side panel
+   */
+  private static Dimension panelSize(int n, int tileSize) {
+    return new Dimension(tileSize + 6, tileSize * (n / 2) + (5 * (n / 2)) + 10 + tileSize);
+  }
+
+  /**
+   * Resizes the cells on both sides and the spacing between them.
+   * 
+   * @param tileSize
+   *          size in pixels of the cells
+   */
+  public void setTileSize(int tileSize) {
+    for (Cell cell : cells) {
+      cell.setCellSize(tileSize);
+    }
+
+    for (JPanel panel : new JPanel[] { leftTiles, rightTiles }) {
+      panel.setPreferredSize(panelSize(cells.length, tileSize));
+
+      // The first spacer also leaves room around the cells
+      boolean first = true;
+      for (Component c : panel.getComponents()) {
+        if (c instanceof Box.Filler) {
+          Dimension gap = new Dimension(first ? tileSize + 6 : tileSize, 5);
+          ((Box.Filler) c).changeShape(gap, gap, gap);
+          first = false;
+        }
+      }
+      RepaintCoordinator.markLayout(panel);
+    }
+  }
+
   /**
    * Gets the left titles JPanel.
    * 
@@ -0,0 +1,150 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * The lines of a tile at several levels of detail. The renderer picks a level
+ * from the size of the tile on screen, so zoomed out boards draw far fewer
+ * lines. Every level is worked out once and then only read, so a detail can
+ * be shared between threads.
+ *
+ * <ul>
+ * <li>FULL draws every line as it was loaded.</li>
+ * <li>MERGED joins lines that lie on the same line and touch or overlap.</li>
+ * <li>COARSE also drops lines that would be shorter than a pixel.</li>
+ * <li>BITMAP draws one small image of the tile.</li>
+ * </ul>
+ *
+ * @author James Fantin
+ */
+public final class TileDetail {
+
+  /**
+   * Every line as it was loaded.
+   */
+  public static final int FULL = 0;
+
+  /**
+   * Touching and overlapping lines on the same line are joined.
+   */
+  public static final int MERGED = 1;
+
+  /**
+   * Joined lines without the ones shorter than a pixel.
+   */
+  public static final int COARSE = 2;
+
+  /**
+   * A single image of the tile.
+   */
+  public static final int BITMAP = 3;
+
+  /**
+   * Tiles at least this many pixels wide are drawn in full.
+   */
+  private static final int FULL_SIZE = 60;
+
+  /**
+   * Tiles at least this many pixels wide are drawn with merged lines.
+   */
+  private static final int MERGED_SIZE = 30;
+
+  /**
+   * Tiles at least this many pixels wide are drawn with coarse lines, smaller
+   * tiles are drawn as an image of this size.
+   */
+  private static final int COARSE_SIZE = 12;
+
+  /**
+   * The lines at the FULL, MERGED and COARSE levels, four values per line.
+   */
+  private final float[][] levels = new float[3][];
+
+  /**
+   * Size of the square the points are in.
+   */
+  private final int size;
+
+  /**
+   * The image used at the BITMAP level, drawn the first time it is needed.
+   */
+  private BufferedImage bitmap;
+
+  /**
+   * Works out every level of detail for a set of lines.
+   *
+   * @param points
+   *          the points of the lines, four values per line. Not copied, must
+   *          not be changed.
+   * @param size
+   *          size of the square the points are in
+   */
+  public TileDetail(float[] points, int size) {
+    this.size = size;
+
+    levels[FULL] = points;
+    levels[MERGED] = GeometryCleaner.merge(points);
+
+    // At the coarse level a tile is at most MERGED_SIZE pixels wide
+    levels[COARSE] = GeometryCleaner.dropShort(levels[MERGED], (float) size / MERGED_SIZE);
+  }
+
+  /**
+   * Picks the level of detail for a tile drawn at a size.
+   *
+   * @param pixels
+   *          width of the tile on screen
+   * @return the level of detail
+   */
+  public static int levelFor(int pixels) {
+    if (pixels >= FULL_SIZE) {
+      return FULL;
+    } else if (pixels >= MERGED_SIZE) {
+      return MERGED;
+    } else if (pixels >= COARSE_SIZE) {
+      return COARSE;
+    }
+    return BITMAP;
+  }
+
+  /**
+   * Returns the image used at the BITMAP level. Only the lines are drawn, so
+   * the background of the tile shows through.
+   *
+   * @param stroke
+   *          the stroke the lines are drawn with, in tile units
+   * @return the image of the lines
+   */
+  public synchronized BufferedImage getBitmap(BasicStroke stroke) {
+    if (bitmap == null) {
+      float scale = (float) COARSE_SIZE / size;
+      BufferedImage image = new BufferedImage(COARSE_SIZE, COARSE_SIZE,
+          BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g2 = image.createGraphics();
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g2.scale(scale, scale);
+      g2.setColor(Color.GREEN);
+      g2.setStroke(stroke);
+      float[] lines = levels[COARSE];
+      for (int i = 0; i < lines.length; i += 4) {
+        g2.drawLine((int) lines[i], (int) lines[i + 1], (int) lines[i + 2], (int) lines[i + 3]);
+      }
+      g2.dispose();
+      bitmap = image;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Returns the lines at a level of detail. Must not be changed.
+   *
+   * @param level
+   *          FULL, MERGED or COARSE
+   * @return the points of the lines, four values per line
+   */
+  public float[] getLines(int level) {
+    return levels[Math.min(level, COARSE)];
+  }
+}
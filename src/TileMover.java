@@ -1,11 +1,23 @@
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridBagLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
 import java.util.List;
 
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
 import javax.swing.JLayeredPane;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * The TileMover is responsible for all of the mouse listeners to drag and drop
@@ -16,7 +28,8 @@ import javax.swing.JLayeredPane;
  * @author James Fantin
  * @author Chandler Haukap
  */
-public final class TileMover extends JLayeredPane implements MouseListener {
+public final class TileMover extends JLayeredPane
+    implements MouseListener, MouseMotionListener, ActionListener, Scrollable {
 
   /**
    * Serial id to make the compiler happy.
@@ -28,6 +41,56 @@ public final class TileMover extends JLayeredPane implements MouseListener {
    */
   private static Tile tile;
 
+  /**
+   * Delay in milliseconds between ghost updates, roughly one frame at 60 fps.
+   */
+  private static final int FRAME_DELAY = 16;
+
+  /**
+   * Distance in pixels the mouse has to travel before a press becomes a drag.
+   */
+  private static final int DRAG_THRESHOLD = 3;
+
+  /**
+   * Image of the tile that follows the mouse on the drag layer.
+   */
+  private final JLabel ghost;
+
+  /**
+   * Coalesces mouse motion so the ghost moves at most once per frame.
+   */
+  private final Timer frameTimer;
+
+  /**
+   * The layered pane of the window that the ghost is drawn on.
+   */
+  private JLayeredPane dragPane;
+
+  /**
+   * True if the tile was picked up by the current mouse press.
+   */
+  private boolean dragCandidate;
+
+  /**
+   * True while the ghost is following the mouse.
+   */
+  private boolean dragging;
+
+  /**
+   * Where the current mouse press started.
+   */
+  private Point pressPoint;
+
+  /**
+   * Offset of the mouse from the top left corner of the dragged tile.
+   */
+  private Point grabOffset;
+
+  /**
+   * Last mouse position seen while dragging, in tile mover coordinates.
+   */
+  private Point dragPoint;
+
   /**
    * Moves all of the tiles back to their original starting cell.
    */
@@ -35,36 +98,47 @@ public final class TileMover extends JLayeredPane implements MouseListener {
     Cell currentCell;
     Cell homeCell;
 
+    // Start from where any running animation would have left the tiles
+    Animator.finishAll();
+
     List<Tile> tiles = TileController.getShuffledTiles();
 
-    // If there are tiles, then we move them homeF
+    // If there are tiles, then we move them home
     if (tiles != null) {
+      RepaintCoordinator.begin();
+      try {
+        for (Tile tile : tiles) {
+          // CH- rotates the tiles back to their original position
+          int turns = 0;
+          while (tile.getRotations() % 4 != tile.getHomeRotation()) {
+            tile.rotate();
+            turns++;
+          }
+          currentCell = tile.getCurrentCell();
+          homeCell = tile.getHomeCell();
 
-      for (Tile tile : tiles) {
-        // CH- rotates the tiles back to their original position
-        while (tile.getRotations() % 4 != tile.getHomeRotation()) {
-          tile.setVisible(false);
-          tile.rotate();
-          tile.setVisible(true);
-        }
-        currentCell = tile.getCurrentCell();
-        homeCell = tile.getHomeCell();
-
-        // If we are not already in the home cell, we need to move the cell home
-        if (currentCell != homeCell) {
-          // Must change visibility to move
-          tile.setVisible(false);
-
-          // Remove the border before we add the cell
-          homeCell.removeBorder();
-          homeCell.add(tile);
-          tile.setCurrentCell(homeCell);
+          // If we are not already in the home cell, we need to move the cell home
+          if (currentCell != homeCell) {
+            // Remove the border before we add the cell
+            homeCell.removeBorder();
+            homeCell.add(tile);
+            tile.setCurrentCell(homeCell);
 
-          // Add border on the old cell
-          currentCell.createBorder();
+            // Add border on the old cell
+            currentCell.createBorder();
 
-          tile.setVisible(true);
+            RepaintCoordinator.markLayout(homeCell);
+            RepaintCoordinator.markLayout(currentCell);
+            Animator.move(tile, currentCell, homeCell, turns);
+          } else {
+            Animator.rotate(tile, turns);
+          }
         }
+
+        HintIndex.rebuild();
+        TileController.rebuildModel();
+      } finally {
+        RepaintCoordinator.end();
       }
     }
   }
@@ -85,12 +159,111 @@ public final class TileMover extends JLayeredPane implements MouseListener {
 
     // Add the mouse listeners
     addMouseListener(this);
+    addMouseMotionListener(this);
+
+    // The ghost is only shown while a tile is dragged
+    ghost = new JLabel();
+    ghost.setVisible(false);
+
+    // Fires once per frame at most, no matter how many motion events arrive
+    frameTimer = new Timer(FRAME_DELAY, this);
+    frameTimer.setRepeats(false);
 
     setOpaque(false);
 
     // Use GridBagLayout for all objects
     setLayout(new GridBagLayout());
     tile = null;
+
+    // Every batched repaint is collected relative to the tile mover
+    RepaintCoordinator.setRoot(this);
+  }
+
+  /**
+   * Moves the ghost to the last known mouse position. Called by the frame timer
+   * so that bursts of motion events result in a single move per frame.
+   * 
+   * @param event
+   *          Timer event
+   */
+  @Override
+  public void actionPerformed(ActionEvent event) {
+    if (!dragging) {
+      return;
+    }
+
+    // Moving a lightweight component only repaints its old and new bounds
+    Point location = SwingUtilities.convertPoint(this, dragPoint.x - grabOffset.x,
+        dragPoint.y - grabOffset.y, dragPane);
+    ghost.setLocation(location);
+  }
+
+  /**
+   * Returns the size of the viewport that shows the whole board.
+   * 
+   * @return the preferred size of the board
+   */
+  @Override
+  public Dimension getPreferredScrollableViewportSize() {
+    return getPreferredSize();
+  }
+
+  /**
+   * Scrolls a whole page of the visible area at a time.
+   * 
+   * @param visibleRect
+   *          the visible area
+   * @param orientation
+   *          vertical or horizontal
+   * @param direction
+   *          negative to scroll up or left
+   * @return the distance to scroll in pixels
+   */
+  @Override
+  public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation,
+      int direction) {
+    return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+  }
+
+  /**
+   * Stretches the board to the height of the viewport when the viewport is
+   * taller, so the board stays centered.
+   * 
+   * @return true if the viewport is taller than the board
+   */
+  @Override
+  public boolean getScrollableTracksViewportHeight() {
+    return getParent() instanceof JViewport
+        && getParent().getHeight() > getPreferredSize().height;
+  }
+
+  /**
+   * Stretches the board to the width of the viewport when the viewport is wider,
+   * so the board stays centered.
+   * 
+   * @return true if the viewport is wider than the board
+   */
+  @Override
+  public boolean getScrollableTracksViewportWidth() {
+    return getParent() instanceof JViewport
+        && getParent().getWidth() > getPreferredSize().width;
+  }
+
+  /**
+   * Scrolls a fraction of a page for each step of the mouse wheel.
+   * 
+   * @param visibleRect
+   *          the visible area
+   * @param orientation
+   *          vertical or horizontal
+   * @param direction
+   *          negative to scroll up or left
+   * @return the distance to scroll in pixels
+   */
+  @Override
+  public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation,
+      int direction) {
+    return Math.max(1, getScrollableBlockIncrement(visibleRect, orientation, direction) / 10);
   }
 
   /**
@@ -103,6 +276,33 @@ public final class TileMover extends JLayeredPane implements MouseListener {
   public void mouseClicked(MouseEvent event) {
   }
 
+  /**
+   * Starts dragging the selected tile once the mouse has moved far enough, then
+   * records where the ghost should be drawn on the next frame.
+   * 
+   * @param event
+   *          Mouse event
+   */
+  @Override
+  public void mouseDragged(MouseEvent event) {
+    if (tile == null || !SwingUtilities.isLeftMouseButton(event)) {
+      return;
+    }
+
+    if (!dragging) {
+      // Only a tile picked up by this press can be dragged
+      if (!dragCandidate || pressPoint.distance(event.getPoint()) < DRAG_THRESHOLD) {
+        return;
+      }
+      startDrag();
+    }
+
+    dragPoint = event.getPoint();
+    if (!frameTimer.isRunning()) {
+      frameTimer.start();
+    }
+  }
+
   /**
    * Does nothing. Must override for mouse listener.
    * 
@@ -123,6 +323,16 @@ public final class TileMover extends JLayeredPane implements MouseListener {
   public void mouseExited(MouseEvent event) {
   }
 
+  /**
+   * Does nothing. Must override for mouse motion listener.
+   * 
+   * @param event
+   *          Mouse event
+   */
+  @Override
+  public void mouseMoved(MouseEvent event) {
+  }
+
   /**
    * Grabs a tile object when the mouse is pressed on a tile. Places the tile into
    * a container if when released. If it is not a valid container, then move it
@@ -133,19 +343,52 @@ public final class TileMover extends JLayeredPane implements MouseListener {
    */
   @Override
   public void mousePressed(MouseEvent event) {
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
+
+    boolean changed = press(event);
+
+    if (Telemetry.ENABLED) {
+      Telemetry.recordMove(start, allocated, event.getButton());
+    }
+
+    // The win dialogs wait for the player, so they are not timed
+    if (changed) {
+      GameGrid.victory();
+    }
+  }
+
+  /**
+   * Rotates the tile on a right click. On a left click, picks up a tile or places
+   * the tile that was picked up.
+   * 
+   * @param event
+   *          Mouse event
+   * @return true if a tile was rotated or moved, so the maze may be solved
+   */
+  private boolean press(MouseEvent event) {
     // Set the tile to null so that mouseRelease works properly.
     // Otherwise we could click Cells and tiles would just move there.
 
+    dragCandidate = false;
+
     // Right click rotate the tile
     if (event.getButton() == MouseEvent.BUTTON3) {
       Component c = findComponentAt(event.getX(), event.getY());
 
       if (c instanceof Tile) {
         Tile temp = (Tile) c;
-        temp.rotate();
-        temp.repaint();
+        RepaintCoordinator.begin();
+        try {
+          temp.rotate();
+          TileController.commitRotate(temp);
+          Animator.rotate(temp, 1);
+        } finally {
+          RepaintCoordinator.end();
+        }
+        HintIndex.update(temp, temp.getCurrentCell());
         Clock.start();
-        GameGrid.victory();
+        return true;
       }
     } else if (event.getButton() == MouseEvent.BUTTON1) {
       // Check that the left mouse button was clicked to drag the tile.
@@ -158,61 +401,117 @@ public final class TileMover extends JLayeredPane implements MouseListener {
           // If the parent isn't a cell then we need to return or else we will have an
           // error
           if (!(c.getParent() instanceof Cell)) {
-            return;
+            return false;
           }
           tile = (Tile) c;
+          Animator.stop(tile);
           tile.setBackground();
+
+          // Remember where the press started in case it turns into a drag
+          dragCandidate = true;
+          pressPoint = event.getPoint();
         }
       } else {
-        Cell currentCell = tile.getCurrentCell();
-
         // Finds the container at the lowest level to add the tile to.
-        Component c = findComponentAt(event.getX(), event.getY());
-
-        if (c.equals(tile)) {
-          tile.removeBackground();
-          tile = null;
-        } else if (c instanceof Cell) { // If the container is a cell, then we can move it there.
-          Cell parent = (Cell) c;
-          parent.add(tile);
-          parent.setBorder(null);
-          tile.setCurrentCell(parent);
-
-          // CH- if the tile is released on the same cell that it was taken from:
-          if (c.equals(currentCell)) {
-            // The cell does not need a border
-            currentCell.removeBorder();
-          } else {
-            // if the old cell is now vacant
-
-            // make a blue border that is 1 pixel wide and blue.
-            currentCell.createBorder();
-            tile.removeBackground();
-            tile = null;
-            Clock.start();
-            GameGrid.victory();
-          }
-        } else if (c instanceof Tile) {
-          ((Tile) c).displayWarning();
-          // If it is not a cell, we move it to where it originally came from.
-          currentCell.add(tile);
-          currentCell.setBorder(null);
-        } else {
-          tile.removeBackground();
-          tile = null;
-        }
+        return placeTile(findComponentAt(event.getX(), event.getY()));
       }
     }
+    return false;
   }
 
   /**
-   * Does nothing. Must override for mouse listener.
+   * Drops the dragged tile on the component under the mouse. A press and release
+   * without a drag leaves the tile selected so it can be placed with a click.
    * 
    * @param event
    *          Mouse event
    */
   @Override
   public void mouseReleased(MouseEvent event) {
+    if (!dragging || event.getButton() != MouseEvent.BUTTON1) {
+      return;
+    }
+    long start = Telemetry.start();
+    long allocated = Telemetry.allocatedBytes();
+
+    stopDrag();
+    boolean moved = placeTile(findComponentAt(event.getX(), event.getY()));
+
+    if (Telemetry.ENABLED) {
+      Telemetry.recordMove(start, allocated, event.getButton());
+    }
+
+    // The win dialogs wait for the player, so they are not timed
+    if (moved) {
+      GameGrid.victory();
+    }
+  }
+
+  /**
+   * Places the selected tile into the component it was dropped on. If it is not
+   * a valid container, the tile stays in the cell it came from.
+   * 
+   * @param c
+   *          the component the tile was dropped on, may be null
+   * @return true if the tile moved to another cell, so the maze may be solved
+   */
+  private boolean placeTile(Component c) {
+    Cell currentCell = tile.getCurrentCell();
+    boolean moved = false;
+
+    RepaintCoordinator.begin();
+    try {
+      if (tile.equals(c)) {
+        tile.removeBackground();
+        tile = null;
+      } else if (c instanceof Cell && !c.equals(currentCell)
+          && !TileController.commitMove(tile, currentCell, (Cell) c)) {
+        // Another player moved a tile there first
+        tile.displayWarning();
+        currentCell.add(tile);
+        currentCell.removeBorder();
+        RepaintCoordinator.markLayout(currentCell);
+      } else if (c instanceof Cell) { // If the container is a cell, then we can move it there.
+        Cell parent = (Cell) c;
+        parent.add(tile);
+        parent.removeBorder();
+        tile.setCurrentCell(parent);
+        RepaintCoordinator.markLayout(parent);
+
+        // CH- if the tile is released on the same cell that it was taken from:
+        if (c.equals(currentCell)) {
+          // The cell does not need a border
+          currentCell.removeBorder();
+        } else {
+          // if the old cell is now vacant
+
+          // make a blue border that is 1 pixel wide and blue.
+          currentCell.createBorder();
+          RepaintCoordinator.markLayout(currentCell);
+          HintIndex.update(tile, currentCell);
+          tile.removeBackground();
+          tile = null;
+          moved = true;
+        }
+      } else if (c instanceof Tile) {
+        ((Tile) c).displayWarning();
+        // If it is not a cell, we move it to where it originally came from.
+        currentCell.add(tile);
+        currentCell.removeBorder();
+        RepaintCoordinator.markLayout(currentCell);
+      } else {
+        tile.removeBackground();
+        tile = null;
+      }
+    } finally {
+      RepaintCoordinator.end();
+    }
+
+    // The caller checks for a win once the move has been timed
+    if (moved) {
+      Clock.start();
+    }
+    return moved;
   }
 
   /**
@@ -220,18 +519,60 @@ public final class TileMover extends JLayeredPane implements MouseListener {
    * tile controller so all instances of tile are deleted.
    */
   public void removeTiles() {
-    List<Tile> tiles = TileController.getShuffledTiles();
-    if (tiles != null) {
-      for (int i = 0; i < tiles.size(); i++) {
-        tiles.get(i).setVisible(false);
-        this.remove(tiles.get(i));
+    Animator.finishAll();
+    RepaintCoordinator.begin();
+    try {
+      List<Tile> tiles = TileController.getShuffledTiles();
+      if (tiles != null) {
+        for (int i = 0; i < tiles.size(); i++) {
+          Cell cell = tiles.get(i).getCurrentCell();
+          if (cell != null) {
+            cell.remove(tiles.get(i));
+            RepaintCoordinator.markLayout(cell);
+          }
+        }
+        TileController.clearTiles();
       }
-      TileController.clearTiles();
-    }
 
-    Cell[] cells = GameGrid.getCells();
-    for (int i = 0; i < cells.length; ++i) {
-      cells[i].createBorder();
+      Cell[] cells = GameGrid.getCells();
+      for (int i = 0; i < cells.length; ++i) {
+        cells[i].createBorder();
+      }
+    } finally {
+      RepaintCoordinator.end();
     }
   }
+
+  /**
+   * Puts the cached sprite of the selected tile on the drag layer of the window
+   * so that it can follow the mouse.
+   */
+  private void startDrag() {
+    dragPane = SwingUtilities.getRootPane(this).getLayeredPane();
+    dragPane.add(ghost, JLayeredPane.DRAG_LAYER);
+
+    ghost.setIcon(new ImageIcon(tile.getSprite()));
+    ghost.setSize(ghost.getPreferredSize());
+
+    // Keep the tile under the same point of the mouse while it moves
+    Point corner = SwingUtilities.convertPoint(tile, 0, 0, this);
+    grabOffset = new Point(pressPoint.x - corner.x, pressPoint.y - corner.y);
+    ghost.setLocation(SwingUtilities.convertPoint(this, corner, dragPane));
+    ghost.setVisible(true);
+
+    dragging = true;
+  }
+
+  /**
+   * Removes the ghost from the drag layer.
+   */
+  private void stopDrag() {
+    frameTimer.stop();
+    dragging = false;
+    dragCandidate = false;
+
+    ghost.setVisible(false);
+    dragPane.remove(ghost);
+    ghost.setIcon(null);
+  }
 }
@@ -0,0 +1,276 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The lines of a tile, shared by every tile with the same lines. Shapes never
+ * change once created and are interned, so tiles with the same lines on one
+ * board, or on any number of loaded boards, hold a single copy of the points.
+ * The rotated points, levels of detail and sprites are worked out once per
+ * rotation and shared the same way. They may be worked out on any thread, so
+ * boards can be prepared in parallel before their tiles are built.
+ *
+ * <p>Points are kept in the same 0 to 100 square they are stored in on file.
+ * Tiles scale them to their size on screen when painted, so resizing the board
+ * never touches the points.
+ *
+ * @author Batyr Nuryyev
+ * @author James Fantin
+ */
+public final class TileShape {
+
+  /**
+   * Stroke used for every line on a tile.
+   */
+  private static final BasicStroke STROKE = new BasicStroke(3);
+
+  /**
+   * Size of the square every shape's points are in, the same as on file.
+   */
+  public static final int UNITS = 100;
+
+  /**
+   * Every shape still in use. Shapes no tile refers to anymore are dropped.
+   */
+  private static final Map<TileShape, WeakReference<TileShape>> POOL = new WeakHashMap<>();
+
+  /**
+   * The points with no rotation, four values per line.
+   */
+  private final float[] points;
+
+  /**
+   * Hash of the points, worked out once.
+   */
+  private final int hash;
+
+  /**
+   * The points at every rotation, filled in when first needed.
+   */
+  private final float[][] rotated = new float[4][];
+
+  /**
+   * The levels of detail at every rotation, filled in when first needed.
+   */
+  private final TileDetail[] details = new TileDetail[4];
+
+  /**
+   * The last sprite drawn at every rotation.
+   */
+  private final BufferedImage[] sprites = new BufferedImage[4];
+
+  /**
+   * The color behind the lines of each sprite.
+   */
+  private final Color[] spriteBackgrounds = new Color[4];
+
+  /**
+   * Creates a shape. Use intern() so equal shapes are shared.
+   *
+   * @param points
+   *          the points with no rotation, not copied
+   */
+  private TileShape(float[] points) {
+    this.points = points;
+    hash = Arrays.hashCode(points);
+    rotated[0] = points;
+  }
+
+  /**
+   * Returns the shared shape for a set of points.
+   *
+   * @param points
+   *          the points with no rotation, four values per line
+   * @return the shape, the same object for equal points
+   */
+  public static TileShape intern(List<Float> points) {
+    float[] copy = new float[points.size()];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = points.get(i);
+    }
+    return intern(copy);
+  }
+
+  /**
+   * Returns the shared shape for a set of points.
+   *
+   * @param points
+   *          the points with no rotation, four values per line. Must not be
+   *          changed afterwards.
+   * @return the shape, the same object for equal points
+   */
+  public static TileShape intern(float[] points) {
+    TileShape shape = new TileShape(points);
+    synchronized (POOL) {
+      WeakReference<TileShape> existing = POOL.get(shape);
+      TileShape canonical = existing == null ? null : existing.get();
+      if (canonical != null) {
+        return canonical;
+      }
+      POOL.put(shape, new WeakReference<>(shape));
+      return shape;
+    }
+  }
+
+  /**
+   * Draws the lines at a rotation, at the level of detail that suits the size on
+   * screen. The graphics must already be scaled from UNITS to the tile size.
+   *
+   * @param g2
+   *          for rendering 2-dimensional shapes
+   * @param rotation
+   *          number of quarter turns clockwise
+   * @param pixels
+   *          width of the tile on screen
+   * @return the number of lines drawn
+   */
+  public int draw(Graphics2D g2, int rotation, int pixels) {
+    TileDetail detail = getDetail(rotation);
+    int level = TileDetail.levelFor(pixels);
+
+    // Tiny tiles are a single image
+    if (level == TileDetail.BITMAP) {
+      g2.drawImage(detail.getBitmap(STROKE), 0, 0, UNITS, UNITS, null);
+      return 0;
+    }
+
+    g2.setColor(Color.GREEN);
+    g2.setStroke(STROKE);
+    float[] lines = detail.getLines(level);
+
+    // Loop through each point and draw it
+    for (int i = 0; i < lines.length; i += 4) {
+      g2.drawLine((int) lines[i], (int) lines[i + 1], (int) lines[i + 2], (int) lines[i + 3]);
+    }
+    return lines.length / 4;
+  }
+
+  /**
+   * Returns true if another shape has the same points.
+   *
+   * @param other
+   *          the object to compare to
+   * @return true if the shapes are equal
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof TileShape)) {
+      return false;
+    }
+    TileShape shape = (TileShape) other;
+    return hash == shape.hash && Arrays.equals(points, shape.points);
+  }
+
+  /**
+   * Returns the levels of detail at a rotation.
+   *
+   * @param rotation
+   *          number of quarter turns clockwise
+   * @return the levels of detail
+   */
+  public synchronized TileDetail getDetail(int rotation) {
+    int r = rotation & 3;
+    if (details[r] == null) {
+      details[r] = new TileDetail(getPoints(r), UNITS);
+    }
+    return details[r];
+  }
+
+  /**
+   * Returns the points at a rotation. Must not be changed.
+   *
+   * @param rotation
+   *          number of quarter turns clockwise
+   * @return the points, four values per line
+   */
+  public synchronized float[] getPoints(int rotation) {
+    int r = rotation & 3;
+    if (rotated[r] == null) {
+      rotated[r] = rotate(getPoints(r - 1));
+    }
+    return rotated[r];
+  }
+
+  /**
+   * Works out what is needed to draw the shape at a rotation: the rotated
+   * points and the merged and coarse lines. The small image of the BITMAP level
+   * is left until it is drawn, tiles on the board are never that small. Full
+   * size sprites are left until a tile is dragged, one per shape and rotation
+   * would cost more memory than it saves.
+   *
+   * @param rotation
+   *          number of quarter turns clockwise
+   */
+  public void prepare(int rotation) {
+    getDetail(rotation);
+  }
+
+  /**
+   * Returns an image of the shape at a rotation and width. The last image drawn
+   * at each rotation is kept, so it is only drawn again when the width or the
+   * background changes.
+   *
+   * @param rotation
+   *          number of quarter turns clockwise
+   * @param width
+   *          width of the image in pixels
+   * @param background
+   *          color behind the lines
+   * @return the image
+   */
+  public synchronized BufferedImage getSprite(int rotation, int width, Color background) {
+    int r = rotation & 3;
+    BufferedImage sprite = sprites[r];
+    if (sprite == null || sprite.getWidth() != width
+        || !background.equals(spriteBackgrounds[r])) {
+      double scale = (double) width / UNITS;
+      sprite = new BufferedImage(width, width, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g2 = sprite.createGraphics();
+      g2.setColor(background);
+      g2.fillRect(0, 0, width, width);
+      g2.scale(scale, scale);
+      draw(g2, r, width);
+      g2.dispose();
+      sprites[r] = sprite;
+      spriteBackgrounds[r] = background;
+    }
+    return sprite;
+  }
+
+  /**
+   * Returns the hash of the points.
+   *
+   * @return the hash
+   */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Rotates points by 90 degrees clockwise using matrix algebra. The points are
+   * first rotated 90 degrees: x' = y*sin(90) = -y y' = -x*sin(90) = x Then
+   * translated back into the first quadrant: x = x + UNITS
+   *
+   * @param from
+   *          the points to rotate
+   * @return the rotated points
+   */
+  private float[] rotate(float[] from) {
+    float[] to = new float[from.length];
+    for (int i = 0; i < from.length; i += 2) {
+      to[i] = -from[i + 1] + UNITS;
+      to[i + 1] = from[i];
+    }
+    return to;
+  }
+}
@@ -0,0 +1,101 @@
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * The tiles of a board in the order they are saved. FileWriter asks for one
+ * tile at a time, so a source only has to have the tile being written in
+ * memory. The tiles on screen, a file being read lazily or mapped geometry can
+ * all be saved the same way.
+ *
+ * @author Chandler Haukap
+ * @author James Fantin
+ */
+public interface TileSource {
+
+  /**
+   * Returns the number of tiles.
+   *
+   * @return the number of tiles
+   */
+  int size();
+
+  /**
+   * Returns true if the board has been played, so rotations and time are kept.
+   *
+   * @return true if played
+   */
+  boolean isPlayed();
+
+  /**
+   * Returns the time played in seconds.
+   *
+   * @return the time played
+   */
+  long getTime();
+
+  /**
+   * Returns the id of the cell a tile is in.
+   *
+   * @param tile
+   *          index of the tile, from 0 to size() - 1
+   * @return the cell id
+   */
+  int getId(int tile);
+
+  /**
+   * Returns the number of quarter turns a tile is rotated by.
+   *
+   * @param tile
+   *          index of the tile, from 0 to size() - 1
+   * @return the rotations, from 0 to 3
+   */
+  int getRotation(int tile);
+
+  /**
+   * Returns the points of a tile with no rotation. The array is only read and
+   * can be dropped once the next tile is asked for.
+   *
+   * @param tile
+   *          index of the tile, from 0 to size() - 1
+   * @return the points, four values per line
+   */
+  float[] getPoints(int tile);
+
+  /**
+   * Returns the seed the tiles were dealt with, so the deal can be made again.
+   *
+   * @return the seed, empty if it is not known
+   */
+  default OptionalLong getSeed() {
+    return OptionalLong.empty();
+  }
+
+  /**
+   * Returns the difficulty the tiles were dealt at, see DealGenerator.
+   *
+   * @return the difficulty from 0 to 1, NaN for a uniform shuffle
+   */
+  default float getDifficulty() {
+    return Float.NaN;
+  }
+
+  /**
+   * Returns the number of moves and rotations made on the game so far.
+   *
+   * @return the moves, 0 if not counted
+   */
+  default int getMoves() {
+    return 0;
+  }
+
+  /**
+   * Returns blocks read from the file that this version does not know, to be
+   * written back unchanged, see MazeTrailer.
+   *
+   * @return the payloads by tag
+   */
+  default Map<Integer, ByteBuffer> getUnknownBlocks() {
+    return Map.of();
+  }
+}